@@ -0,0 +1,55 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fact that optimized code takes for granted instead of checking, such as
+ * a global variable keeping its value. Code that relies on it registers a
+ * dependent action; whoever breaks the fact calls {@link #invalidate} and
+ * every action runs once, typically deoptimizing the code (see
+ * {@link Tiering#deoptimize}).
+ *
+ * <p>Dependents are added from the compiler thread and the assumption is
+ * invalidated from the interpreter thread, so both are synchronized; the
+ * valid flag itself is read without locking on the fast path.
+ */
+final class Assumption {
+  final String description;
+  private volatile boolean valid = true;
+  private List<Runnable> dependents = new ArrayList<>();
+
+  Assumption(String description) {
+    this.description = description;
+  }
+
+  boolean isValid() {
+    return valid;
+  }
+
+  // Returns false, without registering anything, if the assumption has
+  // already been broken.
+  synchronized boolean addDependent(Runnable onInvalidate) {
+    if (!valid) return false;
+    dependents.add(onInvalidate);
+    return true;
+  }
+
+  void invalidate() {
+    List<Runnable> broken;
+    synchronized (this) {
+      if (!valid) return;
+      valid = false;
+      broken = dependents;
+      dependents = null;
+    }
+    for (Runnable dependent : broken) {
+      dependent.run();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return description;
+  }
+}
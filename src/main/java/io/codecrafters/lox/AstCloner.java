@@ -0,0 +1,133 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Deep-copies function bodies so a copy can collect its own runtime
+ * feedback. Tokens are shared; every node is new, and the resolver's side
+ * tables in the interpreter are extended to cover the copies.
+ */
+class AstCloner {
+  private final Interpreter interpreter;
+  private final Deque<List<Expr>> profiled = new ArrayDeque<>();
+  private Stmt.Class currentClass = null;
+
+  AstCloner(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  List<Stmt> cloneBody(List<Stmt> body) {
+    List<Stmt> copy = new ArrayList<>(body.size());
+    profiled.push(new ArrayList<>());
+
+    for (Stmt statement : body) {
+      copy.add(clone(statement));
+    }
+
+    for (Expr node : profiled.pop()) {
+      interpreter.resolveProfiled(copy, node);
+    }
+    return copy;
+  }
+
+  private List<Stmt> cloneStatements(List<Stmt> statements) {
+    List<Stmt> copy = new ArrayList<>(statements.size());
+    for (Stmt statement : statements) {
+      copy.add(clone(statement));
+    }
+    return copy;
+  }
+
+  private Stmt.Function cloneFunction(Stmt.Function stmt) {
+    return new Stmt.Function(stmt.name, stmt.params, cloneBody(stmt.body));
+  }
+
+  private Stmt clone(Stmt stmt) {
+    return switch (stmt) {
+      case Stmt.Block s -> new Stmt.Block(cloneStatements(s.statements));
+      case Stmt.Class s -> cloneClass(s);
+      case Stmt.Expression s -> new Stmt.Expression(clone(s.expression));
+      case Stmt.Function s -> cloneFunction(s);
+      case Stmt.If s -> new Stmt.If(clone(s.condition), clone(s.thenBranch),
+          s.elseBranch == null ? null : clone(s.elseBranch));
+      case Stmt.Print s -> new Stmt.Print(clone(s.expression));
+      case Stmt.Return s -> new Stmt.Return(s.keyword,
+          s.value == null ? null : clone(s.value));
+      case Stmt.Var s -> new Stmt.Var(s.name,
+          s.initializer == null ? null : clone(s.initializer));
+      case Stmt.While s -> {
+        Stmt.While copy = new Stmt.While(s.keyword, clone(s.condition), clone(s.body),
+            s.counter);
+        copy.invariants = s.invariants;
+        yield copy;
+      }
+    };
+  }
+
+  private Stmt.Class cloneClass(Stmt.Class stmt) {
+    Expr.Variable superclass = null;
+    if (stmt.superclass != null) {
+      superclass = (Expr.Variable) clone(stmt.superclass);
+    }
+
+    List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+    Stmt.Class copy = new Stmt.Class(stmt.name, superclass, methods);
+
+    Stmt.Class enclosingClass = currentClass;
+    currentClass = copy;
+    for (Stmt.Function method : stmt.methods) {
+      methods.add(cloneFunction(method));
+    }
+    currentClass = enclosingClass;
+    return copy;
+  }
+
+  private List<Expr> cloneArguments(List<Expr> arguments) {
+    List<Expr> copy = new ArrayList<>(arguments.size());
+    for (Expr argument : arguments) {
+      copy.add(clone(argument));
+    }
+    return copy;
+  }
+
+  private Expr clone(Expr expr) {
+    Expr copy = switch (expr) {
+      case Expr.Assign e -> new Expr.Assign(e.name, clone(e.value));
+      case Expr.Binary e -> new Expr.Binary(clone(e.left), e.operator, clone(e.right));
+      case Expr.Call e -> new Expr.Call(clone(e.callee), e.paren, cloneArguments(e.arguments));
+      case Expr.Get e -> new Expr.Get(clone(e.object), e.name);
+      case Expr.Grouping e -> new Expr.Grouping(clone(e.expression));
+      case Expr.Literal e -> new Expr.Literal(e.value);
+      case Expr.Logical e -> new Expr.Logical(clone(e.left), e.operator, clone(e.right));
+      case Expr.Set e -> new Expr.Set(clone(e.object), e.name, clone(e.value));
+      case Expr.Super e -> new Expr.Super(e.keyword, e.method);
+      case Expr.This e -> new Expr.This(e.keyword);
+      case Expr.Unary e -> new Expr.Unary(e.operator, clone(e.right));
+      case Expr.Variable e -> new Expr.Variable(e.name);
+    };
+
+    interpreter.copyResolution(expr, copy);
+    if (expr instanceof Expr.Binary e) {
+      ((Expr.Binary) copy).provenNumeric = e.provenNumeric;
+      ((Expr.Binary) copy).temporary = e.temporary;
+      ((Expr.Binary) copy).invariant = e.invariant;
+    } else if (expr instanceof Expr.Get e) {
+      ((Expr.Get) copy).temporary = e.temporary;
+      ((Expr.Get) copy).invariant = e.invariant;
+    } else if (expr instanceof Expr.Unary e) {
+      ((Expr.Unary) copy).provenNumeric = e.provenNumeric;
+    } else if (expr instanceof Expr.Call e) {
+      ((Expr.Call) copy).inlined = e.inlined;
+    }
+    if (copy instanceof Expr.Super && currentClass != null) {
+      interpreter.resolveSuper(currentClass, (Expr.Super) copy);
+    }
+    if ((copy instanceof Expr.Get || copy instanceof Expr.Call) && !profiled.isEmpty()) {
+      profiled.peek().add(copy);
+    }
+    return copy;
+  }
+}
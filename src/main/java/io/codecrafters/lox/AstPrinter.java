@@ -50,7 +50,7 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     builder.append("(block ");
 
     for (Stmt statement : stmt.statements) {
-        builder.append(statement.accept(this));
+        builder.append(print(statement));
     }
 
     builder.append(")");
@@ -82,9 +82,9 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         for (Object part : parts) {
             builder.append(" ");
             if (part instanceof Expr) {
-                builder.append(((Expr) part).accept(this));
+                builder.append(print((Expr) part));
             } else if (part instanceof Stmt) {
-                builder.append(((Stmt) part).accept(this));
+                builder.append(print((Stmt) part));
             } else if (part instanceof Token) {
                 builder.append(((Token) part).lexeme);
             } else {
@@ -129,7 +129,7 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         }
         builder.append(") ");
         for (Stmt body : stmt.body) {
-            builder.append(body.accept(this));
+            builder.append(print(body));
         }
         builder.append(")");
         return builder.toString();
@@ -138,9 +138,9 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     @Override
     public String visitCallExpr(Expr.Call expr) {
         StringBuilder builder = new StringBuilder();
-        builder.append("(call ").append(expr.callee.accept(this));
+        builder.append("(call ").append(print(expr.callee));
         for (Expr argument : expr.arguments) {
-            builder.append(" ").append(argument.accept(this));
+            builder.append(" ").append(print(argument));
         }
         builder.append(")");
         return builder.toString();
@@ -159,7 +159,7 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         StringBuilder builder = new StringBuilder();
         builder.append("(class ").append(stmt.name.lexeme);
         for (Stmt.Function method : stmt.methods) {
-            builder.append(" ").append(method.accept(this));
+            builder.append(" ").append(print(method));
         }
         builder.append(")");
         return builder.toString();
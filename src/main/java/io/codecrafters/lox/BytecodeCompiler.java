@@ -0,0 +1,684 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles a resolved function body, or a single loop for on-stack
+ * replacement, into a {@link Chunk} for the VM.
+ *
+ * <p>Parameters and variables declared inside the body live in frame slots
+ * instead of Environments. That is only sound while nothing can capture
+ * them, so bodies that declare a nested function or class are rejected and
+ * stay in the tree-walking interpreter. Variables from enclosing scopes are
+ * still read through the closure's Environment chain, using the distances
+ * the Resolver computed.
+ *
+ * <p>Globals holding a function or class that has not been reassigned are
+ * read as constants, on the assumption that they stay that way; see
+ * {@link GlobalEnvironment}. Each loop back-edge records the
+ * {@link FrameState} needed to deoptimize there if that stops being true.
+ *
+ * <p>Common instruction sequences are fused into superinstructions as they
+ * are emitted; see {@link Peephole}.
+ *
+ * <p>A variable whose declaration has only ever stored numbers in the
+ * interpreter, and which no assignment has stored anything else in, gets a
+ * number slot: its value stays unboxed in the frame's {@code double[]}, and
+ * arithmetic and comparisons on it use the NUMBER instructions, which read
+ * and write those slots in place. A non-number stored there anyway is kept
+ * boxed in the slot array until a number replaces it.
+ */
+class BytecodeCompiler {
+
+  static class Unsupported extends RuntimeException {
+    Unsupported(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final List<Map<String, Integer>> scopes = new ArrayList<>();
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndexes = new HashMap<>();
+  private final Map<Object, Integer> identityIndexes = new IdentityHashMap<>();
+  private final List<HotLoop> loops = new ArrayList<>();
+  private final List<Assumption> assumptions = new ArrayList<>();
+
+  // What follows each statement being compiled, outermost first.
+  private final List<FrameState.Continuation> continuations = new ArrayList<>();
+  private int[] code = new int[64];
+  private int count = 0;
+  private final Peephole peephole;
+  private int nextSlot = 0;
+  private int maxSlots = 0;
+
+  // Number slots of the variables in scope, and whether there have been any.
+  private final Set<Integer> numberSlots = new HashSet<>();
+  private boolean hasNumberSlots = false;
+
+  // Variables some assignment has stored a non-number in.
+  private final Set<String> assignedOthers = new HashSet<>();
+
+  private int depth = 0;
+  private int maxDepth = 0;
+
+  // True when compiling a loop on its own: a return inside it must unwind
+  // the interpreted function the loop belongs to.
+  private final boolean isLoop;
+
+  private BytecodeCompiler(Interpreter interpreter, boolean isLoop) {
+    this.interpreter = interpreter;
+    this.isLoop = isLoop;
+    this.peephole = new Peephole(interpreter.tiering.superinstructions);
+  }
+
+  static Chunk compile(Interpreter interpreter, FunctionProfile profile) {
+    BytecodeCompiler compiler = new BytecodeCompiler(interpreter, false);
+    compiler.beginScope();
+    for (Token param : profile.params) {
+      compiler.declare(param);
+    }
+    compiler.findAssignedOthers(profile.body);
+    compiler.compileAll(profile.body, 0);
+    compiler.emit(OpCode.NIL, 1);
+    compiler.emit(OpCode.RETURN, -1);
+
+    return new Chunk(profile.name, Arrays.copyOf(compiler.code, compiler.count),
+        compiler.constants.toArray(), compiler.maxSlots, compiler.hasNumberSlots,
+        compiler.maxDepth + 1, profile.isInitializer, compiler.loops.toArray(new HotLoop[0]),
+        compiler.assumptions, profile);
+  }
+
+  // The loop's chunk runs against the Environment the loop was entered in,
+  // so with no scopes open every resolved variable is reached through it.
+  static Chunk compileLoop(Interpreter interpreter, LoopProfile profile) {
+    BytecodeCompiler compiler = new BytecodeCompiler(interpreter, true);
+    compiler.findAssignedOthers(List.of(profile.loop));
+    compiler.compile(profile.loop);
+    compiler.emit(OpCode.NIL, 1);
+    compiler.emit(OpCode.RETURN, -1);
+
+    return new Chunk(profile.describe(), Arrays.copyOf(compiler.code, compiler.count),
+        compiler.constants.toArray(), compiler.maxSlots, compiler.hasNumberSlots,
+        compiler.maxDepth + 1, false, compiler.loops.toArray(new HotLoop[0]),
+        compiler.assumptions, profile);
+  }
+
+  private void compile(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.Block s -> {
+        beginScope();
+        compileAll(s.statements, scopes.size() - 1);
+        endScope();
+      }
+      case Stmt.Class s -> throw new Unsupported("declares class " + s.name.lexeme);
+      case Stmt.Expression s -> {
+        Integer slot = s.expression instanceof Expr.Assign assign ? numberSlot(assign) : null;
+        if (slot != null) {
+          storeNumber(((Expr.Assign) s.expression).value, slot);
+        } else {
+          compile(s.expression);
+          emit(OpCode.POP, -1);
+        }
+      }
+      case Stmt.Function s -> throw new Unsupported("declares function " + s.name.lexeme);
+      case Stmt.If s -> {
+        compile(s.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(s.thenBranch);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        adjust(1);
+        emit(OpCode.POP, -1);
+        if (s.elseBranch != null) {
+          compile(s.elseBranch);
+        }
+        patchJump(endJump);
+      }
+      case Stmt.Print s -> {
+        compile(s.expression);
+        emit(OpCode.PRINT, -1);
+      }
+      case Stmt.Return s -> {
+        if (s.value != null) {
+          compile(s.value);
+        } else {
+          emit(OpCode.NIL, 1);
+        }
+        emit(isLoop ? OpCode.THROW_RETURN : OpCode.RETURN, -1);
+      }
+      case Stmt.Var s -> {
+        if (s.initializer != null && isNumberVariable(s)) {
+          // The Resolver rejects initializers reading the variable, so it
+          // can be declared first.
+          storeNumber(s.initializer, declare(s.name, true));
+          return;
+        }
+        if (s.initializer != null) {
+          compile(s.initializer);
+        } else {
+          emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.SET_LOCAL, 0, declare(s.name));
+        emit(OpCode.POP, -1);
+      }
+      case Stmt.While s -> {
+        int loopStart = count;
+        peephole.label(loopStart);
+        compile(s.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        continuations.add(new FrameState.Continuation(List.of(s), scopes.size() - 1));
+        compile(s.body);
+        continuations.remove(continuations.size() - 1);
+        emitLoop(loopStart, s);
+        patchJump(exitJump);
+        adjust(1);
+        emit(OpCode.POP, -1);
+      }
+    }
+  }
+
+  // Compiles statements that run in the given scope, remembering for each
+  // one what is left to run after it.
+  private void compileAll(List<Stmt> statements, int scope) {
+    for (int i = 0; i < statements.size(); i++) {
+      continuations.add(new FrameState.Continuation(
+          statements.subList(i + 1, statements.size()), scope));
+      compile(statements.get(i));
+      continuations.remove(continuations.size() - 1);
+    }
+  }
+
+  private void compile(Expr expr) {
+    switch (expr) {
+      case Expr.Assign e -> {
+        Integer slot = numberSlot(e);
+        if (slot != null) {
+          storeNumber(e.value, slot);
+          emit(OpCode.GET_NUMBER, 1, slot);
+          return;
+        }
+        compile(e.value);
+        Integer distance = interpreter.distance(e);
+        if (distance == null) {
+          emit(OpCode.SET_GLOBAL, 0, constant(e.name));
+        } else if (distance < scopes.size()) {
+          emit(OpCode.SET_LOCAL, 0, slot(distance, e.name));
+        } else {
+          emit(OpCode.SET_ENV, 0, distance - scopes.size(), constant(e.name));
+        }
+      }
+      case Expr.Binary e when isArithmetic(e) && readsNumberSlot(e) -> {
+        int mark = nextSlot;
+        int result = temporary();
+        arithmetic(e, result);
+        emit(OpCode.GET_NUMBER, 1, result);
+        nextSlot = mark;
+      }
+      case Expr.Binary e when isComparison(e) && readsNumberSlot(e) -> {
+        int mark = nextSlot;
+        int[] operands = operands(e.left, e.right);
+        int op = switch (e.operator.type) {
+          case GREATER -> OpCode.NUMBER_GREATER;
+          case GREATER_EQUAL -> OpCode.NUMBER_GREATER_EQUAL;
+          case LESS -> OpCode.NUMBER_LESS;
+          default -> OpCode.NUMBER_LESS_EQUAL;
+        };
+        emit(op, 1 - popped(operands), operands[0], operands[1], constant(e.operator));
+        nextSlot = mark;
+      }
+      case Expr.Binary e -> {
+        compile(e.left);
+        compile(e.right);
+        switch (e.operator.type) {
+          case BANG_EQUAL -> emit(OpCode.NOT_EQUAL, -1);
+          case EQUAL_EQUAL -> emit(OpCode.EQUAL, -1);
+          case GREATER -> emit(OpCode.GREATER, -1, constant(e.operator));
+          case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL, -1, constant(e.operator));
+          case LESS -> emit(OpCode.LESS, -1, constant(e.operator));
+          case LESS_EQUAL -> emit(OpCode.LESS_EQUAL, -1, constant(e.operator));
+          case PLUS -> emit(OpCode.ADD, -1, constant(e.operator));
+          case MINUS -> emit(OpCode.SUBTRACT, -1, constant(e.operator));
+          case STAR -> emit(OpCode.MULTIPLY, -1, constant(e.operator));
+          case SLASH -> emit(OpCode.DIVIDE, -1, constant(e.operator));
+          default -> throw new Unsupported("binary operator " + e.operator.lexeme);
+        }
+      }
+      case Expr.Call e -> compileCall(e);
+      case Expr.Get e -> {
+        compile(e.object);
+        emit(OpCode.GET_PROPERTY, 0, constant(e));
+      }
+      case Expr.Grouping e -> compile(e.expression);
+      case Expr.Literal e -> {
+        if (e.value == null) {
+          emit(OpCode.NIL, 1);
+        } else if (e.value == Boolean.TRUE) {
+          emit(OpCode.TRUE, 1);
+        } else if (e.value == Boolean.FALSE) {
+          emit(OpCode.FALSE, 1);
+        } else {
+          emit(OpCode.CONSTANT, 1, constant(e.value));
+        }
+      }
+      case Expr.Logical e -> {
+        compile(e.left);
+        int endJump = emitJump(e.operator.type == TokenType.OR
+            ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP, -1);
+        compile(e.right);
+        patchJump(endJump);
+      }
+      case Expr.Set e -> {
+        compile(e.object);
+        emit(OpCode.CHECK_INSTANCE, 0, constant(e.name));
+        compile(e.value);
+        emit(OpCode.SET_PROPERTY, -1, constant(e.name));
+      }
+      case Expr.Super e -> emit(OpCode.GET_SUPER, 1, constant(e), thisDepth(e));
+      case Expr.This e -> {
+        emit(OpCode.GET_ENV, 1, interpreter.distance(e) - scopes.size(), constant(e.keyword));
+      }
+      case Expr.Unary e when isArithmetic(e) && readsNumberSlot(e) -> {
+        int mark = nextSlot;
+        int result = temporary();
+        arithmetic(e, result);
+        emit(OpCode.GET_NUMBER, 1, result);
+        nextSlot = mark;
+      }
+      case Expr.Unary e -> {
+        compile(e.right);
+        if (e.operator.type == TokenType.MINUS) {
+          emit(OpCode.NEGATE, 0, constant(e.operator));
+        } else {
+          emit(OpCode.NOT, 0);
+        }
+      }
+      case Expr.Variable e -> {
+        Integer distance = interpreter.distance(e);
+        GlobalEnvironment.Binding binding = distance == null
+            ? interpreter.globals.stableBinding(e.name.lexeme) : null;
+        if (binding != null && binding.value instanceof LoxCallable) {
+          emit(OpCode.GET_STABLE_GLOBAL, 1, constant(e.name), constant(binding));
+          assumptions.add(binding.unchanged);
+        } else if (distance == null) {
+          emit(OpCode.GET_GLOBAL, 1, constant(e.name));
+        } else if (distance < scopes.size()) {
+          int slot = slot(distance, e.name);
+          emit(numberSlots.contains(slot) ? OpCode.GET_NUMBER : OpCode.GET_LOCAL, 1, slot);
+        } else {
+          emit(OpCode.GET_ENV, 1, distance - scopes.size(), constant(e.name));
+        }
+      }
+    }
+  }
+
+  private boolean isNumberVariable(Stmt.Var var) {
+    return interpreter.tiering.numberSlots && interpreter.storedOnlyNumbers(var)
+        && !assignedOthers.contains(var.name.lexeme);
+  }
+
+  // The number slot a variable or assignment refers to, or null.
+  private Integer numberSlot(Expr expr) {
+    Token name = switch (expr) {
+      case Expr.Variable e -> e.name;
+      case Expr.Assign e -> e.name;
+      default -> null;
+    };
+    Integer distance = name == null ? null : interpreter.distance(expr);
+    if (distance == null || distance >= scopes.size()) return null;
+    int slot = slot(distance, name);
+    return numberSlots.contains(slot) ? slot : null;
+  }
+
+  private static boolean isArithmetic(Expr expr) {
+    return switch (expr) {
+      case Expr.Binary e -> switch (e.operator.type) {
+        case PLUS, MINUS, STAR, SLASH -> true;
+        default -> false;
+      };
+      case Expr.Grouping e -> isArithmetic(e.expression);
+      case Expr.Unary e -> e.operator.type == TokenType.MINUS;
+      default -> false;
+    };
+  }
+
+  private static boolean isComparison(Expr.Binary expr) {
+    return switch (expr.operator.type) {
+      case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> true;
+      default -> false;
+    };
+  }
+
+  // Whether expr is arithmetic or a comparison that reads a number slot
+  // directly or through other arithmetic.
+  private boolean readsNumberSlot(Expr expr) {
+    return switch (expr) {
+      case Expr.Binary e -> (isArithmetic(e) || isComparison(e))
+          && (readsNumberSlot(e.left) || readsNumberSlot(e.right));
+      case Expr.Grouping e -> readsNumberSlot(e.expression);
+      case Expr.Unary e -> isArithmetic(e) && readsNumberSlot(e.right);
+      case Expr.Variable e -> numberSlot(e) != null;
+      default -> false;
+    };
+  }
+
+  private void storeNumber(Expr value, int slot) {
+    if (isArithmetic(value)) {
+      arithmetic(value, slot);
+      return;
+    }
+    int mark = nextSlot;
+    int operand = operand(value);
+    emit(OpCode.NUMBER_MOVE, operand == OpCode.STACK ? -1 : 0, slot, operand);
+    nextSlot = mark;
+  }
+
+  // Computes expr, which isArithmetic, into number slot result.
+  private void arithmetic(Expr expr, int result) {
+    int mark = nextSlot;
+    switch (expr) {
+      case Expr.Grouping e -> arithmetic(e.expression, result);
+      case Expr.Unary e -> {
+        int operand = operand(e.right);
+        emit(OpCode.NUMBER_NEGATE, operand == OpCode.STACK ? -1 : 0, result, operand,
+            constant(e.operator));
+      }
+      case Expr.Binary e -> {
+        int[] operands = operands(e.left, e.right);
+        int op = switch (e.operator.type) {
+          case PLUS -> OpCode.NUMBER_ADD;
+          case MINUS -> OpCode.NUMBER_SUBTRACT;
+          case STAR -> OpCode.NUMBER_MULTIPLY;
+          default -> OpCode.NUMBER_DIVIDE;
+        };
+        emit(op, -popped(operands), result, operands[0], operands[1], constant(e.operator));
+      }
+      default -> throw new IllegalArgumentException("not arithmetic");
+    }
+    nextSlot = mark;
+  }
+
+  // Number operands for left and right, evaluated in order. At most one of
+  // them is left on the stack, and a variable read in place is copied
+  // first if evaluating right could assign it.
+  private int[] operands(Expr left, Expr right) {
+    int mark = nextSlot;
+    int first = operand(left);
+    if (first == OpCode.STACK && !readsInPlace(right)
+        || first >= 0 && first < mark && !assignments(right).isEmpty()) {
+      int copy = temporary();
+      emit(OpCode.NUMBER_MOVE, first == OpCode.STACK ? -1 : 0, copy, first);
+      first = copy;
+    }
+    return new int[] {first, operand(right)};
+  }
+
+  // A number slot, a number constant, or a temporary slot holding expr,
+  // or else STACK after compiling expr as usual.
+  private int operand(Expr expr) {
+    if (expr instanceof Expr.Grouping e) return operand(e.expression);
+    if (expr instanceof Expr.Literal e && e.value instanceof Double) return ~constant(e.value);
+    Integer slot = expr instanceof Expr.Variable ? numberSlot(expr) : null;
+    if (slot != null) return slot;
+    if (isArithmetic(expr)) {
+      int result = temporary();
+      arithmetic(expr, result);
+      return result;
+    }
+    compile(expr);
+    return OpCode.STACK;
+  }
+
+  // Whether operand(expr) would read it without using the stack.
+  private boolean readsInPlace(Expr expr) {
+    if (expr instanceof Expr.Grouping e) return readsInPlace(e.expression);
+    return expr instanceof Expr.Literal e && e.value instanceof Double
+        || expr instanceof Expr.Variable && numberSlot(expr) != null || isArithmetic(expr);
+  }
+
+  private static int popped(int[] operands) {
+    int popped = 0;
+    for (int operand : operands) {
+      if (operand == OpCode.STACK) popped++;
+    }
+    return popped;
+  }
+
+  // A slot for an intermediate number, released by resetting nextSlot.
+  private int temporary() {
+    int slot = nextSlot++;
+    maxSlots = Math.max(maxSlots, nextSlot);
+    hasNumberSlots = true;
+    return slot;
+  }
+
+  private void findAssignedOthers(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      for (Expr.Assign assign : assignments(statement)) {
+        if (interpreter.storedOtherThanNumbers(assign)) {
+          assignedOthers.add(assign.name.lexeme);
+        }
+      }
+    }
+  }
+
+  // The assignments in stmt, including those in functions it declares.
+  static List<Expr.Assign> assignments(Stmt stmt) {
+    List<Expr.Assign> found = new ArrayList<>();
+    switch (stmt) {
+      case Stmt.Block s -> s.statements.forEach(statement -> found.addAll(assignments(statement)));
+      case Stmt.Expression s -> found.addAll(assignments(s.expression));
+      case Stmt.If s -> {
+        found.addAll(assignments(s.condition));
+        found.addAll(assignments(s.thenBranch));
+        if (s.elseBranch != null) found.addAll(assignments(s.elseBranch));
+      }
+      case Stmt.Print s -> found.addAll(assignments(s.expression));
+      case Stmt.Return s -> {
+        if (s.value != null) found.addAll(assignments(s.value));
+      }
+      case Stmt.Var s -> {
+        if (s.initializer != null) found.addAll(assignments(s.initializer));
+      }
+      case Stmt.While s -> {
+        found.addAll(assignments(s.condition));
+        found.addAll(assignments(s.body));
+      }
+      case Stmt.Class s -> s.methods.forEach(method -> found.addAll(assignments(method)));
+      case Stmt.Function s -> s.body.forEach(statement -> found.addAll(assignments(statement)));
+    }
+    return found;
+  }
+
+  static List<Expr.Assign> assignments(Expr expr) {
+    List<Expr.Assign> found = new ArrayList<>();
+    switch (expr) {
+      case Expr.Assign e -> {
+        found.add(e);
+        found.addAll(assignments(e.value));
+      }
+      case Expr.Binary e -> {
+        found.addAll(assignments(e.left));
+        found.addAll(assignments(e.right));
+      }
+      case Expr.Call e -> {
+        found.addAll(assignments(e.callee));
+        e.arguments.forEach(argument -> found.addAll(assignments(argument)));
+      }
+      case Expr.Get e -> found.addAll(assignments(e.object));
+      case Expr.Grouping e -> found.addAll(assignments(e.expression));
+      case Expr.Logical e -> {
+        found.addAll(assignments(e.left));
+        found.addAll(assignments(e.right));
+      }
+      case Expr.Set e -> {
+        found.addAll(assignments(e.object));
+        found.addAll(assignments(e.value));
+      }
+      case Expr.Unary e -> found.addAll(assignments(e.right));
+      case Expr.Literal e -> {
+      }
+      case Expr.Super e -> {
+      }
+      case Expr.This e -> {
+      }
+      case Expr.Variable e -> {
+      }
+    }
+    return found;
+  }
+
+  // Method and super calls look the method up before the arguments are
+  // evaluated, exactly as the interpreter does, leaving the receiver and
+  // the callee on the stack for INVOKE.
+  private void compileCall(Expr.Call call) {
+    if (call.callee instanceof Expr.Super) {
+      Expr.Super callee = (Expr.Super) call.callee;
+      emit(OpCode.PREPARE_SUPER, 2, constant(callee), thisDepth(callee));
+    } else if (call.callee instanceof Expr.Get) {
+      Expr.Get callee = (Expr.Get) call.callee;
+      compile(callee.object);
+      emit(OpCode.PREPARE_INVOKE, 1, constant(callee));
+    } else {
+      compile(call.callee);
+      for (Expr argument : call.arguments) {
+        compile(argument);
+      }
+      emit(OpCode.CALL, -call.arguments.size(), call.arguments.size(), constant(call));
+      return;
+    }
+
+    for (Expr argument : call.arguments) {
+      compile(argument);
+    }
+    emit(OpCode.INVOKE, -call.arguments.size() - 1, call.arguments.size(), constant(call));
+  }
+
+  // Distance from the function's closure to the scope binding "this", which
+  // sits directly inside the scope binding "super".
+  private int thisDepth(Expr.Super expr) {
+    return interpreter.distance(expr) - 1 - scopes.size();
+  }
+
+  private void beginScope() {
+    scopes.add(new HashMap<>());
+  }
+
+  private void endScope() {
+    Map<String, Integer> scope = scopes.remove(scopes.size() - 1);
+    nextSlot -= scope.size();
+  }
+
+  private int declare(Token name) {
+    return declare(name, false);
+  }
+
+  private int declare(Token name, boolean number) {
+    int slot = nextSlot++;
+    maxSlots = Math.max(maxSlots, nextSlot);
+    scopes.get(scopes.size() - 1).put(name.lexeme, slot);
+    if (number) {
+      numberSlots.add(slot);
+      hasNumberSlots = true;
+    } else {
+      numberSlots.remove(slot);
+    }
+    return slot;
+  }
+
+  private int slot(int distance, Token name) {
+    return scopes.get(scopes.size() - 1 - distance).get(name.lexeme);
+  }
+
+  // Nodes and tokens are pooled by identity; literal values by equality.
+  private int constant(Object value) {
+    Map<Object, Integer> indexes = value instanceof Token || value instanceof Expr
+        ? identityIndexes : constantIndexes;
+    Integer index = indexes.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      indexes.put(value, index);
+    }
+    return index;
+  }
+
+  private void emit(int op, int stackEffect, int... operands) {
+    int start = count;
+    write(op);
+    for (int operand : operands) {
+      write(operand);
+    }
+    count = peephole.written(code, start, count);
+    adjust(stackEffect);
+  }
+
+  private int emitJump(int op) {
+    int start = count;
+    write(op);
+    write(0);
+    count = peephole.written(code, start, count);
+    return count - 1;
+  }
+
+  private void patchJump(int offset) {
+    code[offset] = count - offset - 1;
+    peephole.label(count);
+  }
+
+  private void emitLoop(int loopStart, Stmt.While loop) {
+    int start = count;
+    write(OpCode.LOOP);
+    write(count + 1 - loopStart);
+    write(loops.size());
+    count = peephole.written(code, start, count);
+    loops.add(new HotLoop(frameState(loop)));
+  }
+
+  // The interpreter state at the top of the loop: the variables declared so
+  // far, then the loop and everything around it still to run.
+  private FrameState frameState(Stmt.While loop) {
+    String[][] names = new String[scopes.size()][];
+    int[][] slots = new int[scopes.size()][];
+    boolean[][] numbers = new boolean[scopes.size()][];
+    for (int i = 0; i < scopes.size(); i++) {
+      Map<String, Integer> scope = scopes.get(i);
+      names[i] = scope.keySet().toArray(new String[0]);
+      slots[i] = new int[names[i].length];
+      numbers[i] = new boolean[names[i].length];
+      for (int j = 0; j < names[i].length; j++) {
+        slots[i][j] = scope.get(names[i][j]);
+        numbers[i][j] = numberSlots.contains(slots[i][j]);
+      }
+    }
+
+    List<FrameState.Continuation> pending = new ArrayList<>();
+    pending.add(new FrameState.Continuation(List.of(loop), scopes.size() - 1));
+    for (int i = continuations.size() - 1; i >= 0; i--) {
+      pending.add(continuations.get(i));
+    }
+    return new FrameState(names, slots, numbers, pending);
+  }
+
+  private void adjust(int stackEffect) {
+    depth += stackEffect;
+    maxDepth = Math.max(maxDepth, depth);
+  }
+
+  private void write(int value) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+    }
+    code[count++] = value;
+  }
+}
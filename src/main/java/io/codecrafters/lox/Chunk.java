@@ -0,0 +1,52 @@
+package io.codecrafters.lox;
+
+import java.util.List;
+
+/**
+ * A function body compiled for the bytecode tier. Tokens and AST nodes in
+ * the constant pool let the VM report the same runtime errors, and share the
+ * same inline caches, as the tree-walking interpreter.
+ *
+ * <p>A chunk compiled against {@code assumptions} is invalidated when any of
+ * them breaks; frames still running it leave for the interpreter at their
+ * next loop back-edge.
+ *
+ * <p>A chunk with number slots runs with a {@code double[]} beside its slot
+ * array, where those slots keep numbers unboxed; see the NUMBER opcodes.
+ */
+final class Chunk {
+  final String name;
+  final int[] code;
+  final Object[] constants;
+  final int slotCount;
+  final boolean hasNumberSlots;
+  final int maxStack;
+  final boolean isInitializer;
+  final HotLoop[] loops;
+  final List<Assumption> assumptions;
+  final TieredCode owner;
+  volatile boolean invalidated = false;
+
+  Chunk(String name, int[] code, Object[] constants, int slotCount, boolean hasNumberSlots,
+        int maxStack, boolean isInitializer, HotLoop[] loops, List<Assumption> assumptions,
+        TieredCode owner) {
+    this.name = name;
+    this.code = code;
+    this.constants = constants;
+    this.slotCount = slotCount;
+    this.hasNumberSlots = hasNumberSlots;
+    this.maxStack = maxStack;
+    this.isInitializer = isInitializer;
+    this.loops = loops;
+    this.assumptions = assumptions;
+    this.owner = owner;
+  }
+
+  int instructionCount() {
+    int count = 0;
+    for (int ip = 0; ip < code.length; ip += 1 + OpCode.OPERANDS[code[ip]]) {
+      count++;
+    }
+    return count;
+  }
+}
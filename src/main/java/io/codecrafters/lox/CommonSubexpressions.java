@@ -0,0 +1,199 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds arithmetic and property reads repeated within one expression, such
+ * as {@code a.x} in {@code a.x * a.x + b.y * b.y}, so the interpreter
+ * evaluates them once. The first occurrence saves its value in one of the
+ * interpreter's temporaries and the ones after it read it back; see the
+ * {@code temporary} field of Binary and Get.
+ *
+ * <p>Only expressions built from variables, literals, {@code this},
+ * property reads and operators are reused, and only until the next call,
+ * assignment or field write, any of which could change them. Property
+ * reads are only reused as operands of arithmetic and comparisons, since
+ * reading a method twice makes two bound methods that are not equal.
+ * Nothing evaluated on the right of {@code and} or {@code or} is reused
+ * after it, as it might not have run. A temporary is never live across a
+ * call, so a recursive evaluation of the same expression can't clobber it.
+ * Run after {@link LoopInvariants}, whose expressions it leaves alone.
+ */
+final class CommonSubexpressions {
+  static final int MAX_TEMPORARIES = 16;
+
+  // The first occurrence of each pure expression since the last write.
+  private Map<Object, Expr> available = new HashMap<>();
+  // The later occurrences of each expression that has any.
+  private final Map<Expr, List<Expr>> repeats = new IdentityHashMap<>();
+  private final Interpreter interpreter;
+  private int reused = 0;
+
+  private CommonSubexpressions(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  // Marks the repeated expressions in statements, returning how many
+  // evaluations that saves.
+  static int eliminate(List<Stmt> statements, Interpreter interpreter) {
+    CommonSubexpressions pass = new CommonSubexpressions(interpreter);
+    pass.statements(statements);
+    return pass.reused;
+  }
+
+  private void statements(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      statement(statement);
+    }
+  }
+
+  private void statement(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.Block s -> statements(s.statements);
+      case Stmt.Class s -> {
+        if (s.superclass != null) root(s.superclass);
+        for (Stmt.Function method : s.methods) {
+          statements(method.body);
+        }
+      }
+      case Stmt.Expression s -> root(s.expression);
+      case Stmt.Function s -> statements(s.body);
+      case Stmt.If s -> {
+        root(s.condition);
+        statement(s.thenBranch);
+        if (s.elseBranch != null) statement(s.elseBranch);
+      }
+      case Stmt.Print s -> root(s.expression);
+      case Stmt.Return s -> {
+        if (s.value != null) root(s.value);
+      }
+      case Stmt.Var s -> {
+        if (s.initializer != null) root(s.initializer);
+      }
+      case Stmt.While s -> {
+        root(s.condition);
+        statement(s.body);
+      }
+    }
+  }
+
+  // Numbers the temporaries of one expression from 1.
+  private void root(Expr expr) {
+    available.clear();
+    repeats.clear();
+    key(expr, false);
+
+    int temporary = 0;
+    for (Map.Entry<Expr, List<Expr>> repeat : repeats.entrySet()) {
+      if (temporary == MAX_TEMPORARIES) break;
+      temporary++;
+      setTemporary(repeat.getKey(), temporary);
+      for (Expr later : repeat.getValue()) {
+        setTemporary(later, -temporary);
+        reused++;
+      }
+    }
+  }
+
+  private static void setTemporary(Expr expr, int temporary) {
+    switch (expr) {
+      case Expr.Binary e -> e.temporary = temporary;
+      case Expr.Get e -> e.temporary = temporary;
+      default -> throw new IllegalArgumentException("not reusable");
+    }
+  }
+
+  // Visits expr in evaluation order and returns a key equal for every
+  // expression computing the same value, or null if it is not pure. Keys
+  // are lists of the node's kind and its children's keys, so no two
+  // different expressions share one. An operand is an operand of an
+  // operator.
+  private Object key(Expr expr, boolean operand) {
+    // A loop invariant may not be evaluated at all, so neither it nor
+    // anything inside it can be reused.
+    if (expr instanceof Expr.Binary binary && binary.invariant != 0
+        || expr instanceof Expr.Get get && get.invariant != 0) {
+      return null;
+    }
+    switch (expr) {
+      case Expr.Assign e -> {
+        key(e.value, false);
+        available.clear();
+        return null;
+      }
+      case Expr.Binary e -> {
+        // Equality would tell two bound methods apart.
+        boolean numeric = e.operator.type != TokenType.EQUAL_EQUAL
+            && e.operator.type != TokenType.BANG_EQUAL;
+        Object left = key(e.left, numeric);
+        Object right = key(e.right, numeric);
+        if (left == null || right == null) return null;
+        return reuse(e, List.of("binary", e.operator.type, left, right));
+      }
+      case Expr.Call e -> {
+        key(e.callee, false);
+        for (Expr argument : e.arguments) {
+          key(argument, false);
+        }
+        available.clear();
+        return null;
+      }
+      case Expr.Get e -> {
+        Object object = key(e.object, false);
+        if (object == null) return null;
+        Object key = List.of("get", object, e.name.lexeme);
+        return operand ? reuse(e, key) : key;
+      }
+      case Expr.Grouping e -> {
+        return key(e.expression, operand);
+      }
+      case Expr.Literal e -> {
+        // Double.equals tells 0 from -0, as the value can.
+        return e.value == null ? List.of("nil") : List.of("literal", e.value);
+      }
+      case Expr.Logical e -> {
+        key(e.left, false);
+        Map<Object, Expr> before = new HashMap<>(available);
+        key(e.right, false);
+        // Keep only what was there before the right side, if that survived.
+        available.keySet().retainAll(before.keySet());
+        return null;
+      }
+      case Expr.Set e -> {
+        key(e.object, false);
+        key(e.value, false);
+        available.clear();
+        return null;
+      }
+      case Expr.Super e -> {
+        return null;
+      }
+      case Expr.This e -> {
+        return List.of("this");
+      }
+      case Expr.Unary e -> {
+        Object right = key(e.right, e.operator.type == TokenType.MINUS);
+        return right == null ? null : List.of("unary", e.operator.type, right);
+      }
+      case Expr.Variable e -> {
+        Integer distance = interpreter.distance(e);
+        return List.of("variable", e.name.lexeme, distance == null ? "global" : distance);
+      }
+    }
+  }
+
+  // Records expr as the first occurrence of key, or as a repeat of it.
+  private Object reuse(Expr expr, Object key) {
+    Expr first = available.get(key);
+    if (first == null) {
+      available.put(key, expr);
+    } else {
+      repeats.computeIfAbsent(first, f -> new ArrayList<>()).add(expr);
+    }
+    return key;
+  }
+}
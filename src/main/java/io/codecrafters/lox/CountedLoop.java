@@ -0,0 +1,101 @@
+package io.codecrafters.lox;
+
+import java.util.List;
+
+/**
+ * A for loop of the shape {@code for (var i = start; i < bound; i = i + step)},
+ * recognized in the while loop the parser desugars it to. The tree-walker runs
+ * it with the counter in a double, comparing and stepping it directly instead
+ * of evaluating the condition and increment; the counter is still written to
+ * its Environment after every step, for the body to read.
+ *
+ * <p>The comparison may be any of {@code < <= > >=}, the bound a number
+ * literal or a variable, and the step added or subtracted a number literal.
+ * Loops whose body could assign the counter are not recognized.
+ */
+final class CountedLoop {
+  final Token counter;
+  final TokenType comparison;
+  final Expr bound;
+  final double step;
+  final Expr.Assign increment;
+
+  // The body without the increment, run in an Environment of its own as
+  // the desugared block would be.
+  final List<Stmt> body;
+
+  private CountedLoop(Token counter, TokenType comparison, Expr bound, double step,
+                      Expr.Assign increment, List<Stmt> body) {
+    this.counter = counter;
+    this.comparison = comparison;
+    this.bound = bound;
+    this.step = step;
+    this.increment = increment;
+    this.body = body;
+  }
+
+  // Whether the loop goes on with the counter at value.
+  boolean test(double value, double bound) {
+    return switch (comparison) {
+      case LESS -> value < bound;
+      case LESS_EQUAL -> value <= bound;
+      case GREATER -> value > bound;
+      default -> value >= bound;
+    };
+  }
+
+  // The counted loop that loop runs, or null if it is not one.
+  static CountedLoop recognize(Stmt.While loop, Interpreter interpreter) {
+    if (loop.counter == null
+        || !(loop.condition instanceof Expr.Binary condition)
+        || !isCounter(condition.left, loop.counter, 0, interpreter)
+        || !isBound(condition.right)
+        || !(loop.body instanceof Stmt.Block block)) {
+      return null;
+    }
+    TokenType comparison = condition.operator.type;
+    if (comparison != TokenType.LESS && comparison != TokenType.LESS_EQUAL
+        && comparison != TokenType.GREATER && comparison != TokenType.GREATER_EQUAL) {
+      return null;
+    }
+
+    // The increment is the last statement of the block around the body.
+    List<Stmt> statements = block.statements;
+    if (!(statements.get(statements.size() - 1) instanceof Stmt.Expression statement)
+        || !(statement.expression instanceof Expr.Assign increment)
+        || !loop.counter.lexeme.equals(increment.name.lexeme)
+        || !Integer.valueOf(1).equals(interpreter.distance(increment))
+        || !(increment.value instanceof Expr.Binary next)
+        || !isCounter(next.left, loop.counter, 1, interpreter)
+        || !(next.right instanceof Expr.Literal literal)
+        || !(literal.value instanceof Double step)) {
+      return null;
+    }
+    if (next.operator.type != TokenType.PLUS && next.operator.type != TokenType.MINUS) {
+      return null;
+    }
+
+    List<Stmt> body = statements.subList(0, statements.size() - 1);
+    for (Stmt stmt : body) {
+      for (Expr.Assign assign : BytecodeCompiler.assignments(stmt)) {
+        if (assign.name.lexeme.equals(loop.counter.lexeme)) return null;
+      }
+    }
+    return new CountedLoop(loop.counter, comparison, condition.right,
+        next.operator.type == TokenType.PLUS ? step : -step, increment, body);
+  }
+
+  // Whether expr reads the loop's counter, declared distance scopes out.
+  private static boolean isCounter(Expr expr, Token counter, int distance,
+                                   Interpreter interpreter) {
+    return expr instanceof Expr.Variable variable
+        && variable.name.lexeme.equals(counter.lexeme)
+        && Integer.valueOf(distance).equals(interpreter.distance(variable));
+  }
+
+  // Bounds are read every iteration, so only ones without side effects.
+  private static boolean isBound(Expr expr) {
+    return expr instanceof Expr.Variable
+        || expr instanceof Expr.Literal literal && literal.value instanceof Double;
+  }
+}
@@ -0,0 +1,52 @@
+package io.codecrafters.lox;
+
+/**
+ * Moves a VM frame whose chunk has been invalidated back to the
+ * tree-walking interpreter at a loop back-edge. The frame's slots are
+ * turned back into the Environment chain the interpreter would have built,
+ * one Environment per open scope, and the rest of the frame runs in the
+ * interpreter from the top of the loop, where it counts towards compiling
+ * the code again with what is now known.
+ */
+final class Deoptimizer {
+
+  private Deoptimizer() {}
+
+  // Returns what the frame would have returned, or rethrows the Return of a
+  // loop compiled on its own, exactly as the chunk would have.
+  static Object resume(Interpreter interpreter, Chunk chunk, FrameState state, Environment scope,
+                       Object[] slots, double[] numbers) {
+    Environment[] environments = new Environment[state.names.length];
+    Environment enclosing = scope;
+    for (int i = 0; i < environments.length; i++) {
+      Environment environment = new Environment(enclosing);
+      for (int j = 0; j < state.names[i].length; j++) {
+        int slot = state.slots[i][j];
+        environment.define(state.names[i][j],
+            state.numbers[i][j] ? VM.getNumber(slots, numbers, slot) : slots[slot]);
+      }
+      environments[i] = environment;
+      enclosing = environment;
+    }
+
+    FunctionProfile function = chunk.owner instanceof FunctionProfile profile ? profile : null;
+    FunctionProfile caller = function != null ? interpreter.enterFunction(function) : null;
+    Object[] invariants = interpreter.suspendInvariants();
+    Object result = null;
+    try {
+      for (FrameState.Continuation continuation : state.continuations) {
+        interpreter.executeBlock(continuation.statements,
+            continuation.scope < 0 ? scope : environments[continuation.scope]);
+      }
+    } catch (Return returnValue) {
+      if (function == null) throw returnValue;
+      result = returnValue.value;
+    } finally {
+      interpreter.restoreInvariants(invariants);
+      if (function != null) interpreter.exitFunction(caller);
+    }
+
+    if (chunk.isInitializer) return scope.getAt(0, "this");
+    return result;
+  }
+}
@@ -43,7 +43,7 @@ class Environment {
     ancestor(distance).values.put(name.lexeme, value);
   }
 
-  private Environment ancestor(int distance) {
+  Environment ancestor(int distance) {
         Environment environment = this;
         for (int i = 0; i < distance; i++) {
             environment = environment.enclosing;
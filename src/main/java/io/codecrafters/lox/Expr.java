@@ -2,7 +2,7 @@ package io.codecrafters.lox;
 
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr permits Expr.Assign, Expr.Binary, Expr.Call, Expr.Get, Expr.Grouping, Expr.Literal, Expr.Logical, Expr.Set, Expr.Super, Expr.This, Expr.Unary, Expr.Variable {
   interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
@@ -17,7 +17,7 @@ abstract class Expr {
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
   }
-  static class Assign extends Expr {
+  static final class Assign extends Expr {
     Assign(Token name, Expr value) {
       this.name = name;
       this.value = value;
@@ -31,7 +31,7 @@ abstract class Expr {
     final Token name;
     final Expr value;
   }
-  static class Binary extends Expr {
+  static final class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
@@ -46,8 +46,11 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    boolean provenNumeric;
+    int temporary;
+    int invariant;
   }
-  static class Call extends Expr {
+  static final class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
       this.callee = callee;
       this.paren = paren;
@@ -62,8 +65,9 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    Stmt.Function inlined;
   }
-  static class Get extends Expr {
+  static final class Get extends Expr {
     Get(Expr object, Token name) {
       this.object = object;
       this.name = name;
@@ -76,8 +80,10 @@ abstract class Expr {
 
     final Expr object;
     final Token name;
+    int temporary;
+    int invariant;
   }
-  static class Grouping extends Expr {
+  static final class Grouping extends Expr {
     Grouping(Expr expression) {
       this.expression = expression;
     }
@@ -89,7 +95,7 @@ abstract class Expr {
 
     final Expr expression;
   }
-  static class Literal extends Expr {
+  static final class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
     }
@@ -101,7 +107,7 @@ abstract class Expr {
 
     final Object value;
   }
-  static class Logical extends Expr {
+  static final class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
@@ -117,7 +123,7 @@ abstract class Expr {
     final Token operator;
     final Expr right;
   }
-  static class Set extends Expr {
+  static final class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
       this.object = object;
       this.name = name;
@@ -133,7 +139,7 @@ abstract class Expr {
     final Token name;
     final Expr value;
   }
-  static class Super extends Expr {
+  static final class Super extends Expr {
     Super(Token keyword, Token method) {
       this.keyword = keyword;
       this.method = method;
@@ -147,7 +153,7 @@ abstract class Expr {
     final Token keyword;
     final Token method;
   }
-  static class This extends Expr {
+  static final class This extends Expr {
     This(Token keyword) {
       this.keyword = keyword;
     }
@@ -159,7 +165,7 @@ abstract class Expr {
 
     final Token keyword;
   }
-  static class Unary extends Expr {
+  static final class Unary extends Expr {
     Unary(Token operator, Expr right) {
       this.operator = operator;
       this.right = right;
@@ -172,8 +178,9 @@ abstract class Expr {
 
     final Token operator;
     final Expr right;
+    boolean provenNumeric;
   }
-  static class Variable extends Expr {
+  static final class Variable extends Expr {
     Variable(Token name) {
       this.name = name;
     }
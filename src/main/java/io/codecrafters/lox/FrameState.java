@@ -0,0 +1,41 @@
+package io.codecrafters.lox;
+
+import java.util.List;
+
+/**
+ * What the tree-walking interpreter would have at one point of a compiled
+ * chunk: the variables each open scope has declared so far, with the slots
+ * holding them and whether those are number slots, and the statements still
+ * to run. The BytecodeCompiler
+ * records one for every loop back-edge so the {@link Deoptimizer} can move
+ * a running frame back to the interpreter there.
+ */
+final class FrameState {
+
+  /** Statements to run in the Environment of one scope; -1 is the frame's own scope. */
+  static final class Continuation {
+    final List<Stmt> statements;
+    final int scope;
+
+    Continuation(List<Stmt> statements, int scope) {
+      this.statements = statements;
+      this.scope = scope;
+    }
+  }
+
+  // Outermost scope first.
+  final String[][] names;
+  final int[][] slots;
+  final boolean[][] numbers;
+
+  // Innermost first: the loop itself, then whatever encloses it.
+  final List<Continuation> continuations;
+
+  FrameState(String[][] names, int[][] slots, boolean[][] numbers,
+             List<Continuation> continuations) {
+    this.names = names;
+    this.slots = slots;
+    this.numbers = numbers;
+    this.continuations = continuations;
+  }
+}
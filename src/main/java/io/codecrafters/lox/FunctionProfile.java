@@ -0,0 +1,44 @@
+package io.codecrafters.lox;
+
+import java.util.List;
+
+/**
+ * Execution counters and tier state shared by every LoxFunction created from
+ * one function body, including closures and bound methods.
+ */
+class FunctionProfile extends TieredCode {
+  final String name;
+  final List<Token> params;
+  final List<Stmt> body;
+  final boolean isInitializer;
+
+  int invocations = 0;
+
+  FunctionProfile(String name, List<Token> params, List<Stmt> body, boolean isInitializer) {
+    this.name = name;
+    this.params = params;
+    this.body = body;
+    this.isInitializer = isInitializer;
+  }
+
+  @Override
+  void reset() {
+    super.reset();
+    invocations = 0;
+  }
+
+  @Override
+  String describe() {
+    return name;
+  }
+
+  @Override
+  String counters() {
+    return invocations + " calls, " + backEdges + " back-edges";
+  }
+
+  @Override
+  Chunk compile(Interpreter interpreter) {
+    return BytecodeCompiler.compile(interpreter, this);
+  }
+}
@@ -0,0 +1,50 @@
+package io.codecrafters.lox;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The outermost Environment. Alongside the values it keeps, for each
+ * global, an {@link Assumption} that the global still holds the value it
+ * was defined with, so compiled code can use that value as a constant.
+ * Assigning to the global, or defining it again, breaks the assumption.
+ */
+class GlobalEnvironment extends Environment {
+
+  static final class Binding {
+    final Object value;
+    final Assumption unchanged;
+
+    Binding(String name, Object value) {
+      this.value = value;
+      this.unchanged = new Assumption("global '" + name + "' keeps its value");
+    }
+  }
+
+  // Read by the background compiler.
+  private final Map<String, Binding> bindings = new ConcurrentHashMap<>();
+
+  @Override
+  void define(String name, Object value) {
+    super.define(name, value);
+    Binding previous = bindings.put(name, new Binding(name, value));
+    if (previous != null) {
+      previous.unchanged.invalidate();
+    }
+  }
+
+  @Override
+  void assign(Token name, Object value) {
+    super.assign(name, value);
+    Binding binding = bindings.get(name.lexeme);
+    if (binding != null) {
+      binding.unchanged.invalidate();
+    }
+  }
+
+  // The global's binding if it has not changed since it was defined.
+  Binding stableBinding(String name) {
+    Binding binding = bindings.get(name);
+    return binding != null && binding.unchanged.isValid() ? binding : null;
+  }
+}
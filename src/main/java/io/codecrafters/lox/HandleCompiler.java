@@ -0,0 +1,487 @@
+package io.codecrafters.lox;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An engine that runs a resolved program as a graph of method handles
+ * instead of walking the tree: every expression is compiled once into a
+ * handle from a {@link Frame} to its value and every statement into a
+ * handle from a Frame to nothing, built by combining the handles of its
+ * children. If and the logical operators become {@code guardWithTest},
+ * while loops {@code whileLoop}, blocks {@code foldArguments} chains. All
+ * that is known when compiling, such as slot numbers, names and line
+ * numbers, is bound into the handles, so once HotSpot specializes a hot
+ * function body to its handle it can fold them as constants and inline the
+ * whole body into one compiled method.
+ *
+ * <p>Values are those of {@link LoxRuntime}, which also supplies the
+ * operations, so the engine fails with the interpreter's messages.
+ * Variables live in one Frame per scope the Resolver opened, in slots
+ * numbered here in order of declaration; globals stay in the runtime's
+ * table. Selected for {@code run} with {@code -Dlox.engine=handles}.
+ */
+final class HandleCompiler {
+
+  /** The variables of one scope, and the scope it is nested in. */
+  static final class Frame {
+    final Frame parent;
+    final Object[] slots;
+
+    Frame(Frame parent, Object[] slots) {
+      this.parent = parent;
+      this.slots = slots;
+    }
+  }
+
+  /** A compiled program, run with a fresh set of globals. */
+  static final class Program {
+    private final MethodHandle body;
+
+    private Program(MethodHandle body) {
+      this.body = body;
+    }
+
+    void run() {
+      LoxRuntime.reset();
+      try {
+        body.invokeExact((Frame) null);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new IllegalStateException(t);
+      }
+    }
+  }
+
+  // What a function declaration compiles to; each evaluation of the
+  // declaration closes it over the current Frame.
+  private record Prototype(String name, int arity, int slotCount, boolean isInitializer,
+                           MethodHandle body) {}
+
+  private record ClassPrototype(String name, int superclassLine, List<Prototype> methods) {}
+
+  private static final class HandleFunction extends LoxRuntime.Function {
+    private final Prototype prototype;
+    private final Frame closure;
+
+    HandleFunction(Prototype prototype, Frame closure) {
+      super(prototype.name(), prototype.arity());
+      this.prototype = prototype;
+      this.closure = closure;
+    }
+
+    // A method's body sits in a scope of its own inside the one holding
+    // "this", as the Resolver laid them out.
+    @Override
+    Object invoke(LoxRuntime.Instance self, Object[] arguments) {
+      Frame scope = self == null ? closure : new Frame(closure, new Object[] {self});
+      Object[] slots = new Object[prototype.slotCount()];
+      System.arraycopy(arguments, 0, slots, 0, arguments.length);
+      try {
+        prototype.body().invokeExact(new Frame(scope, slots));
+      } catch (Return returnValue) {
+        return prototype.isInitializer() ? self : returnValue.value;
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        throw new IllegalStateException(t);
+      }
+      return prototype.isInitializer() ? self : null;
+    }
+  }
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+  private static final MethodType EXPRESSION = methodType(Object.class, Frame.class);
+  private static final MethodType STATEMENT = methodType(void.class, Frame.class);
+  private static final MethodType BINARY = methodType(Object.class, Object.class, Object.class, int.class);
+  private static final MethodType ARITHMETIC = methodType(double.class, Object.class, Object.class, int.class);
+  private static final MethodType COMPARISON = methodType(boolean.class, Object.class, Object.class, int.class);
+
+  private static final MethodHandle FRAME = MethodHandles.identity(Frame.class);
+  private static final MethodHandle LOCAL = own("local", methodType(Object.class, Frame.class, int.class, int.class));
+  private static final MethodHandle ASSIGN_LOCAL = own("assignLocal", methodType(Object.class, Frame.class, int.class, int.class, Object.class));
+  private static final MethodHandle DEFINE_LOCAL = own("defineLocal", methodType(void.class, Frame.class, int.class, Object.class));
+  private static final MethodHandle ENTER = own("enter", methodType(Frame.class, Frame.class, int.class));
+  private static final MethodHandle RETURN = own("returnValue", methodType(void.class, Object.class));
+  private static final MethodHandle NOT = own("not", methodType(boolean.class, boolean.class));
+  private static final MethodHandle FUNCTION = own("function", methodType(Object.class, Frame.class, Prototype.class));
+  private static final MethodHandle CLASS = own("klass", methodType(Object.class, Frame.class, ClassPrototype.class, Object.class));
+
+  private static final MethodHandle GLOBAL = runtime("global", methodType(Object.class, String.class, int.class));
+  private static final MethodHandle ASSIGN = runtime("assign", methodType(Object.class, String.class, Object.class, int.class));
+  private static final MethodHandle DEFINE = runtime("define", methodType(void.class, String.class, Object.class));
+  private static final MethodHandle PRINT = runtime("print", methodType(void.class, Object.class));
+  private static final MethodHandle IS_TRUTHY = runtime("isTruthy", methodType(boolean.class, Object.class));
+  private static final MethodHandle IS_EQUAL = runtime("isEqual", methodType(boolean.class, Object.class, Object.class));
+  private static final MethodHandle NEGATE = runtime("negate", methodType(double.class, Object.class, int.class));
+  private static final MethodHandle ADD = runtime("add", BINARY);
+  private static final MethodHandle SUBTRACT = runtime("subtract", ARITHMETIC);
+  private static final MethodHandle MULTIPLY = runtime("multiply", ARITHMETIC);
+  private static final MethodHandle DIVIDE = runtime("divide", ARITHMETIC);
+  private static final MethodHandle GREATER = runtime("greater", COMPARISON);
+  private static final MethodHandle GREATER_EQUAL = runtime("greaterEqual", COMPARISON);
+  private static final MethodHandle LESS = runtime("less", COMPARISON);
+  private static final MethodHandle LESS_EQUAL = runtime("lessEqual", COMPARISON);
+  private static final MethodHandle CALL = runtime("call", methodType(Object.class, Object.class, int.class, Object[].class));
+  private static final MethodHandle GET = runtime("get", methodType(Object.class, Object.class, String.class, int.class));
+  private static final MethodHandle FIELDS_OF = runtime("fieldsOf", methodType(LoxRuntime.Instance.class, Object.class, int.class));
+  private static final MethodHandle SET = runtime("set", methodType(Object.class, LoxRuntime.Instance.class, String.class, Object.class));
+  private static final MethodHandle SUPER_METHOD = runtime("superMethod", methodType(LoxRuntime.BoundMethod.class, LoxRuntime.Klass.class, LoxRuntime.Instance.class, String.class, int.class));
+
+  private static MethodHandle own(String name, MethodType type) {
+    return find(HandleCompiler.class, name, type);
+  }
+
+  private static MethodHandle runtime(String name, MethodType type) {
+    return find(LoxRuntime.class, name, type);
+  }
+
+  private static MethodHandle find(Class<?> owner, String name, MethodType type) {
+    try {
+      return LOOKUP.findStatic(owner, name, type);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static final class Scope {
+    final Map<String, Integer> slots = new HashMap<>();
+
+    int declare(String name) {
+      int slot = slots.size();
+      slots.put(name, slot);
+      return slot;
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final List<Scope> scopes = new ArrayList<>();
+
+  private HandleCompiler(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  static Program compile(List<Stmt> statements, Interpreter interpreter) {
+    return new Program(new HandleCompiler(interpreter).sequence(statements));
+  }
+
+  // Runs each statement in turn on the same Frame. They are compiled in
+  // order, as slots are numbered in order of declaration.
+  private MethodHandle sequence(List<Stmt> statements) {
+    List<MethodHandle> handles = new ArrayList<>();
+    for (Stmt statement : statements) {
+      handles.add(statement(statement));
+    }
+
+    MethodHandle sequence = MethodHandles.empty(STATEMENT);
+    for (int i = handles.size() - 1; i >= 0; i--) {
+      sequence = MethodHandles.foldArguments(sequence, handles.get(i));
+    }
+    return sequence;
+  }
+
+  private MethodHandle statement(Stmt stmt) {
+    return switch (stmt) {
+      case Stmt.Block s -> {
+        Scope scope = beginScope();
+        MethodHandle body = sequence(s.statements);
+        endScope();
+        yield MethodHandles.filterArguments(body, 0,
+            MethodHandles.insertArguments(ENTER, 1, scope.slots.size()));
+      }
+      case Stmt.Class s -> classDeclaration(s);
+      case Stmt.Expression s -> expression(s.expression).asType(STATEMENT);
+      case Stmt.Function s -> {
+        // Declared first, so the body can call the function by name.
+        Integer slot = declare(s.name);
+        yield define(s.name, slot, MethodHandles.insertArguments(FUNCTION, 1,
+            function(s, false)));
+      }
+      case Stmt.If s -> MethodHandles.guardWithTest(condition(s.condition),
+          statement(s.thenBranch),
+          s.elseBranch == null ? MethodHandles.empty(STATEMENT) : statement(s.elseBranch));
+      case Stmt.Print s -> MethodHandles.filterArguments(PRINT, 0, expression(s.expression));
+      case Stmt.Return s -> MethodHandles.filterArguments(RETURN, 0,
+          s.value == null ? constant(null) : expression(s.value));
+      case Stmt.Var s -> {
+        MethodHandle value = s.initializer == null ? constant(null) : expression(s.initializer);
+        yield define(s.name, declare(s.name), value);
+      }
+      case Stmt.While s -> MethodHandles.whileLoop(null, condition(s.condition),
+          statement(s.body));
+    };
+  }
+
+  // Stores value in the new local's slot, or as a global at the top level.
+  private MethodHandle define(Token name, Integer slot, MethodHandle value) {
+    if (slot == null) {
+      return MethodHandles.filterArguments(
+          MethodHandles.insertArguments(DEFINE, 0, name.lexeme), 0, value);
+    }
+    return apply(MethodHandles.insertArguments(DEFINE_LOCAL, 1, slot), FRAME, value);
+  }
+
+  private MethodHandle classDeclaration(Stmt.Class stmt) {
+    Integer slot = declare(stmt.name);
+    if (stmt.superclass != null) {
+      beginScope().declare("super");
+    }
+    beginScope().declare("this");
+
+    List<Prototype> methods = new ArrayList<>();
+    for (Stmt.Function method : stmt.methods) {
+      methods.add(function(method, method.name.lexeme.equals("init")));
+    }
+
+    endScope();
+    if (stmt.superclass != null) {
+      endScope();
+    }
+
+    ClassPrototype prototype = new ClassPrototype(stmt.name.lexeme,
+        stmt.superclass == null ? -1 : stmt.superclass.name.line, methods);
+    MethodHandle superclass = stmt.superclass == null
+        ? constant(null) : expression(stmt.superclass);
+    return define(stmt.name, slot,
+        apply(MethodHandles.insertArguments(CLASS, 1, prototype), FRAME, superclass));
+  }
+
+  private Prototype function(Stmt.Function declaration, boolean isInitializer) {
+    Scope scope = beginScope();
+    for (Token param : declaration.params) {
+      scope.declare(param.lexeme);
+    }
+    MethodHandle body = sequence(declaration.body);
+    endScope();
+    return new Prototype(declaration.name.lexeme, declaration.params.size(),
+        scope.slots.size(), isInitializer, body);
+  }
+
+  // An expression as a Java boolean, without boxing it first.
+  private MethodHandle condition(Expr expr) {
+    return switch (expr) {
+      case Expr.Grouping e -> condition(e.expression);
+      case Expr.Binary e when comparison(e.operator) != null ->
+          apply(MethodHandles.insertArguments(comparison(e.operator), 2, e.operator.line),
+              expression(e.left), expression(e.right));
+      case Expr.Binary e when e.operator.type == TokenType.EQUAL_EQUAL ->
+          apply(IS_EQUAL, expression(e.left), expression(e.right));
+      case Expr.Binary e when e.operator.type == TokenType.BANG_EQUAL ->
+          MethodHandles.filterReturnValue(apply(IS_EQUAL, expression(e.left),
+              expression(e.right)), NOT);
+      case Expr.Unary e when e.operator.type == TokenType.BANG ->
+          MethodHandles.filterReturnValue(condition(e.right), NOT);
+      default -> MethodHandles.filterReturnValue(expression(expr), IS_TRUTHY);
+    };
+  }
+
+  private static MethodHandle comparison(Token operator) {
+    return switch (operator.type) {
+      case GREATER -> GREATER;
+      case GREATER_EQUAL -> GREATER_EQUAL;
+      case LESS -> LESS;
+      case LESS_EQUAL -> LESS_EQUAL;
+      default -> null;
+    };
+  }
+
+  private MethodHandle expression(Expr expr) {
+    MethodHandle handle = switch (expr) {
+      case Expr.Assign e -> {
+        MethodHandle value = expression(e.value);
+        int[] local = resolve(e, e.name.lexeme);
+        yield local == null
+            ? MethodHandles.filterArguments(
+                MethodHandles.insertArguments(ASSIGN, 2, e.name.line).bindTo(e.name.lexeme),
+                0, value)
+            : apply(MethodHandles.insertArguments(ASSIGN_LOCAL, 1, local[0], local[1]),
+                FRAME, value);
+      }
+      case Expr.Binary e -> binary(e);
+      case Expr.Call e -> {
+        List<MethodHandle> operands = new ArrayList<>();
+        operands.add(expression(e.callee));
+        for (Expr argument : e.arguments) {
+          operands.add(expression(argument));
+        }
+        MethodHandle call = MethodHandles.insertArguments(CALL, 1, e.paren.line)
+            .asCollector(Object[].class, e.arguments.size());
+        yield apply(call, operands.toArray(MethodHandle[]::new));
+      }
+      case Expr.Get e -> MethodHandles.filterArguments(
+          MethodHandles.insertArguments(GET, 1, e.name.lexeme, e.name.line), 0,
+          expression(e.object));
+      case Expr.Grouping e -> expression(e.expression);
+      case Expr.Literal e -> constant(e.value);
+      case Expr.Logical e -> logical(e);
+      case Expr.Set e -> {
+        MethodHandle instance = MethodHandles.filterReturnValue(expression(e.object),
+            MethodHandles.insertArguments(FIELDS_OF, 1, e.name.line));
+        yield apply(MethodHandles.insertArguments(SET, 1, e.name.lexeme), instance,
+            expression(e.value));
+      }
+      case Expr.Super e -> {
+        // "this" is bound in the scope just inside the one binding "super".
+        int[] superclass = resolve(e, "super");
+        MethodHandle method = MethodHandles.insertArguments(SUPER_METHOD, 2, e.method.lexeme,
+            e.method.line);
+        yield apply(method,
+            local(superclass[0], superclass[1]).asType(methodType(LoxRuntime.Klass.class, Frame.class)),
+            local(superclass[0] - 1, 0).asType(methodType(LoxRuntime.Instance.class, Frame.class)));
+      }
+      case Expr.This e -> {
+        int[] local = resolve(e, "this");
+        yield local(local[0], local[1]);
+      }
+      case Expr.Unary e -> e.operator.type == TokenType.MINUS
+          ? MethodHandles.filterArguments(
+              MethodHandles.insertArguments(NEGATE, 1, e.operator.line), 0, expression(e.right))
+          : condition(e);
+      case Expr.Variable e -> {
+        int[] local = resolve(e, e.name.lexeme);
+        yield local == null
+            ? MethodHandles.dropArguments(
+                MethodHandles.insertArguments(GLOBAL, 0, e.name.lexeme, e.name.line), 0, Frame.class)
+            : local(local[0], local[1]);
+      }
+    };
+    return handle.asType(EXPRESSION);
+  }
+
+  private MethodHandle binary(Expr.Binary e) {
+    MethodHandle left = expression(e.left);
+    MethodHandle right = expression(e.right);
+    MethodHandle operator = switch (e.operator.type) {
+      case PLUS -> ADD;
+      case MINUS -> SUBTRACT;
+      case STAR -> MULTIPLY;
+      case SLASH -> DIVIDE;
+      case EQUAL_EQUAL, BANG_EQUAL -> null;
+      default -> comparison(e.operator);
+    };
+    if (operator == null) {
+      MethodHandle equal = apply(IS_EQUAL, left, right);
+      return e.operator.type == TokenType.EQUAL_EQUAL
+          ? equal : MethodHandles.filterReturnValue(equal, NOT);
+    }
+    return apply(MethodHandles.insertArguments(operator, 2, e.operator.line), left, right);
+  }
+
+  // Evaluates the left operand once, then either returns it or evaluates
+  // the right one.
+  private MethodHandle logical(Expr.Logical e) {
+    MethodHandle left = MethodHandles.dropArguments(MethodHandles.identity(Object.class), 1,
+        Frame.class);
+    MethodHandle right = MethodHandles.dropArguments(expression(e.right), 0, Object.class);
+    MethodHandle test = MethodHandles.dropArguments(IS_TRUTHY, 1, Frame.class);
+    MethodHandle choice = e.operator.type == TokenType.OR
+        ? MethodHandles.guardWithTest(test, left, right)
+        : MethodHandles.guardWithTest(test, right, left);
+    return MethodHandles.foldArguments(choice, expression(e.left));
+  }
+
+  // Feeds the Frame to each operand and their results, in order, to
+  // operator.
+  private static MethodHandle apply(MethodHandle operator, MethodHandle... operands) {
+    MethodHandle[] filters = new MethodHandle[operands.length];
+    for (int i = 0; i < operands.length; i++) {
+      filters[i] = operands[i].asType(
+          methodType(operator.type().parameterType(i), Frame.class));
+    }
+    MethodHandle filtered = MethodHandles.filterArguments(operator, 0, filters);
+    return MethodHandles.permuteArguments(filtered,
+        methodType(operator.type().returnType(), Frame.class), new int[operands.length]);
+  }
+
+  private static MethodHandle constant(Object value) {
+    return MethodHandles.dropArguments(MethodHandles.constant(Object.class, value), 0,
+        Frame.class);
+  }
+
+  private static MethodHandle local(int depth, int slot) {
+    return MethodHandles.insertArguments(LOCAL, 1, depth, slot);
+  }
+
+  private Scope beginScope() {
+    Scope scope = new Scope();
+    scopes.add(scope);
+    return scope;
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  // The slot of a new local, or null at the top level, where it is a global.
+  private Integer declare(Token name) {
+    if (scopes.isEmpty()) return null;
+    return scopes.get(scopes.size() - 1).declare(name.lexeme);
+  }
+
+  // The depth and slot of the local expr refers to, or null for a global.
+  private int[] resolve(Expr expr, String name) {
+    Integer distance = interpreter.distance(expr);
+    if (distance == null) return null;
+    return new int[] {distance, scopes.get(scopes.size() - 1 - distance).slots.get(name)};
+  }
+
+  private static Object local(Frame frame, int depth, int slot) {
+    for (int i = 0; i < depth; i++) {
+      frame = frame.parent;
+    }
+    return frame.slots[slot];
+  }
+
+  private static Object assignLocal(Frame frame, int depth, int slot, Object value) {
+    for (int i = 0; i < depth; i++) {
+      frame = frame.parent;
+    }
+    frame.slots[slot] = value;
+    return value;
+  }
+
+  private static void defineLocal(Frame frame, int slot, Object value) {
+    frame.slots[slot] = value;
+  }
+
+  private static Frame enter(Frame frame, int slotCount) {
+    return new Frame(frame, new Object[slotCount]);
+  }
+
+  private static void returnValue(Object value) {
+    throw new Return(value);
+  }
+
+  private static boolean not(boolean value) {
+    return !value;
+  }
+
+  private static Object function(Frame closure, Prototype prototype) {
+    return new HandleFunction(prototype, closure);
+  }
+
+  // Methods close over a scope binding "super" when there is a superclass.
+  private static Object klass(Frame frame, ClassPrototype prototype, Object superclass) {
+    LoxRuntime.Klass parent = null;
+    Frame closure = frame;
+    if (prototype.superclassLine() >= 0) {
+      parent = LoxRuntime.superclass(superclass, prototype.superclassLine());
+      closure = new Frame(frame, new Object[] {parent});
+    }
+
+    List<Prototype> methods = prototype.methods();
+    LoxRuntime.Function[] functions = new LoxRuntime.Function[methods.size()];
+    for (int i = 0; i < functions.length; i++) {
+      functions[i] = new HandleFunction(methods.get(i), closure);
+    }
+    return new LoxRuntime.Klass(prototype.name(), parent, functions);
+  }
+}
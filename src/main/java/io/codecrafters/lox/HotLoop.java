@@ -0,0 +1,18 @@
+package io.codecrafters.lox;
+
+/**
+ * State kept for one LOOP instruction of a compiled chunk: how often the VM
+ * has taken the back-edge, the trace recorded for it once it got hot, and
+ * the interpreter state to deoptimize to at the back-edge.
+ */
+final class HotLoop {
+  final FrameState state;
+  int backEdges = 0;
+  int aborts = 0;
+  boolean blacklisted = false;
+  Trace trace = null;
+
+  HotLoop(FrameState state) {
+    this.state = state;
+  }
+}
@@ -0,0 +1,54 @@
+package io.codecrafters.lox;
+
+/**
+ * What a single AST node has observed at runtime: the receiver class at a
+ * property access, or the callee at a call site. A cache starts empty, turns
+ * monomorphic on its first observation and goes polymorphic for good as soon
+ * as it sees a different key.
+ */
+class InlineCache {
+  private Object key;
+  private Object target;
+  private boolean polymorphic;
+  private int count;
+
+  boolean matches(Object key) {
+    return !polymorphic && this.key == key;
+  }
+
+  Object target() {
+    return target;
+  }
+
+  void update(Object key, Object target) {
+    if (polymorphic) return;
+
+    if (this.key == null || this.key == key) {
+      this.key = key;
+      this.target = target;
+      return;
+    }
+
+    polymorphic = true;
+    this.key = null;
+    this.target = null;
+  }
+
+  void markPolymorphic() {
+    polymorphic = true;
+    key = null;
+    target = null;
+  }
+
+  void seedHits(int hits) {
+    count = hits;
+  }
+
+  boolean isPolymorphic() {
+    return polymorphic;
+  }
+
+  int hit() {
+    return ++count;
+  }
+}
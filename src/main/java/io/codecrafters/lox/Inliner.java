@@ -0,0 +1,171 @@
+package io.codecrafters.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Marks calls to small global functions to be inlined: the interpreter
+ * evaluates the callee's returned expression right at the call site
+ * instead of calling it. A function qualifies when it is declared once, at
+ * the top level, and its body is a single {@code return} of an expression
+ * of at most {@link #MAX_NODES} nodes that does not call the function
+ * itself.
+ *
+ * <p>Marked calls still evaluate their callee, and only inline while it is
+ * the function that was declared; a global reassigned to anything else is
+ * called as usual. Calls passing the wrong number of arguments are not
+ * marked, so the call reports the arity error.
+ */
+final class Inliner {
+  static final int MAX_NODES = 16;
+
+  private final Interpreter interpreter;
+  private final Map<String, Stmt.Function> inlineable;
+  private int inlined = 0;
+
+  private Inliner(Interpreter interpreter, Map<String, Stmt.Function> inlineable) {
+    this.interpreter = interpreter;
+    this.inlineable = inlineable;
+  }
+
+  // Marks the calls in statements to inline, returning how many there are.
+  static int inline(List<Stmt> statements, Interpreter interpreter) {
+    Map<String, Stmt.Function> functions = new HashMap<>();
+    Set<String> redeclared = new HashSet<>();
+    for (Stmt statement : statements) {
+      Token name = switch (statement) {
+        case Stmt.Function s -> s.name;
+        case Stmt.Class s -> s.name;
+        case Stmt.Var s -> s.name;
+        default -> null;
+      };
+      if (name == null) continue;
+      if (functions.containsKey(name.lexeme) || redeclared.contains(name.lexeme)
+          || !(statement instanceof Stmt.Function function) || !isSmall(function)) {
+        functions.remove(name.lexeme);
+        redeclared.add(name.lexeme);
+      } else {
+        functions.put(name.lexeme, function);
+      }
+    }
+
+    Inliner inliner = new Inliner(interpreter, functions);
+    inliner.statements(statements);
+    return inliner.inlined;
+  }
+
+  private static boolean isSmall(Stmt.Function function) {
+    return function.body.size() == 1
+        && function.body.get(0) instanceof Stmt.Return r
+        && r.value != null
+        && size(r.value, function.name.lexeme) <= MAX_NODES;
+  }
+
+  // The nodes in expr, or more than MAX_NODES if it calls function.
+  private static int size(Expr expr, String function) {
+    return 1 + switch (expr) {
+      case Expr.Assign e -> size(e.value, function);
+      case Expr.Binary e -> size(e.left, function) + size(e.right, function);
+      case Expr.Call e -> {
+        if (e.callee instanceof Expr.Variable callee && callee.name.lexeme.equals(function)) {
+          yield MAX_NODES;
+        }
+        int size = size(e.callee, function);
+        for (Expr argument : e.arguments) {
+          size += size(argument, function);
+        }
+        yield size;
+      }
+      case Expr.Get e -> size(e.object, function);
+      case Expr.Grouping e -> size(e.expression, function);
+      case Expr.Literal e -> 0;
+      case Expr.Logical e -> size(e.left, function) + size(e.right, function);
+      case Expr.Set e -> size(e.object, function) + size(e.value, function);
+      case Expr.Super e -> 0;
+      case Expr.This e -> 0;
+      case Expr.Unary e -> size(e.right, function);
+      case Expr.Variable e -> 0;
+    };
+  }
+
+  private void statements(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      statement(statement);
+    }
+  }
+
+  private void statement(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.Block s -> statements(s.statements);
+      case Stmt.Class s -> {
+        for (Stmt.Function method : s.methods) {
+          statements(method.body);
+        }
+      }
+      case Stmt.Expression s -> expression(s.expression);
+      case Stmt.Function s -> statements(s.body);
+      case Stmt.If s -> {
+        expression(s.condition);
+        statement(s.thenBranch);
+        if (s.elseBranch != null) statement(s.elseBranch);
+      }
+      case Stmt.Print s -> expression(s.expression);
+      case Stmt.Return s -> {
+        if (s.value != null) expression(s.value);
+      }
+      case Stmt.Var s -> {
+        if (s.initializer != null) expression(s.initializer);
+      }
+      case Stmt.While s -> {
+        expression(s.condition);
+        statement(s.body);
+      }
+    }
+  }
+
+  private void expression(Expr expr) {
+    switch (expr) {
+      case Expr.Assign e -> expression(e.value);
+      case Expr.Binary e -> {
+        expression(e.left);
+        expression(e.right);
+      }
+      case Expr.Call e -> {
+        expression(e.callee);
+        for (Expr argument : e.arguments) {
+          expression(argument);
+        }
+        // Only a global of that name is the declared function.
+        if (e.callee instanceof Expr.Variable callee && interpreter.distance(callee) == null) {
+          Stmt.Function function = inlineable.get(callee.name.lexeme);
+          if (function != null && function.params.size() == e.arguments.size()) {
+            e.inlined = function;
+            inlined++;
+          }
+        }
+      }
+      case Expr.Get e -> expression(e.object);
+      case Expr.Grouping e -> expression(e.expression);
+      case Expr.Literal e -> {
+      }
+      case Expr.Logical e -> {
+        expression(e.left);
+        expression(e.right);
+      }
+      case Expr.Set e -> {
+        expression(e.object);
+        expression(e.value);
+      }
+      case Expr.Super e -> {
+      }
+      case Expr.This e -> {
+      }
+      case Expr.Unary e -> expression(e.right);
+      case Expr.Variable e -> {
+      }
+    }
+  }
+}
@@ -1,19 +1,79 @@
 package io.codecrafters.lox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.codecrafters.lox.Expr.Super;
 import io.codecrafters.lox.Expr.This;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
-    private Environment environment = new Environment();
-    final Environment globals = environment;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final GlobalEnvironment globals = new GlobalEnvironment();
+    private Environment environment = globals;
+    // Concurrent because the background compiler reads resolution while
+    // splitting may add entries for cloned nodes.
+    private final Map<Expr, Integer> locals = new ConcurrentHashMap<>();
+    private final Map<Stmt.Class, List<Super>> superExprs = new HashMap<>();
+    private final Map<Super, SuperTarget> superTargets = new HashMap<>();
+    private final Map<Expr, InlineCache> inlineCaches = new HashMap<>();
+    private final Map<List<Stmt>, List<Expr>> profiledNodes = new IdentityHashMap<>();
+    // For each local declaration and assignment that has run, whether every
+    // value it stored was a number; read by the background compiler.
+    private final Map<Object, Boolean> storedNumbers = new ConcurrentHashMap<>();
+
+    // Runtime state carried over from an earlier run; see ProfileStore.
+    ProfileStore.Seeds seeds = new ProfileStore.Seeds();
+
+    // How often a call site must run between checks for whether its callee
+    // has gone polymorphic and should be split off for this site.
+    private static final int SPLIT_THRESHOLD = 64;
+
+    // The method a super expression refers to, looked up once when the
+    // enclosing class is defined. The superclass is kept so a class body
+    // executed again with a different superclass can't use a stale target.
+    private static final class SuperTarget {
+        final LoxClass superclass;
+        final LoxFunction method;
+
+        SuperTarget(LoxClass superclass, LoxFunction method) {
+            this.superclass = superclass;
+            this.method = method;
+        }
+    }
+
+    final Tiering tiering;
+    private final Map<List<Stmt>, FunctionProfile> functionProfiles = new IdentityHashMap<>();
+    private final Map<Stmt.While, LoopProfile> loopProfiles = new HashMap<>();
+    private final Map<Stmt.While, Optional<CountedLoop>> countedLoops = new HashMap<>();
+    private final Object[] temporaries = new Object[CommonSubexpressions.MAX_TEMPORARIES + 1];
+    // The values of the innermost running loop's invariant expressions,
+    // UNEVALUATED until the loop first reaches each.
+    private Object[] invariants = null;
+    private static final Object UNEVALUATED = new Object();
+    // The caches of the pure functions being memoized.
+    final Map<Stmt.Function, Memo> memos = new LinkedHashMap<>();
+    private FunctionProfile currentFunction = null;
+
+    // Set while the VM records a trace; see TraceRecorder.
+    TraceRecorder recorder = null;
+    final TraceStats traceStats = new TraceStats();
+
+    // Set by SuperinstructionProfiler to count what the VM executes.
+    OpcodeProfile opcodeProfile = null;
 
     Interpreter() {
+        this(Tiering.fromSystemProperties());
+    }
+
+    Interpreter(Tiering tiering) {
+    this.tiering = tiering;
     globals.define("clock", new LoxCallable() {
       @Override
       public int arity() { return 0; }
@@ -65,6 +125,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
+        if (expr.provenNumeric) {
+            return -(double) right;
+        }
 
         switch (expr.operator.type) {
             case MINUS -> {
@@ -81,8 +144,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.invariant != 0) return invariant(expr, expr.invariant);
+        if (expr.temporary != 0) return reuse(expr, expr.temporary);
+        return binary(expr);
+    }
+
+    private Object binary(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        if (expr.provenNumeric) {
+            return numeric(expr.operator, (double) left, (double) right);
+        }
 
         switch (expr.operator.type) {
             case PLUS -> {
@@ -138,10 +210,62 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return lookUpVariable(expr.name, expr);
     }
 
+    // Dispatches through accept() rather than a pattern switch, whose
+    // typeSwitch bootstrap cost every run more at startup than the switch
+    // ever gained back.
     Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
+    // An expression CommonSubexpressions found repeated: the first
+    // occurrence saves its value in the temporary and later ones, marked
+    // with its negation, read it back.
+    private Object reuse(Expr expr, int temporary) {
+        if (temporary < 0) return temporaries[-temporary];
+        Object value = expr instanceof Expr.Binary binary ? binary(binary) : get((Expr.Get) expr);
+        temporaries[temporary] = value;
+        return value;
+    }
+
+    // An expression LoopInvariants found can't change while its loop runs,
+    // evaluated the first time the loop reaches it.
+    private Object invariant(Expr expr, int slot) {
+        Object[] values = invariants;
+        Object value = values == null ? UNEVALUATED : values[slot - 1];
+        if (value != UNEVALUATED) return value;
+        value = expr instanceof Expr.Binary binary ? binary(binary) : get((Expr.Get) expr);
+        if (values != null) values[slot - 1] = value;
+        return value;
+    }
+
+    // Stops saving invariant values while the Deoptimizer runs what is
+    // left of a frame, which may start partway through a loop whose values
+    // were never saved, returning what to restore after.
+    Object[] suspendInvariants() {
+        Object[] suspended = invariants;
+        invariants = null;
+        return suspended;
+    }
+
+    void restoreInvariants(Object[] suspended) {
+        invariants = suspended;
+    }
+
+    // An operation TypeInference proved only ever sees numbers.
+    private static Object numeric(Token operator, double left, double right) {
+        return switch (operator.type) {
+            case PLUS -> left + right;
+            case MINUS -> left - right;
+            case STAR -> left * right;
+            case SLASH -> left / right;
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS -> left < right;
+            case LESS_EQUAL -> left <= right;
+            default -> throw new RuntimeError(operator, "Invalid binary operator.");
+        };
+    }
+
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
     executeBlock(stmt.statements, new Environment(environment));
@@ -192,23 +316,98 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         environment.define(stmt.name.lexeme, value);
+        if (tiering.enabled && environment != globals) {
+            recordStore(stmt, value);
+        }
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.invariants == 0) return runLoop(stmt);
+        Object[] enclosing = invariants;
+        invariants = new Object[stmt.invariants];
+        Arrays.fill(invariants, UNEVALUATED);
+        try {
+            return runLoop(stmt);
+        } finally {
+            invariants = enclosing;
+        }
+    }
+
+    private Void runLoop(Stmt.While stmt) {
+        LoopProfile loop = tiering.enabled
+            ? loopProfile(stmt) : null;
+        if (loop != null && loop.compiled != null) {
+            VM.run(this, loop.compiled, environment, List.of());
+            return null;
+        }
+
+        if (stmt.counter != null) {
+            CountedLoop counted = countedLoops
+                .computeIfAbsent(stmt, s -> Optional.ofNullable(CountedLoop.recognize(s, this)))
+                .orElse(null);
+            if (counted != null && runCounted(counted, loop)) return null;
+        }
+
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            if (backEdge(loop)) return null;
         }
         return null;
     }
 
+    // Runs a counted loop until it ends, or hands it back to the general
+    // loop, returning false, once its bound is not a number. The counter in
+    // its Environment is kept up to date, so either can take over.
+    private boolean runCounted(CountedLoop counted, LoopProfile loop) {
+        if (!(environment.getAt(0, counted.counter.lexeme) instanceof Double start)) return false;
+        double counter = start;
+        while (true) {
+            if (!(evaluate(counted.bound) instanceof Double bound)) return false;
+            if (!counted.test(counter, bound)) return true;
+            executeBlock(counted.body, new Environment(environment));
+            counter += counted.step;
+            Double value = counter;
+            environment.assignAt(0, counted.counter, value);
+            if (tiering.enabled) {
+                recordStore(counted.increment, value);
+            }
+            if (backEdge(loop)) return true;
+        }
+    }
+
+    // Counts a back-edge of the loop being interpreted. Returns whether the
+    // loop was then finished by its compiled code.
+    private boolean backEdge(LoopProfile loop) {
+        if (currentFunction != null) {
+            tiering.recordBackEdge(this, currentFunction);
+        }
+        if (loop != null) {
+            tiering.recordBackEdge(this, loop);
+
+            // On-stack replacement: the loop's state lives in the
+            // current Environment, so the compiled loop picks up at the
+            // condition check exactly where this iteration left off.
+            if (loop.compiled != null) {
+                tiering.trace(loop.describe() + ": entering compiled loop after "
+                    + loop.backEdges + " back-edges");
+                VM.run(this, loop.compiled, environment, List.of());
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
       Object value = evaluate(expr.value);
       Integer distance = locals.get(expr);
     if (distance != null) {
       environment.assignAt(distance, expr.name, value);
+      if (tiering.enabled) {
+        recordStore(expr, value);
+      }
     } else {
       globals.assign(expr.name, value);
     }
@@ -231,7 +430,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return value.toString();
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) {
             return false;
         }
@@ -241,7 +440,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) {
             return true;
         }
@@ -273,11 +472,131 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         locals.put(expr, depth);
     }
 
+    Integer distance(Expr expr) {
+        return locals.get(expr);
+    }
+
+    private void recordStore(Object node, Object value) {
+        Boolean onlyNumbers = storedNumbers.get(node);
+        if (onlyNumbers == null || onlyNumbers && !(value instanceof Double)) {
+            storedNumbers.put(node, value instanceof Double);
+        }
+    }
+
+    // Whether node, a local Stmt.Var or Expr.Assign, has stored values and
+    // all of them were numbers.
+    boolean storedOnlyNumbers(Object node) {
+        return storedNumbers.getOrDefault(node, false);
+    }
+
+    // Whether node has stored anything but a number.
+    boolean storedOtherThanNumbers(Object node) {
+        return !storedNumbers.getOrDefault(node, true);
+    }
+
+    FunctionProfile functionProfile(String name, List<Token> params, List<Stmt> body,
+                                    boolean isInitializer) {
+        return functionProfiles.computeIfAbsent(body, b -> {
+            FunctionProfile profile = new FunctionProfile(name, params, body, isInitializer);
+            if (seeds.hotFunctions.contains(body)) {
+                profile.invocations = tiering.invocationThreshold - 1;
+            }
+            return profile;
+        });
+    }
+
+    private LoopProfile loopProfile(Stmt.While stmt) {
+        return loopProfiles.computeIfAbsent(stmt, s -> {
+            LoopProfile profile = new LoopProfile(stmt);
+            if (seeds.hotLoops.contains(stmt)) {
+                profile.backEdges = tiering.backEdgeThreshold - 1;
+            }
+            return profile;
+        });
+    }
+
+    boolean isHot(List<?> body) {
+        FunctionProfile profile = functionProfiles.get(body);
+        return profile != null && isHot(profile);
+    }
+
+    boolean isHot(Stmt.While loop) {
+        LoopProfile profile = loopProfiles.get(loop);
+        return profile != null && isHot(profile);
+    }
+
+    private static boolean isHot(TieredCode code) {
+        return code.state == TieredCode.State.QUEUED || code.state == TieredCode.State.COMPILED;
+    }
+
+    // Makes profile the function whose loops count back-edges, returning the
+    // previous one for the caller to restore.
+    FunctionProfile enterFunction(FunctionProfile profile) {
+        FunctionProfile previous = currentFunction;
+        currentFunction = profile;
+        return previous;
+    }
+
+    void exitFunction(FunctionProfile previous) {
+        currentFunction = previous;
+    }
+
+    void resolveSuper(Stmt.Class klass, Super expr) {
+        superExprs.computeIfAbsent(klass, k -> new ArrayList<>()).add(expr);
+    }
+
+    void resolveProfiled(List<Stmt> body, Expr expr) {
+        profiledNodes.computeIfAbsent(body, b -> new ArrayList<>()).add(expr);
+    }
+
+    void copyResolution(Expr from, Expr to) {
+        Integer distance = locals.get(from);
+        if (distance != null) {
+            locals.put(to, distance);
+        }
+
+        if (from instanceof Super) {
+            SuperTarget target = superTargets.get(from);
+            if (target != null) {
+                superTargets.put((Super) to, target);
+            }
+        }
+    }
+
+    boolean isPolymorphic(List<Stmt> body) {
+        for (Expr node : profiledNodes.getOrDefault(body, List.of())) {
+            InlineCache cache = inlineCaches.get(node);
+            if (cache != null && cache.isPolymorphic()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private InlineCache inlineCache(Expr node) {
+        return inlineCaches.computeIfAbsent(node, n -> {
+            InlineCache cache = new InlineCache();
+            if (seeds.polymorphic.contains(node)) {
+                cache.markPolymorphic();
+            } else if (seeds.split.contains(node)) {
+                // Splits on the first call instead of the SPLIT_THRESHOLD-th.
+                cache.seedHits(SPLIT_THRESHOLD - 1);
+            }
+            return cache;
+        });
+    }
+
+    InlineCache existingCache(Expr node) {
+        return inlineCaches.get(node);
+    }
+
 
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt.name.lexeme, stmt.params, stmt.body, environment, false);
+        Memo memo = memos.get(stmt);
+        if (memo != null) function.memoize(memo);
         environment.define(stmt.name.lexeme, function);
         return null;
     }
@@ -286,25 +605,124 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Super) {
+            return callSuper((Super) expr.callee, expr);
+        }
+        if (expr.callee instanceof Expr.Get) {
+            return callMethod((Expr.Get) expr.callee, expr);
+        }
+
         Object callee = evaluate(expr.callee);
+        if (expr.inlined != null && callee instanceof LoxFunction function
+            && function.declaration() == expr.inlined.body) {
+            return callInlined(function, expr);
+        }
+        return callValue(callee, evaluateArguments(expr), expr);
+    }
+
+    // Evaluates the returned expression of a function Inliner chose for
+    // this call in place, with the parameters bound in the scope a call
+    // would make, but without the call or the Return it would throw.
+    private Object callInlined(LoxFunction function, Expr.Call expr) {
+        List<Object> arguments = evaluateArguments(expr);
+        Environment scope = new Environment(function.closure());
+        List<Token> params = expr.inlined.params;
+        for (int i = 0; i < params.size(); i++) {
+            scope.define(params.get(i).lexeme, arguments.get(i));
+        }
 
-        List<Object> arguments = new java.util.ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        Environment previous = environment;
+        try {
+            environment = scope;
+            return evaluate(((Stmt.Return) expr.inlined.body.get(0)).value);
+        } finally {
+            environment = previous;
         }
+    }
 
+    Object callValue(Object callee, List<Object> arguments, Expr.Call expr) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
+        checkArity(expr, function, arguments);
+
+        if (function instanceof LoxFunction) {
+            function = specialize(expr, (LoxFunction) function);
+        }
+        return function.call(this, arguments);
+    }
+
+    // Calls obj.method(...) without allocating the bound method that
+    // evaluating the Get on its own would create.
+    private Object callMethod(Expr.Get get, Expr.Call expr) {
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+
+        LoxInstance instance = (LoxInstance) object;
+        if (instance.hasField(get.name)) {
+            Object callee = instance.get(get.name);
+            return callValue(callee, evaluateArguments(expr), expr);
+        }
+
+        LoxFunction method = findMethod(instance, get);
+        return callMethod(instance, method, evaluateArguments(expr), expr);
+    }
+
+    Object callMethod(LoxInstance instance, LoxFunction method, List<Object> arguments,
+                      Expr.Call expr) {
+        checkArity(expr, method, arguments);
+        return specialize(expr, method).callOn(this, instance, arguments);
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
+        }
+        return arguments;
+    }
+
+    private void checkArity(Expr.Call expr, LoxCallable function, List<Object> arguments) {
         if (arguments.size() != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected " +
                 function.arity() + " arguments but got " +
                 arguments.size() + ".");
         }
+    }
 
-        return function.call(this, arguments);
+    // Gives a hot call site its own copy of the callee once the callee's
+    // shared body has gone polymorphic, so the nodes in the copy only see
+    // the values flowing through this site.
+    private LoxFunction specialize(Expr.Call site, LoxFunction function) {
+        InlineCache cache = inlineCache(site);
+        if (cache.matches(function) && cache.target() != null) {
+            return (LoxFunction) cache.target();
+        }
+
+        cache.update(function, null);
+        if (cache.isPolymorphic()) {
+            return function;
+        }
+
+        if (cache.hit() % SPLIT_THRESHOLD == 0) {
+            LoxFunction split = function.split(this);
+            if (split != null) {
+                cache.update(function, split);
+                return split;
+            }
+        }
+        return function;
+    }
+
+    private Object callSuper(Super callee, Expr.Call expr) {
+        Environment thisScope = environment.ancestor(locals.get(callee) - 1);
+        LoxFunction method = superMethod(callee, thisScope);
+        LoxInstance object = (LoxInstance) thisScope.getAt(0, "this");
+        return callMethod(object, method, evaluateArguments(expr), expr);
     }
 
     @Override
@@ -344,25 +762,67 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         LoxClass klass = new LoxClass(stmt.name.lexeme,
             (LoxClass)superclass, methods);
 
+        if (superclass != null) {
+            for (Super expr : superExprs.getOrDefault(stmt, List.of())) {
+                superTargets.put(expr, new SuperTarget((LoxClass) superclass,
+                    ((LoxClass) superclass).findMethod(expr.method.lexeme)));
+            }
+        }
+
         if (superclass != null) {
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, klass);
+        environment.define(stmt.name.lexeme, klass);
         return null;
     }
 
     @Override
   public Object visitGetExpr(Expr.Get expr) {
-    Object object = evaluate(expr.object);
+    if (expr.invariant != 0) return invariant(expr, expr.invariant);
+    if (expr.temporary != 0) return reuse(expr, expr.temporary);
+    return get(expr);
+  }
+
+  private Object get(Expr.Get expr) {
+    return getProperty(evaluate(expr.object), expr);
+  }
+
+  Object getProperty(Object object, Expr.Get expr) {
     if (object instanceof LoxInstance) {
-      return ((LoxInstance) object).get(expr.name);
+      LoxInstance instance = (LoxInstance) object;
+      if (instance.hasField(expr.name)) {
+        return instance.get(expr.name);
+      }
+      return findMethod(instance, expr).bind(instance);
     }
 
     throw new RuntimeError(expr.name,
         "Only instances have properties.");
   }
 
+  LoxFunction findMethod(LoxInstance instance, Expr.Get expr) {
+    LoxFunction method = lookUpMethod(expr, instance.klass);
+    if (method == null) {
+      throw new RuntimeError(expr.name,
+          "Undefined property '" + expr.name.lexeme + "'.");
+    }
+    return method;
+  }
+
+    // A class's methods never change after it is created, so a property
+    // access that keeps seeing the same class can reuse its last lookup.
+    private LoxFunction lookUpMethod(Expr.Get expr, LoxClass klass) {
+        InlineCache cache = inlineCache(expr);
+        if (cache.matches(klass)) {
+            return (LoxFunction) cache.target();
+        }
+
+        LoxFunction method = klass.findMethod(expr.name.lexeme);
+        cache.update(klass, method);
+        return method;
+    }
+
     @Override
     public Object visitSetExpr(Expr.Set expr) {
     Object object = evaluate(expr.object);
@@ -394,18 +854,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(
-        distance, "super");
+        Environment thisScope = environment.ancestor(locals.get(expr) - 1);
+        LoxFunction method = superMethod(expr, thisScope);
+        return method.bind((LoxInstance) thisScope.getAt(0, "this"));
+    }
 
-        LoxInstance object = (LoxInstance)environment.getAt(
-        distance - 1, "this");
+    // The scope binding "this" sits directly inside the one binding "super",
+    // so a single walk reaches both.
+    LoxFunction superMethod(Super expr, Environment thisScope) {
+        LoxClass superclass = (LoxClass) thisScope.enclosing.getAt(0, "super");
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        SuperTarget target = superTargets.get(expr);
+        LoxFunction method = target != null && target.superclass == superclass
+            ? target.method
+            : superclass.findMethod(expr.method.lexeme);
         if (method == null) {
-                throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
-            }
-        return method.bind(object);
+            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+        }
+        return method;
     }
 
 }
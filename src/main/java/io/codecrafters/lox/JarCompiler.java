@@ -0,0 +1,118 @@
+package io.codecrafters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles a resolved program ahead of time into a runnable JAR: the
+ * program is translated to Java by {@link JavaTranslator}, compiled with
+ * the JDK's compiler, and packed with the classes of {@link LoxRuntime}
+ * that it runs on. The JAR needs nothing else, not even the interpreter,
+ * and prints, fails and exits like {@code run} would.
+ */
+final class JarCompiler {
+  private static final String PACKAGE = "io/codecrafters/lox/";
+
+  // Everything a compiled program touches at runtime.
+  private static final List<Class<?>> RUNTIME =
+      List.of(LoxRuntime.class, RuntimeError.class, Token.class, TokenType.class);
+
+  private JarCompiler() {}
+
+  static void compile(List<Stmt> statements, Interpreter interpreter, Path jar)
+      throws IOException {
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    if (javac == null) {
+      throw new IOException("no Java compiler available, compile needs a JDK");
+    }
+
+    String source = JavaTranslator.translate(statements, interpreter);
+    Path work = Files.createTempDirectory("lox-compile");
+    try {
+      Path file = work.resolve(JavaTranslator.CLASS_NAME + ".java");
+      Files.writeString(file, source, StandardCharsets.UTF_8);
+      Path classes = Files.createDirectory(work.resolve("classes"));
+
+      ByteArrayOutputStream errors = new ByteArrayOutputStream();
+      int status = javac.run(null, null, errors, "-d", classes.toString(),
+          "-cp", runtimeLocation(), "-encoding", "UTF-8", "-implicit:none", "-nowarn",
+          file.toString());
+      if (status != 0) {
+        throw new IOException("generated code did not compile:\n" + errors);
+      }
+
+      write(jar, classes);
+    } finally {
+      try (Stream<Path> files = Files.walk(work)) {
+        for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+          Files.deleteIfExists(path);
+        }
+      }
+    }
+  }
+
+  private static String runtimeLocation() throws IOException {
+    try {
+      return Path.of(LoxRuntime.class.getProtectionDomain().getCodeSource().getLocation()
+          .toURI()).toString();
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static void write(Path jar, Path classes) throws IOException {
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS,
+        PACKAGE.replace('/', '.') + JavaTranslator.CLASS_NAME);
+
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+      List<Path> compiled;
+      try (Stream<Path> files = Files.walk(classes)) {
+        compiled = files.filter(Files::isRegularFile).sorted().toList();
+      }
+      for (Path path : compiled) {
+        out.putNextEntry(new JarEntry(classes.relativize(path).toString().replace('\\', '/')));
+        out.write(Files.readAllBytes(path));
+        out.closeEntry();
+      }
+
+      for (Class<?> type : runtimeClasses()) {
+        String name = type.getName().replace('.', '/') + ".class";
+        try (InputStream in = type.getResourceAsStream("/" + name)) {
+          if (in == null) {
+            throw new IOException("cannot find " + name);
+          }
+          out.putNextEntry(new JarEntry(name));
+          in.transferTo(out);
+          out.closeEntry();
+        }
+      }
+    }
+  }
+
+  // The runtime classes and every class nested in them, including the
+  // anonymous ones.
+  private static List<Class<?>> runtimeClasses() {
+    List<Class<?>> classes = new ArrayList<>();
+    for (Class<?> type : RUNTIME) {
+      classes.addAll(List.of(type.getNestMembers()));
+    }
+    return classes;
+  }
+}
@@ -0,0 +1,507 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Translates a resolved program into the source of one Java class that runs
+ * it on {@link LoxRuntime}. Globals stay in the runtime's table, looked up
+ * by name, since a function may use a global defined after it. Locals
+ * become Java locals, found through the distances the Resolver recorded;
+ * a local that some nested function uses is kept in a one-element array
+ * instead, so every closure shares it. Functions and methods become
+ * anonymous subclasses of {@link LoxRuntime.Function}.
+ *
+ * <p>Which locals are captured is only known once the functions using them
+ * have been seen, so the program is walked twice: once to find them and
+ * once to write the class.
+ */
+final class JavaTranslator {
+  static final String CLASS_NAME = "LoxProgram";
+
+  // Top-level statements are split across methods so a long script stays
+  // under the JVM's limit on the size of one method.
+  private static final int STATEMENTS_PER_METHOD = 64;
+
+  private static final class Local {
+    final Token declaration;
+    final String name;
+    final boolean cell;
+    final int function;
+
+    Local(Token declaration, String name, boolean cell, int function) {
+      this.declaration = declaration;
+      this.name = name;
+      this.cell = cell;
+      this.function = function;
+    }
+
+    String read() {
+      return cell ? name + "[0]" : name;
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final Set<Token> captured = Collections.newSetFromMap(new IdentityHashMap<>());
+  private boolean analyzing;
+
+  private StringBuilder out;
+  private int indent;
+  private List<Map<String, Local>> scopes;
+  private int function;
+  private int functions;
+  private int names;
+  private String initializerSelf;
+
+  // The temporaries of the Java method being written, declared at its top
+  // once the method is finished.
+  private List<String> temps;
+  private Map<Object, String> constants;
+
+  private JavaTranslator(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  static String translate(List<Stmt> statements, Interpreter interpreter) {
+    JavaTranslator translator = new JavaTranslator(interpreter);
+    translator.analyzing = true;
+    translator.program(statements);
+    translator.analyzing = false;
+    return translator.program(statements);
+  }
+
+  private String program(List<Stmt> statements) {
+    out = new StringBuilder();
+    indent = 1;
+    scopes = new ArrayList<>();
+    function = 0;
+    functions = 0;
+    names = 0;
+    initializerSelf = null;
+    constants = new LinkedHashMap<>();
+
+    List<String> parts = new ArrayList<>();
+    for (int start = 0; start < statements.size(); start += STATEMENTS_PER_METHOD) {
+      String part = "part" + parts.size();
+      parts.add(part);
+      line("private static void " + part + "() {");
+      indent++;
+      int body = beginMethod();
+      statements(statements.subList(start,
+          Math.min(start + STATEMENTS_PER_METHOD, statements.size())));
+      endMethod(body);
+      indent--;
+      line("}");
+      line("");
+    }
+
+    StringBuilder program = new StringBuilder();
+    program.append("package io.codecrafters.lox;\n\n");
+    program.append("final class ").append(CLASS_NAME).append(" {\n");
+    for (Map.Entry<Object, String> constant : constants.entrySet()) {
+      program.append("  private static final Object ").append(constant.getValue())
+          .append(" = ").append(constant.getKey()).append(";\n");
+    }
+    program.append("\n  public static void main(String[] args) {\n");
+    program.append("    LoxRuntime.main(").append(CLASS_NAME).append("::run);\n");
+    program.append("  }\n\n");
+    program.append("  private static void run() {\n");
+    for (String part : parts) {
+      program.append("    ").append(part).append("();\n");
+    }
+    program.append("  }\n\n");
+    program.append(out);
+    program.append("}\n");
+    return program.toString();
+  }
+
+  private void line(String text) {
+    if (!text.isEmpty()) {
+      out.append("  ".repeat(indent)).append(text);
+    }
+    out.append('\n');
+  }
+
+  private int beginMethod() {
+    temps = new ArrayList<>();
+    return out.length();
+  }
+
+  private void endMethod(int body) {
+    if (!temps.isEmpty()) {
+      out.insert(body, "  ".repeat(indent) + "Object " + String.join(", ", temps) + ";\n");
+    }
+  }
+
+  private String temp() {
+    String name = "t" + (++names);
+    temps.add(name);
+    return name;
+  }
+
+  private String name(String prefix) {
+    return prefix + (++names);
+  }
+
+  // Java refuses statements it can prove unreachable, such as anything
+  // after a return, so statements stop being written at the first one that
+  // cannot complete. Returns whether the list can complete.
+  private boolean statements(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (!statement(statement)) return false;
+    }
+    return true;
+  }
+
+  private boolean statement(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.Block s -> {
+        line("{");
+        indent++;
+        beginScope();
+        boolean completes = statements(s.statements);
+        endScope();
+        indent--;
+        line("}");
+        return completes;
+      }
+      case Stmt.Class s -> classDeclaration(s);
+      case Stmt.Expression s -> line(effect(s.expression) + ";");
+      case Stmt.Function s -> {
+        Local local = declare(s.name);
+        if (local == null) {
+          function(s, "LoxRuntime.define(" + string(s.name.lexeme) + ", ", ");", false);
+        } else if (local.cell) {
+          line("Object[] " + local.name + " = {null};");
+          function(s, local.name + "[0] = ", ";", false);
+        } else {
+          function(s, "Object " + local.name + " = ", ";", false);
+        }
+      }
+      case Stmt.If s -> {
+        line("if (" + condition(s.condition) + ") {");
+        boolean thenCompletes = branch(s.thenBranch);
+        if (s.elseBranch == null) {
+          line("}");
+          return true;
+        }
+        line("} else {");
+        boolean elseCompletes = branch(s.elseBranch);
+        line("}");
+        return thenCompletes || elseCompletes;
+      }
+      case Stmt.Print s -> line("LoxRuntime.print(" + value(s.expression) + ");");
+      case Stmt.Return s -> {
+        if (initializerSelf != null) {
+          line("return " + initializerSelf + ";");
+        } else {
+          line("return " + (s.value == null ? "null" : value(s.value)) + ";");
+        }
+        return false;
+      }
+      case Stmt.Var s -> {
+        String value = s.initializer == null ? "null" : value(s.initializer);
+        Local local = declare(s.name);
+        if (local == null) {
+          line("LoxRuntime.define(" + string(s.name.lexeme) + ", " + value + ");");
+        } else if (local.cell) {
+          line("Object[] " + local.name + " = {" + value + "};");
+        } else {
+          line("Object " + local.name + " = " + value + ";");
+        }
+      }
+      case Stmt.While s -> {
+        line("while (" + condition(s.condition) + ") {");
+        branch(s.body);
+        line("}");
+      }
+    }
+    return true;
+  }
+
+  private boolean branch(Stmt stmt) {
+    indent++;
+    boolean completes = statement(stmt);
+    indent--;
+    return completes;
+  }
+
+  private void classDeclaration(Stmt.Class stmt) {
+    String superclass = null;
+    if (stmt.superclass != null) {
+      superclass = name("s");
+      line("LoxRuntime.Klass " + superclass + " = LoxRuntime.superclass("
+          + value(stmt.superclass) + ", " + stmt.superclass.name.line + ");");
+    }
+
+    Local local = declare(stmt.name);
+    if (local == null) {
+      line("LoxRuntime.define(" + string(stmt.name.lexeme) + ", null);");
+    } else if (local.cell) {
+      line("Object[] " + local.name + " = {null};");
+    } else {
+      line("Object " + local.name + " = null;");
+    }
+
+    if (superclass != null) {
+      beginScope();
+      scopes.get(scopes.size() - 1).put("super", new Local(null, superclass, false, function));
+    }
+    beginScope();
+
+    List<String> methods = new ArrayList<>();
+    for (Stmt.Function method : stmt.methods) {
+      String name = name("m");
+      methods.add(name);
+      function(method, "LoxRuntime.Function " + name + " = ", ";", true);
+    }
+
+    endScope();
+    if (superclass != null) {
+      endScope();
+    }
+
+    StringBuilder klass = new StringBuilder("new LoxRuntime.Klass(")
+        .append(string(stmt.name.lexeme)).append(", ").append(superclass);
+    for (String method : methods) {
+      klass.append(", ").append(method);
+    }
+    klass.append(")");
+
+    if (local == null) {
+      line("LoxRuntime.define(" + string(stmt.name.lexeme) + ", " + klass + ");");
+    } else {
+      line(local.read() + " = " + klass + ";");
+    }
+  }
+
+  // Writes the function as an anonymous class, between prefix and suffix.
+  // A method's "this" is the receiver its invoke is given; it is bound in
+  // the class's "this" scope, the innermost open scope, while the method
+  // is written.
+  private void function(Stmt.Function declaration, String prefix, String suffix,
+                        boolean isMethod) {
+    boolean isInitializer = isMethod && declaration.name.lexeme.equals("init");
+    String self = name("self");
+    String arguments = name("arguments");
+    if (isMethod) {
+      scopes.get(scopes.size() - 1).put("this", new Local(null, self, false, function));
+    }
+
+    line(prefix + "new LoxRuntime.Function(" + string(declaration.name.lexeme) + ", "
+        + declaration.params.size() + ") {");
+    indent++;
+    line("@Override");
+    line("Object invoke(LoxRuntime.Instance " + self + ", Object[] " + arguments + ") {");
+    indent++;
+
+    int enclosingFunction = function;
+    String enclosingInitializer = initializerSelf;
+    List<String> enclosingTemps = temps;
+    function = ++functions;
+    initializerSelf = isInitializer ? self : null;
+    int body = beginMethod();
+    beginScope();
+
+    for (int i = 0; i < declaration.params.size(); i++) {
+      Local param = declare(declaration.params.get(i));
+      String argument = arguments + "[" + i + "]";
+      line(param.cell
+          ? "Object[] " + param.name + " = {" + argument + "};"
+          : "Object " + param.name + " = " + argument + ";");
+    }
+    if (statements(declaration.body)) {
+      line("return " + (isInitializer ? self : "null") + ";");
+    }
+
+    endScope();
+    endMethod(body);
+    temps = enclosingTemps;
+    initializerSelf = enclosingInitializer;
+    function = enclosingFunction;
+
+    indent--;
+    line("}");
+    indent--;
+    line("}" + suffix);
+  }
+
+  private void beginScope() {
+    scopes.add(new HashMap<>());
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  // Declares name in the innermost scope, returning null at the top level,
+  // where it is a global.
+  private Local declare(Token name) {
+    if (scopes.isEmpty()) return null;
+    Local local = new Local(name, name("v") + "_" + name.lexeme, captured.contains(name),
+        function);
+    scopes.get(scopes.size() - 1).put(name.lexeme, local);
+    return local;
+  }
+
+  // The local expr refers to, or null for a global. A local read from a
+  // function other than its own is captured.
+  private Local resolve(Expr expr, String name) {
+    Integer distance = interpreter.distance(expr);
+    if (distance == null) return null;
+
+    Local local = scopes.get(scopes.size() - 1 - distance).get(name);
+    if (analyzing && local.function != function && local.declaration != null) {
+      captured.add(local.declaration);
+    }
+    return local;
+  }
+
+  // An expression statement: Java only allows calls and assignments there.
+  private String effect(Expr expr) {
+    if (expr instanceof Expr.Assign e) {
+      Local local = resolve(e, e.name.lexeme);
+      if (local != null) {
+        return local.read() + " = " + value(e.value);
+      }
+    }
+    if (expr instanceof Expr.Assign || expr instanceof Expr.Call || expr instanceof Expr.Set) {
+      return value(expr);
+    }
+    return "LoxRuntime.discard(" + value(expr) + ")";
+  }
+
+  // An expression used as a condition, as a Java boolean. Comparisons and
+  // logical operators are kept as Java booleans instead of being boxed and
+  // tested for truthiness.
+  private String condition(Expr expr) {
+    return switch (expr) {
+      case Expr.Grouping e -> condition(e.expression);
+      case Expr.Binary e when isComparison(e.operator.type) -> value(e);
+      case Expr.Unary e when e.operator.type == TokenType.BANG ->
+          "!(" + condition(e.right) + ")";
+      case Expr.Logical e -> "(" + condition(e.left)
+          + (e.operator.type == TokenType.OR ? " || " : " && ") + condition(e.right) + ")";
+      default -> "LoxRuntime.isTruthy(" + value(expr) + ")";
+    };
+  }
+
+  private static boolean isComparison(TokenType type) {
+    return switch (type) {
+      case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> true;
+      default -> false;
+    };
+  }
+
+  // An expression producing its value: an Object, or a Java double or
+  // boolean that is boxed wherever an Object is needed.
+  private String value(Expr expr) {
+    return switch (expr) {
+      case Expr.Assign e -> {
+        String value = value(e.value);
+        Local local = resolve(e, e.name.lexeme);
+        yield local == null
+            ? "LoxRuntime.assign(" + string(e.name.lexeme) + ", " + value + ", "
+                + e.name.line + ")"
+            : "(" + local.read() + " = " + value + ")";
+      }
+      case Expr.Binary e -> binary(e);
+      case Expr.Call e -> {
+        StringBuilder call = new StringBuilder("LoxRuntime.call(")
+            .append(value(e.callee)).append(", ").append(e.paren.line).append(", new Object[] {");
+        for (int i = 0; i < e.arguments.size(); i++) {
+          if (i > 0) call.append(", ");
+          call.append(value(e.arguments.get(i)));
+        }
+        yield call.append("})").toString();
+      }
+      case Expr.Get e -> "LoxRuntime.get(" + value(e.object) + ", " + string(e.name.lexeme)
+          + ", " + e.name.line + ")";
+      case Expr.Grouping e -> value(e.expression);
+      case Expr.Literal e -> literal(e.value);
+      case Expr.Logical e -> {
+        String left = temp();
+        String test = "LoxRuntime.isTruthy(" + left + " = " + value(e.left) + ")";
+        yield e.operator.type == TokenType.OR
+            ? "(" + test + " ? " + left + " : " + value(e.right) + ")"
+            : "(" + test + " ? " + value(e.right) + " : " + left + ")";
+      }
+      case Expr.Set e -> "LoxRuntime.set(LoxRuntime.fieldsOf(" + value(e.object) + ", "
+          + e.name.line + "), " + string(e.name.lexeme) + ", " + value(e.value) + ")";
+      case Expr.Super e -> {
+        // "this" is bound in the scope just inside the one binding "super".
+        Local superclass = resolve(e, "super");
+        int distance = interpreter.distance(e) - 1;
+        Local self = scopes.get(scopes.size() - 1 - distance).get("this");
+        yield "LoxRuntime.superMethod(" + superclass.name + ", " + self.name + ", "
+            + string(e.method.lexeme) + ", " + e.method.line + ")";
+      }
+      case Expr.This e -> resolve(e, "this").name;
+      case Expr.Unary e -> e.operator.type == TokenType.MINUS
+          ? "LoxRuntime.negate(" + value(e.right) + ", " + e.operator.line + ")"
+          : "(!LoxRuntime.isTruthy(" + value(e.right) + "))";
+      case Expr.Variable e -> {
+        Local local = resolve(e, e.name.lexeme);
+        yield local == null
+            ? "LoxRuntime.global(" + string(e.name.lexeme) + ", " + e.name.line + ")"
+            : local.read();
+      }
+    };
+  }
+
+  private String binary(Expr.Binary e) {
+    String left = value(e.left);
+    String right = value(e.right);
+    String operands = left + ", " + right + ", " + e.operator.line + ")";
+    return switch (e.operator.type) {
+      case PLUS -> "LoxRuntime.add(" + operands;
+      case MINUS -> "LoxRuntime.subtract(" + operands;
+      case STAR -> "LoxRuntime.multiply(" + operands;
+      case SLASH -> "LoxRuntime.divide(" + operands;
+      case GREATER -> "LoxRuntime.greater(" + operands;
+      case GREATER_EQUAL -> "LoxRuntime.greaterEqual(" + operands;
+      case LESS -> "LoxRuntime.less(" + operands;
+      case LESS_EQUAL -> "LoxRuntime.lessEqual(" + operands;
+      case EQUAL_EQUAL -> "LoxRuntime.isEqual(" + left + ", " + right + ")";
+      case BANG_EQUAL -> "(!LoxRuntime.isEqual(" + left + ", " + right + "))";
+      default -> throw new IllegalStateException("binary operator " + e.operator.lexeme);
+    };
+  }
+
+  // Numbers are boxed once, into constants, rather than on every use.
+  private String literal(Object value) {
+    if (value == null) return "null";
+    if (value instanceof Boolean b) return b ? "Boolean.TRUE" : "Boolean.FALSE";
+    if (value instanceof String s) return string(s);
+    return constants.computeIfAbsent(value.toString(), v -> "N" + constants.size());
+  }
+
+  private static String string(String value) {
+    StringBuilder literal = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      switch (c) {
+        case '"' -> literal.append("\\\"");
+        case '\\' -> literal.append("\\\\");
+        case '\n' -> literal.append("\\n");
+        case '\r' -> literal.append("\\r");
+        case '\t' -> literal.append("\\t");
+        default -> {
+          // Octal, not \\u: javac would turn a \\u escape back into the
+          // character before reading the string.
+          if (c < 0x20) {
+            literal.append(String.format("\\%03o", (int) c));
+          } else {
+            literal.append(c);
+          }
+        }
+      }
+    }
+    return literal.append('"').toString();
+  }
+}
@@ -0,0 +1,253 @@
+package io.codecrafters.lox;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds expressions in while loops whose value can't change while the loop
+ * runs, such as {@code limit * 2}, so the interpreter evaluates them once
+ * per run of the loop instead of once per iteration. Each one gets a slot
+ * in an array the interpreter makes when the loop starts; the first time
+ * the loop reaches the expression it is evaluated where it stands and
+ * saved, so errors and loops that never reach it behave as before. See
+ * the {@code invariant} field of Binary and Get and {@code invariants} of
+ * While.
+ *
+ * <p>An expression is invariant if it is built from literals, {@code this},
+ * operators, variables the loop neither declares nor assigns, and property
+ * reads, as long as the loop writes no field. A loop that makes calls
+ * also keeps property reads, and variables that any function assigns,
+ * out. Property reads are only hoisted as operands of arithmetic and
+ * comparisons, for the same reason as in {@link CommonSubexpressions}.
+ * An expression belongs to the innermost loop around it; functions
+ * declared in a loop are not part of it.
+ */
+final class LoopInvariants {
+  // Names some function body assigns, which a call could change.
+  private final Set<String> assignedByFunctions;
+  private int hoisted = 0;
+
+  private LoopInvariants(Set<String> assignedByFunctions) {
+    this.assignedByFunctions = assignedByFunctions;
+  }
+
+  // A loop being marked: what running its condition and body might
+  // change, and how many slots it has.
+  private static final class Loop {
+    final Set<String> names = new HashSet<>();
+    boolean writesFields = false;
+    boolean calls = false;
+    int invariants = 0;
+  }
+
+  // Marks the loop invariant expressions in statements, returning how many
+  // there are.
+  static int hoist(List<Stmt> statements) {
+    Set<String> assignedByFunctions = new HashSet<>();
+    for (Stmt statement : statements) {
+      functionAssignments(statement, assignedByFunctions);
+    }
+    LoopInvariants pass = new LoopInvariants(assignedByFunctions);
+    pass.statements(statements, null);
+    return pass.hoisted;
+  }
+
+  private static void functionAssignments(Stmt stmt, Set<String> names) {
+    switch (stmt) {
+      case Stmt.Block s -> s.statements.forEach(each -> functionAssignments(each, names));
+      case Stmt.Class s -> s.methods.forEach(method -> functionAssignments(method, names));
+      case Stmt.Function s -> {
+        for (Expr.Assign assign : BytecodeCompiler.assignments(s)) {
+          names.add(assign.name.lexeme);
+        }
+      }
+      case Stmt.If s -> {
+        functionAssignments(s.thenBranch, names);
+        if (s.elseBranch != null) functionAssignments(s.elseBranch, names);
+      }
+      case Stmt.While s -> functionAssignments(s.body, names);
+      default -> {
+      }
+    }
+  }
+
+  // Walks statements inside loop, or outside any loop if it is null.
+  private void statements(List<Stmt> statements, Loop loop) {
+    for (Stmt statement : statements) {
+      statement(statement, loop);
+    }
+  }
+
+  private void statement(Stmt stmt, Loop loop) {
+    switch (stmt) {
+      case Stmt.Block s -> statements(s.statements, loop);
+      case Stmt.Class s -> {
+        for (Stmt.Function method : s.methods) {
+          statements(method.body, null);
+        }
+      }
+      case Stmt.Expression s -> mark(s.expression, loop, false);
+      case Stmt.Function s -> statements(s.body, null);
+      case Stmt.If s -> {
+        mark(s.condition, loop, false);
+        statement(s.thenBranch, loop);
+        if (s.elseBranch != null) statement(s.elseBranch, loop);
+      }
+      case Stmt.Print s -> mark(s.expression, loop, false);
+      case Stmt.Return s -> {
+        if (s.value != null) mark(s.value, loop, false);
+      }
+      case Stmt.Var s -> {
+        if (s.initializer != null) mark(s.initializer, loop, false);
+      }
+      case Stmt.While s -> {
+        Loop inner = new Loop();
+        effects(s.condition, inner);
+        effects(s.body, inner);
+        mark(s.condition, inner, false);
+        statement(s.body, inner);
+        s.invariants = inner.invariants;
+      }
+    }
+  }
+
+  // Gives the largest invariant expressions within expr slots in loop. An
+  // operand is an operand of arithmetic or a comparison.
+  private void mark(Expr expr, Loop loop, boolean operand) {
+    if (loop == null) return;
+    switch (expr) {
+      case Expr.Assign e -> mark(e.value, loop, false);
+      case Expr.Binary e -> {
+        if (isInvariant(e, loop)) {
+          e.invariant = ++loop.invariants;
+          hoisted++;
+          return;
+        }
+        // Equality would tell two bound methods apart.
+        boolean numeric = e.operator.type != TokenType.EQUAL_EQUAL
+            && e.operator.type != TokenType.BANG_EQUAL;
+        mark(e.left, loop, numeric);
+        mark(e.right, loop, numeric);
+      }
+      case Expr.Call e -> {
+        mark(e.callee, loop, false);
+        for (Expr argument : e.arguments) {
+          mark(argument, loop, false);
+        }
+      }
+      case Expr.Get e -> {
+        if (operand && isInvariant(e, loop)) {
+          e.invariant = ++loop.invariants;
+          hoisted++;
+          return;
+        }
+        mark(e.object, loop, false);
+      }
+      case Expr.Grouping e -> mark(e.expression, loop, operand);
+      case Expr.Literal e -> {
+      }
+      case Expr.Logical e -> {
+        mark(e.left, loop, false);
+        mark(e.right, loop, false);
+      }
+      case Expr.Set e -> {
+        mark(e.object, loop, false);
+        mark(e.value, loop, false);
+      }
+      case Expr.Super e -> {
+      }
+      case Expr.This e -> {
+      }
+      case Expr.Unary e -> mark(e.right, loop, e.operator.type == TokenType.MINUS);
+      case Expr.Variable e -> {
+      }
+    }
+  }
+
+  // Whether expr has the same value every time loop evaluates it.
+  private boolean isInvariant(Expr expr, Loop loop) {
+    return switch (expr) {
+      case Expr.Binary e -> isInvariant(e.left, loop) && isInvariant(e.right, loop);
+      case Expr.Get e -> !loop.writesFields && !loop.calls && isInvariant(e.object, loop);
+      case Expr.Grouping e -> isInvariant(e.expression, loop);
+      case Expr.Literal e -> true;
+      case Expr.This e -> true;
+      case Expr.Unary e -> isInvariant(e.right, loop);
+      case Expr.Variable e -> !loop.names.contains(e.name.lexeme)
+          && !(loop.calls && assignedByFunctions.contains(e.name.lexeme));
+      default -> false;
+    };
+  }
+
+  private static void effects(Stmt stmt, Loop loop) {
+    switch (stmt) {
+      case Stmt.Block s -> s.statements.forEach(each -> effects(each, loop));
+      case Stmt.Class s -> {
+        loop.names.add(s.name.lexeme);
+        if (s.superclass != null) effects(s.superclass, loop);
+        s.methods.forEach(method -> effects(method, loop));
+      }
+      case Stmt.Expression s -> effects(s.expression, loop);
+      case Stmt.Function s -> {
+        loop.names.add(s.name.lexeme);
+        s.body.forEach(each -> effects(each, loop));
+      }
+      case Stmt.If s -> {
+        effects(s.condition, loop);
+        effects(s.thenBranch, loop);
+        if (s.elseBranch != null) effects(s.elseBranch, loop);
+      }
+      case Stmt.Print s -> effects(s.expression, loop);
+      case Stmt.Return s -> {
+        if (s.value != null) effects(s.value, loop);
+      }
+      case Stmt.Var s -> {
+        loop.names.add(s.name.lexeme);
+        if (s.initializer != null) effects(s.initializer, loop);
+      }
+      case Stmt.While s -> {
+        effects(s.condition, loop);
+        effects(s.body, loop);
+      }
+    }
+  }
+
+  private static void effects(Expr expr, Loop loop) {
+    switch (expr) {
+      case Expr.Assign e -> {
+        loop.names.add(e.name.lexeme);
+        effects(e.value, loop);
+      }
+      case Expr.Binary e -> {
+        effects(e.left, loop);
+        effects(e.right, loop);
+      }
+      case Expr.Call e -> {
+        loop.calls = true;
+        effects(e.callee, loop);
+        e.arguments.forEach(argument -> effects(argument, loop));
+      }
+      case Expr.Get e -> effects(e.object, loop);
+      case Expr.Grouping e -> effects(e.expression, loop);
+      case Expr.Literal e -> {
+      }
+      case Expr.Logical e -> {
+        effects(e.left, loop);
+        effects(e.right, loop);
+      }
+      case Expr.Set e -> {
+        loop.writesFields = true;
+        effects(e.object, loop);
+        effects(e.value, loop);
+      }
+      case Expr.Super e -> {
+      }
+      case Expr.This e -> {
+      }
+      case Expr.Unary e -> effects(e.right, loop);
+      case Expr.Variable e -> {
+      }
+    }
+  }
+}
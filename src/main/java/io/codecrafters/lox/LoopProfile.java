@@ -0,0 +1,30 @@
+package io.codecrafters.lox;
+
+/**
+ * Back-edge counter for a single while loop run by the tree-walker. Once the
+ * loop is compiled, the interpreter hands the running loop over to the VM at
+ * its next back-edge; everything the loop needs is already in the current
+ * Environment chain.
+ */
+class LoopProfile extends TieredCode {
+  final Stmt.While loop;
+
+  LoopProfile(Stmt.While loop) {
+    this.loop = loop;
+  }
+
+  @Override
+  String describe() {
+    return "loop at line " + loop.keyword.line;
+  }
+
+  @Override
+  String counters() {
+    return backEdges + " back-edges";
+  }
+
+  @Override
+  Chunk compile(Interpreter interpreter) {
+    return BytecodeCompiler.compileLoop(interpreter, this);
+  }
+}
@@ -39,7 +39,7 @@ class LoxClass implements LoxCallable {
     LoxInstance instance = new LoxInstance(this);
     LoxFunction initializer = findMethod("init");
     if (initializer != null) {
-      initializer.bind(instance).call(interpreter, arguments);
+      initializer.callOn(interpreter, instance, arguments);
     }
     return instance;
   }
@@ -9,6 +9,13 @@ public class LoxFunction implements LoxCallable {
     private final List<Stmt> body;
     private final Environment closure;
     private final boolean isInitializer;
+    private final LoxFunction original;
+    private int splits = 0;
+    private FunctionProfile profile = null;
+    private Memo memo = null;
+
+    // Caps how many per-call-site copies one function can accumulate.
+    private static final int MAX_SPLITS = 8;
 
     public LoxFunction(String name, List<Token> params, List<Stmt> body, Environment closure, boolean isInitializer) {
         this.name = name;
@@ -16,6 +23,20 @@ public class LoxFunction implements LoxCallable {
         this.body = body;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.original = this;
+    }
+
+    private LoxFunction(String name, List<Token> params, List<Stmt> body, Environment closure,
+                        boolean isInitializer, LoxFunction original, FunctionProfile profile,
+                        Memo memo) {
+        this.name = name;
+        this.params = params;
+        this.body = body;
+        this.closure = closure;
+        this.isInitializer = isInitializer;
+        this.original = original;
+        this.profile = profile;
+        this.memo = memo;
     }
 
     @Override
@@ -25,17 +46,50 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        Object key = memo == null ? Memo.UNCACHEABLE : Memo.key(arguments);
+        if (key == Memo.UNCACHEABLE) return invoke(interpreter, closure, arguments);
+
+        Object result = memo.get(key);
+        if (result == Memo.MISSING) {
+            result = invoke(interpreter, closure, arguments);
+            memo.put(key, result);
+        }
+        return result;
+    }
+
+    // Calls the method with "this" bound to instance, without allocating the
+    // intermediate bound LoxFunction that bind() would create.
+    Object callOn(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        Environment scope = new Environment(closure);
+        scope.define("this", instance);
+        return invoke(interpreter, scope, arguments);
+    }
+
+    private Object invoke(Interpreter interpreter, Environment scope, List<Object> arguments) {
+        if (profile == null) {
+            profile = interpreter.functionProfile(name, params, body, isInitializer);
+        }
+
+        Chunk compiled = profile.compiled;
+        if (compiled != null) {
+            return VM.run(interpreter, compiled, scope, arguments);
+        }
+        interpreter.tiering.recordInvocation(interpreter, profile);
+
+        Environment environment = new Environment(scope);
         for (int i = 0; i < params.size(); i++) {
             environment.define(params.get(i).lexeme, arguments.get(i));
         }
+        FunctionProfile caller = interpreter.enterFunction(profile);
         try {
             interpreter.executeBlock(body, environment);
         } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
+            if (isInitializer) return scope.getAt(0, "this");
             return returnValue.value;
+        } finally {
+            interpreter.exitFunction(caller);
         }
-        if (isInitializer) return closure.getAt(0, "this");
+        if (isInitializer) return scope.getAt(0, "this");
         return null;
     }
 
@@ -44,9 +98,46 @@ public class LoxFunction implements LoxCallable {
         return "<fn " + name + ">";
     }
 
+    // The chunk a call runs, or null while it runs in the tree-walker.
+    Chunk compiled() {
+        return profile == null ? null : profile.compiled;
+    }
+
+    // Every closure, bound copy and split of one declaration shares the
+    // original's body list, so it identifies the code being called.
+    List<Stmt> declaration() {
+        return original.body;
+    }
+
+    Environment closure() {
+        return closure;
+    }
+
+    // Caches the results of calls, for a function Purity proved pure.
+    void memoize(Memo memo) {
+        this.memo = memo;
+    }
+
+    boolean isMemoized() {
+        return memo != null;
+    }
+
     LoxFunction bind(LoxInstance instance) {
     Environment environment = new Environment(closure);
     environment.define("this", instance);
-    return new LoxFunction(name, params, body, environment, isInitializer);
+    return new LoxFunction(name, params, body, environment, isInitializer, original, profile, memo);
   }
+
+    // Returns a copy of this function with its own copy of the body, or null
+    // if no node in the body has gone polymorphic or the original function
+    // has already been split too often.
+    LoxFunction split(Interpreter interpreter) {
+        if (original.splits >= MAX_SPLITS || !interpreter.isPolymorphic(body)) {
+            return null;
+        }
+
+        original.splits++;
+        List<Stmt> copy = new AstCloner(interpreter).cloneBody(body);
+        return new LoxFunction(name, params, copy, closure, isInitializer, original, null, memo);
+    }
 }
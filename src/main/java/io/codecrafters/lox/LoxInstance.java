@@ -4,7 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 class LoxInstance {
-  private LoxClass klass;
+  final LoxClass klass;
   private final Map<String, Object> fields = new HashMap<>();
 
   LoxInstance(LoxClass klass) {
@@ -28,6 +28,15 @@ class LoxInstance {
         "Undefined property '" + name.lexeme + "'.");
   }
 
+  // The field's value, or null if there is no such field or it holds nil.
+  Object field(Token name) {
+    return fields.get(name.lexeme);
+  }
+
+  boolean hasField(Token name) {
+    return fields.containsKey(name.lexeme);
+  }
+
   void set(Token name, Object value) {
     fields.put(name.lexeme, value);
   }
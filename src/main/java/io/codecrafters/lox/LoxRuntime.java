@@ -0,0 +1,348 @@
+package io.codecrafters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The values and operations that programs compiled by {@link JarCompiler}
+ * run on, and that {@link HandleCompiler} builds its method handles from. It is copied into every compiled JAR together with Token,
+ * TokenType and RuntimeError, so it must not depend on the interpreter:
+ * its functions, classes and instances are its own, and so are its copies
+ * of the interpreter's rules for truthiness, equality and printing. Error
+ * messages are the interpreter's, word for word, so a compiled program
+ * fails the same way the interpreted one does.
+ */
+final class LoxRuntime {
+  private LoxRuntime() {}
+
+  private static final Map<String, Object> globals = new HashMap<>();
+
+  abstract static class Callable {
+    abstract int arity();
+
+    abstract Object call(Object[] arguments);
+  }
+
+  /** A compiled function or method; {@code self} is "this" for methods. */
+  abstract static class Function extends Callable {
+    final String name;
+    private final int arity;
+
+    Function(String name, int arity) {
+      this.name = name;
+      this.arity = arity;
+    }
+
+    abstract Object invoke(Instance self, Object[] arguments);
+
+    BoundMethod bind(Instance self) {
+      return new BoundMethod(this, self);
+    }
+
+    @Override
+    int arity() {
+      return arity;
+    }
+
+    @Override
+    Object call(Object[] arguments) {
+      return invoke(null, arguments);
+    }
+
+    @Override
+    public String toString() {
+      return "<fn " + name + ">";
+    }
+  }
+
+  static final class BoundMethod extends Callable {
+    private final Function method;
+    private final Instance self;
+
+    BoundMethod(Function method, Instance self) {
+      this.method = method;
+      this.self = self;
+    }
+
+    @Override
+    int arity() {
+      return method.arity();
+    }
+
+    @Override
+    Object call(Object[] arguments) {
+      return method.invoke(self, arguments);
+    }
+
+    @Override
+    public String toString() {
+      return method.toString();
+    }
+  }
+
+  static final class Klass extends Callable {
+    final String name;
+    private final Klass superclass;
+    private final Map<String, Function> methods = new HashMap<>();
+
+    // A later method with the same name replaces an earlier one, as it
+    // does in the interpreter.
+    Klass(String name, Klass superclass, Function... methods) {
+      this.name = name;
+      this.superclass = superclass;
+      for (Function method : methods) {
+        this.methods.put(method.name, method);
+      }
+    }
+
+    Function findMethod(String name) {
+      Function method = methods.get(name);
+      if (method == null && superclass != null) {
+        return superclass.findMethod(name);
+      }
+      return method;
+    }
+
+    @Override
+    int arity() {
+      Function initializer = findMethod("init");
+      return initializer == null ? 0 : initializer.arity();
+    }
+
+    @Override
+    Object call(Object[] arguments) {
+      Instance instance = new Instance(this);
+      Function initializer = findMethod("init");
+      if (initializer != null) {
+        initializer.invoke(instance, arguments);
+      }
+      return instance;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  static final class Instance {
+    private final Klass klass;
+    private final Map<String, Object> fields = new HashMap<>();
+
+    Instance(Klass klass) {
+      this.klass = klass;
+    }
+
+    @Override
+    public String toString() {
+      return klass.name + " instance";
+    }
+  }
+
+  // Runs a compiled program the way Main runs an interpreted one.
+  static void main(Runnable program) {
+    reset();
+    try {
+      program.run();
+    } catch (RuntimeError error) {
+      System.err.println(error.getMessage());
+      System.err.println("[line " + error.token.line + "]");
+      System.exit(70);
+    }
+  }
+
+  // Leaves only the native functions defined, for a program about to start.
+  static void reset() {
+    globals.clear();
+    define("clock", new Callable() {
+      @Override
+      int arity() {
+        return 0;
+      }
+
+      @Override
+      Object call(Object[] arguments) {
+        return (double) System.currentTimeMillis() / 1000.0;
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  private static RuntimeError error(int line, String message) {
+    return new RuntimeError(new Token(TokenType.IDENTIFIER, "", null, line), message);
+  }
+
+  static void define(String name, Object value) {
+    globals.put(name, value);
+  }
+
+  static Object global(String name, int line) {
+    Object value = globals.get(name);
+    if (value == null && !globals.containsKey(name)) {
+      throw error(line, "Undefined variable '" + name + "'.");
+    }
+    return value;
+  }
+
+  static Object assign(String name, Object value, int line) {
+    if (!globals.containsKey(name)) {
+      throw error(line, "Undefined variable '" + name + "'.");
+    }
+    globals.put(name, value);
+    return value;
+  }
+
+  static void print(Object value) {
+    System.out.println(stringify(value));
+  }
+
+  // Evaluates an expression statement whose value is not used.
+  static void discard(Object value) {
+  }
+
+  static String stringify(Object value) {
+    if (value == null) {
+      return "nil";
+    }
+
+    if (value instanceof Double) {
+      String text = value.toString();
+      if (text.endsWith(".0")) {
+        text = text.substring(0, text.length() - 2);
+      }
+      return text;
+    }
+
+    return value.toString();
+  }
+
+  static boolean isTruthy(Object value) {
+    if (value == null) return false;
+    if (value instanceof Boolean) return (boolean) value;
+    return true;
+  }
+
+  static boolean isEqual(Object a, Object b) {
+    if (a == null) return b == null;
+    return a.equals(b);
+  }
+
+  static double negate(Object operand, int line) {
+    if (operand instanceof Double) return -(double) operand;
+    throw error(line, "Operand must be a number.");
+  }
+
+  static Object add(Object left, Object right, int line) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    }
+    if (left instanceof String && right instanceof String) {
+      return (String) left + (String) right;
+    }
+    throw error(line, "Operands must be two numbers or two strings.");
+  }
+
+  static double subtract(Object left, Object right, int line) {
+    checkNumbers(left, right, line);
+    return (double) left - (double) right;
+  }
+
+  static double multiply(Object left, Object right, int line) {
+    checkNumbers(left, right, line);
+    return (double) left * (double) right;
+  }
+
+  static double divide(Object left, Object right, int line) {
+    checkNumbers(left, right, line);
+    return (double) left / (double) right;
+  }
+
+  static boolean greater(Object left, Object right, int line) {
+    checkNumbers(left, right, line);
+    return (double) left > (double) right;
+  }
+
+  static boolean greaterEqual(Object left, Object right, int line) {
+    checkNumbers(left, right, line);
+    return (double) left >= (double) right;
+  }
+
+  static boolean less(Object left, Object right, int line) {
+    checkNumbers(left, right, line);
+    return (double) left < (double) right;
+  }
+
+  static boolean lessEqual(Object left, Object right, int line) {
+    checkNumbers(left, right, line);
+    return (double) left <= (double) right;
+  }
+
+  private static void checkNumbers(Object left, Object right, int line) {
+    if (left instanceof Double && right instanceof Double) return;
+    throw error(line, "Operands must be numbers.");
+  }
+
+  static Object call(Object callee, int line, Object[] arguments) {
+    if (!(callee instanceof Callable)) {
+      throw error(line, "Can only call functions and classes.");
+    }
+
+    Callable function = (Callable) callee;
+    if (arguments.length != function.arity()) {
+      throw error(line, "Expected " + function.arity() + " arguments but got "
+          + arguments.length + ".");
+    }
+    return function.call(arguments);
+  }
+
+  static Object get(Object object, String name, int line) {
+    if (!(object instanceof Instance)) {
+      throw error(line, "Only instances have properties.");
+    }
+
+    Instance instance = (Instance) object;
+    Object value = instance.fields.get(name);
+    if (value != null || instance.fields.containsKey(name)) {
+      return value;
+    }
+
+    Function method = instance.klass.findMethod(name);
+    if (method == null) {
+      throw error(line, "Undefined property '" + name + "'.");
+    }
+    return method.bind(instance);
+  }
+
+  // Checks the target of a property assignment before its value is
+  // evaluated, as the interpreter does.
+  static Instance fieldsOf(Object object, int line) {
+    if (!(object instanceof Instance)) {
+      throw error(line, "Only instances have fields.");
+    }
+    return (Instance) object;
+  }
+
+  static Object set(Instance instance, String name, Object value) {
+    instance.fields.put(name, value);
+    return value;
+  }
+
+  static Klass superclass(Object value, int line) {
+    if (!(value instanceof Klass)) {
+      throw error(line, "Superclass must be a class.");
+    }
+    return (Klass) value;
+  }
+
+  static BoundMethod superMethod(Klass superclass, Instance self, String name, int line) {
+    Function method = superclass.findMethod(name);
+    if (method == null) {
+      throw error(line, "Undefined property '" + name + "'.");
+    }
+    return method.bind(self);
+  }
+}
@@ -1,15 +1,24 @@
 package io.codecrafters.lox;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 public class Main {
 
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
+    // The commands that scan standard input as it arrives; see stream.
+    private static final Set<String> STREAMED = Set.of("tokenize", "parse", "evaluate");
+
     public static void main(String[] args) {
         if (args.length < 2) {
             System.err.println("Usage: ./your_program.sh <command> <filename>");
@@ -17,29 +26,36 @@ public class Main {
         }
 
         String command = args[0];
+        // "-" is standard input.
         String filename = args[1];
 
-        String fileContents = "";
-        try {
-            fileContents = Files.readString(Path.of(filename));
-        } catch (IOException e) {
-            System.err.println("Error reading file: " + e.getMessage());
-            System.exit(1);
-        }
-
-        switch (command) {
-            case "tokenize" ->
-                tokenize(fileContents);
-            case "parse" ->
-                parse(fileContents);
-            case "evaluate" ->
-                evaluate(fileContents);
-            case "run" ->
-                run(fileContents);
-            default -> {
-                System.err.println("Unknown command: " + command);
+        if (filename.equals("-") && STREAMED.contains(command)) {
+            stream(command);
+        } else {
+            CharSequence fileContents = "";
+            try {
+                fileContents = filename.equals("-") ? readStandardInput() : read(Path.of(filename));
+            } catch (IOException e) {
+                System.err.println("Error reading file: " + e.getMessage());
                 System.exit(1);
             }
+
+            switch (command) {
+                case "tokenize" ->
+                    tokenize(fileContents);
+                case "parse" ->
+                    parse(fileContents);
+                case "evaluate" ->
+                    evaluate(fileContents);
+                case "run" ->
+                    run(fileContents);
+                case "compile" ->
+                    compile(fileContents, args.length > 2 ? Path.of(args[2]) : jarFor(filename));
+                default -> {
+                    System.err.println("Unknown command: " + command);
+                    System.exit(1);
+                }
+            }
         }
 
         if (hadRuntimeError) {
@@ -49,18 +65,60 @@ public class Main {
         }
     }
 
-    public static void tokenize(String source) {
+    // Files of at least -Dlox.mmap.threshold bytes are mapped rather than
+    // decoded; see MappedSource.
+    static CharSequence read(Path path) throws IOException {
+        long threshold = Long.getLong("lox.mmap.threshold", MappedSource.DEFAULT_THRESHOLD);
+        if (Files.size(path) >= threshold) {
+            return MappedSource.map(path);
+        }
+        return Files.readString(path);
+    }
+
+    // Refused unless it is UTF-8, as Files.readString refuses a file.
+    private static String readStandardInput() throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(System.in.readAllBytes());
+        return StandardCharsets.UTF_8.newDecoder().decode(bytes).toString();
+    }
+
+    // Scans standard input a chunk at a time rather than reading it all
+    // first, so tokenize holds no more of it than its longest token however
+    // much is piped in. Output comes as the input does, with each error
+    // among the tokens before and after it.
+    private static void stream(String command) {
+        InputStreamReader in = new InputStreamReader(System.in, StandardCharsets.UTF_8.newDecoder());
+        Iterator<Token> tokens = new Scanner(in).tokens();
+        try {
+            switch (command) {
+                case "tokenize" ->
+                    tokenize(tokens);
+                case "parse" ->
+                    parse(tokens);
+                case "evaluate" ->
+                    evaluate(tokens);
+            }
+        } catch (UncheckedIOException e) {
+            System.err.println("Error reading file: " + e.getCause().getMessage());
+            System.exit(1);
+        }
+    }
+
+    public static void tokenize(CharSequence source) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        TokenBuffer tokens = scanner.scanTokens();
 
         for (Token token : tokens) {
             System.out.println(token);
         }
     }
 
-    public static void run(String source) {
+    static void tokenize(Iterator<Token> tokens) {
+        tokens.forEachRemaining(System.out::println);
+    }
+
+    public static void run(CharSequence source) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        TokenBuffer tokens = scanner.scanTokens();
 
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
@@ -70,6 +128,7 @@ public class Main {
         }
 
         Interpreter interpreter = new Interpreter();
+        TypeInference.Coverage types = null;
         try {
             Resolver resolver = new Resolver(interpreter);
             resolver.resolve(statements);
@@ -78,21 +137,117 @@ public class Main {
                 return;
             }
 
-            interpreter.interpret(statements);
+            String engine = System.getProperty("lox.engine");
+            if ("handles".equals(engine)) {
+                HandleCompiler.compile(statements, interpreter).run();
+            } else if ("registers".equals(engine)) {
+                RegisterCompiler.compile(statements, interpreter).run();
+            } else if ("nanbox".equals(engine)) {
+                NanBoxVM.run(RegisterCompiler.compile(statements, interpreter));
+            } else if (Boolean.getBoolean("lox.lazy")) {
+                // These passes read every function body, which costs more
+                // at startup than they save a script that calls few.
+                interpret(source, statements, interpreter);
+            } else {
+                if (Boolean.getBoolean("lox.memoize")) {
+                    int size = Integer.getInteger("lox.memoize.size", Memo.DEFAULT_SIZE);
+                    for (Stmt.Function function : Purity.pureFunctions(statements, interpreter)) {
+                        interpreter.memos.put(function, new Memo(function.name.lexeme, size));
+                    }
+                }
+                Inliner.inline(statements, interpreter);
+                LoopInvariants.hoist(statements);
+                CommonSubexpressions.eliminate(statements, interpreter);
+                types = TypeInference.infer(statements, interpreter);
+                interpret(source, statements, interpreter);
+            }
         } catch (RuntimeError error) {
             System.err.println(error.getMessage());
             System.err.println("[line " + error.token.line + "]");
             hadRuntimeError = true;
         }
+
+        if (Boolean.getBoolean("lox.tiering.stats")) {
+            System.err.println(interpreter.traceStats.report());
+        }
+        if (types != null && Boolean.getBoolean("lox.types.stats")) {
+            System.err.println(types.report());
+        }
+        if (Boolean.getBoolean("lox.memoize.stats")) {
+            for (Memo memo : interpreter.memos.values()) {
+                System.err.println(memo.report());
+            }
+        }
     }
 
-    public static void parse(String source) {
+    // Writes the program as a runnable JAR instead of running it. Syntax and
+    // resolution errors are reported as run reports them and no JAR is made.
+    public static void compile(CharSequence source, Path jar) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        TokenBuffer tokens = scanner.scanTokens();
 
         Parser parser = new Parser(tokens);
-        Stmt statement = parser.parseExpressionStatement();
+        List<Stmt> statements = parser.parse();
 
+        if (hadError) {
+            return;
+        }
+
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        Resolver resolver = new Resolver(interpreter);
+        resolver.resolve(statements);
+
+        if (hadError) {
+            return;
+        }
+
+        try {
+            JarCompiler.compile(statements, interpreter, jar);
+        } catch (IOException e) {
+            System.err.println("Error writing " + jar + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static Path jarFor(String filename) {
+        String base = filename.endsWith(".lox")
+            ? filename.substring(0, filename.length() - ".lox".length()) : filename;
+        return Path.of(base + ".jar");
+    }
+
+    private static void interpret(CharSequence source, List<Stmt> statements, Interpreter interpreter) {
+        String profile = System.getProperty("lox.profile");
+        ProfileStore store = profile == null
+            ? null : ProfileStore.open(Path.of(profile), source, statements);
+        if (store != null) {
+            store.seed(interpreter);
+        }
+        try {
+            interpreter.interpret(statements);
+        } finally {
+            if (store != null) {
+                store.save(interpreter);
+            }
+        }
+    }
+
+    public static void parse(CharSequence source) {
+        Scanner scanner = new Scanner(source);
+        TokenBuffer tokens = scanner.scanTokens();
+
+        Parser parser = new Parser(tokens);
+        printExpression(parser.parseExpressionStatement());
+    }
+
+    // Scans all the tokens for their errors, as a whole file's scan would,
+    // before printing the expression at their start.
+    static void parse(Iterator<Token> tokens) {
+        Stmt statement = new Parser(tokens).parseExpressionStatement();
+        tokens.forEachRemaining(token -> { });
+        printExpression(statement);
+    }
+
+    private static void printExpression(Stmt statement) {
         if (hadError || statement == null) {
             return;
         }
@@ -102,13 +257,21 @@ public class Main {
         System.out.println(printer.print(exprStmt.expression));
     }
 
-    public static void evaluate(String source) {
+    public static void evaluate(CharSequence source) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        TokenBuffer tokens = scanner.scanTokens();
 
         Parser parser = new Parser(tokens);
-        Stmt statement = parser.parseExpressionStatement();
+        evaluateExpression(parser.parseExpressionStatement());
+    }
+
+    static void evaluate(Iterator<Token> tokens) {
+        Stmt statement = new Parser(tokens).parseExpressionStatement();
+        tokens.forEachRemaining(token -> { });
+        evaluateExpression(statement);
+    }
 
+    private static void evaluateExpression(Stmt statement) {
         if (hadError || statement == null) {
             return;
         }
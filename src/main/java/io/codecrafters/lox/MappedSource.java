@@ -0,0 +1,133 @@
+package io.codecrafters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * A source file mapped into memory instead of decoded into a String, which
+ * Main does for files of at least {@code -Dlox.mmap.threshold} bytes. The
+ * String took two bytes a character on the heap, on top of the buffer it
+ * was decoded from.
+ *
+ * <p>Its chars are the file's bytes. Everything Lox gives meaning to is
+ * ASCII, which UTF-8 keeps as single bytes, so the Scanner reads it as it
+ * reads a String and only decodes characters where others can appear: in
+ * identifiers and in the errors for characters Lox doesn't know. Lexemes
+ * and string literals are decoded when the Parser makes Tokens of them.
+ */
+final class MappedSource implements CharSequence {
+  static final long DEFAULT_THRESHOLD = 8 << 20;
+
+  private final ByteBuffer bytes;
+
+  private MappedSource(ByteBuffer bytes) {
+    this.bytes = bytes;
+  }
+
+  static MappedSource map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(path + " is too large");
+      }
+      MappedSource source =
+          new MappedSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      if (!source.isValid()) {
+        // Malformed UTF-8, which Files.readString refuses; it reports it
+        // here too, so the error reads as it does for a smaller file.
+        Files.readString(path);
+      }
+      return source;
+    }
+  }
+
+  // Whether the bytes are UTF-8 as Java decodes it: no overlong forms,
+  // surrogates or code points past U+10FFFF. ASCII is skipped eight bytes
+  // at a time, as a decoder working through a buffer can't.
+  private boolean isValid() {
+    int length = bytes.limit();
+    int i = 0;
+    while (i < length) {
+      if (i + 8 <= length && (bytes.getLong(i) & 0x8080808080808080L) == 0) {
+        i += 8;
+        continue;
+      }
+      int lead = bytes.get(i) & 0xFF;
+      if (lead < 0x80) {
+        i++;
+        continue;
+      }
+      int width = lead < 0xC2 ? 0 : lead < 0xE0 ? 2 : lead < 0xF0 ? 3 : lead < 0xF5 ? 4 : 0;
+      if (width == 0 || i + width > length) return false;
+      // The second byte's range is narrower after the leads that could
+      // start an overlong form, a surrogate or too large a code point.
+      int second = bytes.get(i + 1) & 0xFF;
+      int low = lead == 0xE0 ? 0xA0 : lead == 0xF0 ? 0x90 : 0x80;
+      int high = lead == 0xED ? 0x9F : lead == 0xF4 ? 0x8F : 0xBF;
+      if (second < low || second > high) return false;
+      for (int k = 2; k < width; k++) {
+        if ((bytes.get(i + k) & 0xC0) != 0x80) return false;
+      }
+      i += width;
+    }
+    return true;
+  }
+
+  @Override
+  public int length() {
+    return bytes.limit();
+  }
+
+  @Override
+  public char charAt(int index) {
+    return (char) (bytes.get(index) & 0xFF);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return new String(copy(start, end), StandardCharsets.ISO_8859_1);
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, length()).toString();
+  }
+
+  // The text from start to end, which must not split a character.
+  String decode(int start, int end) {
+    return new String(copy(start, end), StandardCharsets.UTF_8);
+  }
+
+  // The character whose first byte is at index.
+  int codePointAt(int index) {
+    int lead = bytes.get(index) & 0xFF;
+    if (lead < 0x80) return lead;
+    int width = width(index);
+    int codePoint = lead & (0xFF >> (width + 1));
+    for (int i = 1; i < width; i++) {
+      codePoint = codePoint << 6 | bytes.get(index + i) & 0x3F;
+    }
+    return codePoint;
+  }
+
+  // How many bytes the character whose first byte is at index takes.
+  int width(int index) {
+    int lead = bytes.get(index) & 0xFF;
+    return lead < 0x80 ? 1 : lead < 0xE0 ? 2 : lead < 0xF0 ? 3 : 4;
+  }
+
+  void hash(MessageDigest digest) {
+    digest.update(bytes.duplicate());
+  }
+
+  private byte[] copy(int start, int end) {
+    byte[] copy = new byte[end - start];
+    bytes.get(start, copy);
+    return copy;
+  }
+}
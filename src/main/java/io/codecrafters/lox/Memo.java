@@ -0,0 +1,73 @@
+package io.codecrafters.lox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of a function {@link Purity} proved pure, when run with
+ * {@code -Dlox.memoize=true}. Results are keyed by the call's arguments,
+ * and only calls whose arguments are all numbers, strings, booleans or nil
+ * are cached. It holds at most {@code -Dlox.memoize.size} results,
+ * evicting the least recently used, and its hit rate is printed at exit
+ * with {@code -Dlox.memoize.stats=true}.
+ */
+final class Memo {
+  static final int DEFAULT_SIZE = 1024;
+
+  // What get() returns for a call not cached, as nil is a result.
+  static final Object MISSING = new Object();
+  // What key() returns for arguments that can't be cached.
+  static final Object UNCACHEABLE = new Object();
+
+  final String name;
+  private final Map<Object, Object> results;
+  long hits = 0;
+  long misses = 0;
+  long evictions = 0;
+
+  Memo(String name, int size) {
+    this.name = name;
+    this.results = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+        if (size() <= size) return false;
+        evictions++;
+        return true;
+      }
+    };
+  }
+
+  // Double.equals tells 0 from -0, which a pure function can, so numbers
+  // are keys as they are.
+  static Object key(List<Object> arguments) {
+    for (Object argument : arguments) {
+      if (argument != null && !(argument instanceof Double)
+          && !(argument instanceof String) && !(argument instanceof Boolean)) {
+        return UNCACHEABLE;
+      }
+    }
+    return arguments.size() == 1 ? arguments.get(0) : Arrays.asList(arguments.toArray());
+  }
+
+  Object get(Object key) {
+    Object result = results.getOrDefault(key, MISSING);
+    if (result == MISSING) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return result;
+  }
+
+  void put(Object key, Object result) {
+    results.put(key, result);
+  }
+
+  String report() {
+    long calls = hits + misses;
+    return String.format("memo %s: %d of %d calls hit (%.1f%%), %d cached, %d evicted", name,
+        hits, calls, calls == 0 ? 0.0 : 100.0 * hits / calls, results.size(), evictions);
+  }
+}
@@ -0,0 +1,370 @@
+package io.codecrafters.lox;
+
+/**
+ * Runs {@link RegisterCode} with every register a {@code long}, so numbers
+ * and booleans never need a box. A number is its own IEEE 754 bits. nil,
+ * true and false are quiet NaNs that no arithmetic produces, and so is the
+ * tag {@link #OBJECT}. A register holding that tag refers to the side table
+ * of references that runs alongside the registers: register {@code x}'s
+ * object is entry {@code x} of the frame's {@code Object[]}.
+ *
+ * <p>Values are boxed only where they leave the registers: into cells,
+ * fields and globals, and as arguments to anything but a closure of this
+ * VM. Printing and equality box too, so their results are
+ * {@link LoxRuntime}'s. Selected for {@code run} with
+ * {@code -Dlox.engine=nanbox}.
+ */
+final class NanBoxVM {
+  private NanBoxVM() {}
+
+  // Bit 50 distinguishes these from the one NaN arithmetic can produce
+  // here, which doubleToLongBits makes 0x7ff8000000000000.
+  private static final long QUIET_NAN = 0x7ffc000000000000L;
+  static final long NIL = QUIET_NAN | 1;
+  static final long FALSE = QUIET_NAN | 2;
+  static final long TRUE = QUIET_NAN | 3;
+  static final long OBJECT = 0x8000000000000000L | QUIET_NAN;
+
+  /** RegisterCode with its constants encoded, and nested code converted. */
+  private static final class Code {
+    final RegisterCode code;
+    final Object[] references;
+    final long[] values;
+
+    Code(RegisterCode code) {
+      this.code = code;
+      this.references = code.constants.clone();
+      this.values = new long[references.length];
+      for (int i = 0; i < references.length; i++) {
+        if (references[i] instanceof RegisterCode nested) {
+          references[i] = new Code(nested);
+        }
+        values[i] = encode(references[i]);
+      }
+    }
+  }
+
+  /** A closure over RegisterCode, called without boxing by this VM. */
+  private static final class Function extends LoxRuntime.Function {
+    final Code code;
+    final Object[][] upvalues;
+
+    Function(Code code, Object[][] upvalues) {
+      super(code.code.name, code.code.arity);
+      this.code = code;
+      this.upvalues = upvalues;
+    }
+
+    @Override
+    Object invoke(LoxRuntime.Instance self, Object[] arguments) {
+      long[] r = new long[frameSize(code)];
+      Object[] o = new Object[r.length];
+      int first = 0;
+      if (code.code.isMethod) {
+        r[0] = OBJECT;
+        o[0] = self;
+        first = 1;
+      }
+      for (int i = 0; i < arguments.length; i++) {
+        store(r, o, first + i, arguments[i]);
+      }
+      return decode(execute(code, upvalues, r, o), o[0]);
+    }
+  }
+
+  static void run(RegisterCompiler.Program program) {
+    LoxRuntime.reset();
+    Code script = new Code(program.script);
+    long[] r = new long[frameSize(script)];
+    execute(script, new Object[0][], r, new Object[r.length]);
+  }
+
+  static boolean isNumber(long value) {
+    return (value & QUIET_NAN) != QUIET_NAN;
+  }
+
+  static long number(double value) {
+    return Double.doubleToLongBits(value);
+  }
+
+  // The encoding of value, or OBJECT for a reference kept on the side.
+  static long encode(Object value) {
+    if (value instanceof Double number) return number(number);
+    if (value == null) return NIL;
+    if (value instanceof Boolean bool) return bool ? TRUE : FALSE;
+    return OBJECT;
+  }
+
+  static Object decode(long value, Object reference) {
+    if (isNumber(value)) return Double.longBitsToDouble(value);
+    if (value == NIL) return null;
+    if (value == TRUE) return Boolean.TRUE;
+    if (value == FALSE) return Boolean.FALSE;
+    return reference;
+  }
+
+  // Registers r and references o of a frame; a returned reference is left
+  // in o[0], so there is always one.
+  private static long execute(Code function, Object[][] upvalues, long[] r, Object[] o) {
+    int[] code = function.code.code;
+    long[] kv = function.values;
+    Object[] ko = function.references;
+    int ip = 0;
+    while (true) {
+      switch (code[ip]) {
+        case RegisterOp.MOVE -> {
+          int dst = code[ip + 1];
+          int x = code[ip + 2];
+          r[dst] = x >= 0 ? r[x] : kv[~x];
+          o[dst] = x >= 0 ? o[x] : ko[~x];
+          ip += 3;
+        }
+        case RegisterOp.GET_CELL -> {
+          store(r, o, code[ip + 1], ((Object[]) o[code[ip + 2]])[0]);
+          ip += 3;
+        }
+        case RegisterOp.SET_CELL -> {
+          ((Object[]) o[code[ip + 1]])[0] = boxed(r, o, kv, ko, code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.NEW_CELL -> {
+          int x = code[ip + 1];
+          o[x] = new Object[] {decode(r[x], o[x])};
+          r[x] = OBJECT;
+          ip += 2;
+        }
+        case RegisterOp.GET_UPVALUE -> {
+          store(r, o, code[ip + 1], upvalues[code[ip + 2]][0]);
+          ip += 3;
+        }
+        case RegisterOp.SET_UPVALUE -> {
+          upvalues[code[ip + 1]][0] = boxed(r, o, kv, ko, code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.GET_GLOBAL -> {
+          store(r, o, code[ip + 1], LoxRuntime.global((String) ko[~code[ip + 2]], code[ip + 3]));
+          ip += 4;
+        }
+        case RegisterOp.SET_GLOBAL -> {
+          LoxRuntime.assign((String) ko[~code[ip + 1]], boxed(r, o, kv, ko, code[ip + 2]),
+              code[ip + 3]);
+          ip += 4;
+        }
+        case RegisterOp.DEFINE_GLOBAL -> {
+          LoxRuntime.define((String) ko[~code[ip + 1]], boxed(r, o, kv, ko, code[ip + 2]));
+          ip += 3;
+        }
+        case RegisterOp.ADD -> {
+          long a = value(r, kv, code[ip + 2]);
+          long b = value(r, kv, code[ip + 3]);
+          if (isNumber(a) && isNumber(b)) {
+            r[code[ip + 1]] = number(Double.longBitsToDouble(a) + Double.longBitsToDouble(b));
+          } else {
+            store(r, o, code[ip + 1], LoxRuntime.add(boxed(r, o, kv, ko, code[ip + 2]),
+                boxed(r, o, kv, ko, code[ip + 3]), code[ip + 4]));
+          }
+          ip += 5;
+        }
+        case RegisterOp.SUBTRACT -> {
+          long a = value(r, kv, code[ip + 2]);
+          long b = value(r, kv, code[ip + 3]);
+          r[code[ip + 1]] = isNumber(a) && isNumber(b)
+              ? number(Double.longBitsToDouble(a) - Double.longBitsToDouble(b))
+              : number(LoxRuntime.subtract(boxed(r, o, kv, ko, code[ip + 2]),
+                  boxed(r, o, kv, ko, code[ip + 3]), code[ip + 4]));
+          ip += 5;
+        }
+        case RegisterOp.MULTIPLY -> {
+          long a = value(r, kv, code[ip + 2]);
+          long b = value(r, kv, code[ip + 3]);
+          r[code[ip + 1]] = isNumber(a) && isNumber(b)
+              ? number(Double.longBitsToDouble(a) * Double.longBitsToDouble(b))
+              : number(LoxRuntime.multiply(boxed(r, o, kv, ko, code[ip + 2]),
+                  boxed(r, o, kv, ko, code[ip + 3]), code[ip + 4]));
+          ip += 5;
+        }
+        case RegisterOp.DIVIDE -> {
+          long a = value(r, kv, code[ip + 2]);
+          long b = value(r, kv, code[ip + 3]);
+          r[code[ip + 1]] = isNumber(a) && isNumber(b)
+              ? number(Double.longBitsToDouble(a) / Double.longBitsToDouble(b))
+              : number(LoxRuntime.divide(boxed(r, o, kv, ko, code[ip + 2]),
+                  boxed(r, o, kv, ko, code[ip + 3]), code[ip + 4]));
+          ip += 5;
+        }
+        case RegisterOp.GREATER, RegisterOp.GREATER_EQUAL, RegisterOp.LESS,
+             RegisterOp.LESS_EQUAL -> {
+          r[code[ip + 1]] = compare(code[ip], r, o, kv, ko, code[ip + 2], code[ip + 3],
+              code[ip + 4]) ? TRUE : FALSE;
+          ip += 5;
+        }
+        case RegisterOp.EQUAL -> {
+          r[code[ip + 1]] = isEqual(r, o, kv, ko, code[ip + 2], code[ip + 3]) ? TRUE : FALSE;
+          ip += 4;
+        }
+        case RegisterOp.NOT_EQUAL -> {
+          r[code[ip + 1]] = isEqual(r, o, kv, ko, code[ip + 2], code[ip + 3]) ? FALSE : TRUE;
+          ip += 4;
+        }
+        case RegisterOp.NEGATE -> {
+          long a = value(r, kv, code[ip + 2]);
+          r[code[ip + 1]] = isNumber(a)
+              ? number(-Double.longBitsToDouble(a))
+              : number(LoxRuntime.negate(boxed(r, o, kv, ko, code[ip + 2]), code[ip + 3]));
+          ip += 4;
+        }
+        case RegisterOp.NOT -> {
+          r[code[ip + 1]] = isTruthy(value(r, kv, code[ip + 2])) ? FALSE : TRUE;
+          ip += 3;
+        }
+        case RegisterOp.JUMP -> ip = code[ip + 1];
+        case RegisterOp.JUMP_IF_FALSE ->
+            ip = isTruthy(value(r, kv, code[ip + 1])) ? ip + 3 : code[ip + 2];
+        case RegisterOp.JUMP_IF_TRUE ->
+            ip = isTruthy(value(r, kv, code[ip + 1])) ? code[ip + 2] : ip + 3;
+        case RegisterOp.JUMP_UNLESS_GREATER, RegisterOp.JUMP_UNLESS_GREATER_EQUAL,
+             RegisterOp.JUMP_UNLESS_LESS, RegisterOp.JUMP_UNLESS_LESS_EQUAL ->
+            ip = compare(code[ip] - RegisterOp.JUMP_UNLESS_GREATER + RegisterOp.GREATER, r, o,
+                kv, ko, code[ip + 1], code[ip + 2], code[ip + 4]) ? ip + 5 : code[ip + 3];
+        case RegisterOp.PRINT -> {
+          LoxRuntime.print(boxed(r, o, kv, ko, code[ip + 1]));
+          ip += 2;
+        }
+        case RegisterOp.CALL -> {
+          call(r, o, code[ip + 1], code[ip + 2], code[ip + 3], code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.GET_PROPERTY -> {
+          store(r, o, code[ip + 1], LoxRuntime.get(boxed(r, o, kv, ko, code[ip + 2]),
+              (String) ko[~code[ip + 3]], code[ip + 4]));
+          ip += 5;
+        }
+        case RegisterOp.CHECK_INSTANCE -> {
+          LoxRuntime.fieldsOf(boxed(r, o, kv, ko, code[ip + 1]), code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.SET_PROPERTY -> {
+          LoxRuntime.set((LoxRuntime.Instance) boxed(r, o, kv, ko, code[ip + 1]),
+              (String) ko[~code[ip + 2]], boxed(r, o, kv, ko, code[ip + 3]));
+          ip += 4;
+        }
+        case RegisterOp.GET_SUPER -> {
+          store(r, o, code[ip + 1], LoxRuntime.superMethod(
+              (LoxRuntime.Klass) boxed(r, o, kv, ko, code[ip + 2]),
+              (LoxRuntime.Instance) boxed(r, o, kv, ko, code[ip + 3]),
+              (String) ko[~code[ip + 4]], code[ip + 5]));
+          ip += 6;
+        }
+        case RegisterOp.CLOSURE -> {
+          r[code[ip + 1]] = OBJECT;
+          o[code[ip + 1]] = closure((Code) ko[~code[ip + 2]], upvalues, o);
+          ip += 3;
+        }
+        case RegisterOp.CHECK_SUPERCLASS -> {
+          LoxRuntime.superclass(boxed(r, o, kv, ko, code[ip + 1]), code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.CLASS -> {
+          LoxRuntime.Function[] methods = new LoxRuntime.Function[code[ip + 5]];
+          for (int i = 0; i < methods.length; i++) {
+            methods[i] = (LoxRuntime.Function) o[code[ip + 4] + i];
+          }
+          r[code[ip + 1]] = OBJECT;
+          o[code[ip + 1]] = new LoxRuntime.Klass((String) ko[~code[ip + 2]],
+              (LoxRuntime.Klass) boxed(r, o, kv, ko, code[ip + 3]), methods);
+          ip += 6;
+        }
+        case RegisterOp.RETURN -> {
+          int x = code[ip + 1];
+          o[0] = x >= 0 ? o[x] : ko[~x];
+          return x >= 0 ? r[x] : kv[~x];
+        }
+        default -> throw new IllegalStateException("Unknown opcode " + code[ip]);
+      }
+    }
+  }
+
+  private static long value(long[] r, long[] kv, int operand) {
+    return operand >= 0 ? r[operand] : kv[~operand];
+  }
+
+  private static Object boxed(long[] r, Object[] o, long[] kv, Object[] ko, int operand) {
+    return operand >= 0 ? decode(r[operand], o[operand]) : decode(kv[~operand], ko[~operand]);
+  }
+
+  private static void store(long[] r, Object[] o, int dst, Object value) {
+    long encoded = encode(value);
+    r[dst] = encoded;
+    if (encoded == OBJECT) {
+      o[dst] = value;
+    }
+  }
+
+  private static boolean isTruthy(long value) {
+    return value != NIL && value != FALSE;
+  }
+
+  // Numbers are equal when their bits are, as Double.equals has it; so are
+  // nil and the booleans.
+  private static boolean isEqual(long[] r, Object[] o, long[] kv, Object[] ko, int x, int y) {
+    long a = value(r, kv, x);
+    long b = value(r, kv, y);
+    if (a != OBJECT && b != OBJECT) return a == b;
+    return LoxRuntime.isEqual(boxed(r, o, kv, ko, x), boxed(r, o, kv, ko, y));
+  }
+
+  // op is GREATER, GREATER_EQUAL, LESS or LESS_EQUAL.
+  private static boolean compare(int op, long[] r, Object[] o, long[] kv, Object[] ko,
+                                 int x, int y, int line) {
+    long a = value(r, kv, x);
+    long b = value(r, kv, y);
+    if (!isNumber(a) || !isNumber(b)) {
+      // Throws, as one of them is not a number.
+      LoxRuntime.less(boxed(r, o, kv, ko, x), boxed(r, o, kv, ko, y), line);
+    }
+    double left = Double.longBitsToDouble(a);
+    double right = Double.longBitsToDouble(b);
+    return switch (op) {
+      case RegisterOp.GREATER -> left > right;
+      case RegisterOp.GREATER_EQUAL -> left >= right;
+      case RegisterOp.LESS -> left < right;
+      default -> left <= right;
+    };
+  }
+
+  // Calls a closure of matching arity directly, with its arguments copied
+  // from the registers after the callee into the bottom of its own.
+  private static void call(long[] r, Object[] o, int dst, int callee, int count, int line) {
+    Object target = r[callee] == OBJECT ? o[callee] : null;
+    if (target instanceof Function function && !function.code.code.isMethod
+        && function.code.code.arity == count) {
+      long[] registers = new long[frameSize(function.code)];
+      Object[] references = new Object[registers.length];
+      System.arraycopy(r, callee + 1, registers, 0, count);
+      System.arraycopy(o, callee + 1, references, 0, count);
+      r[dst] = execute(function.code, function.upvalues, registers, references);
+      o[dst] = references[0];
+      return;
+    }
+
+    Object[] arguments = new Object[count];
+    for (int i = 0; i < count; i++) {
+      arguments[i] = decode(r[callee + 1 + i], o[callee + 1 + i]);
+    }
+    store(r, o, dst, LoxRuntime.call(decode(r[callee], o[callee]), line, arguments));
+  }
+
+  private static Function closure(Code code, Object[][] upvalues, Object[] o) {
+    RegisterCode function = code.code;
+    Object[][] cells = new Object[function.upvalueIndex.length][];
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] = function.upvalueIsLocal[i]
+          ? (Object[]) o[function.upvalueIndex[i]] : upvalues[function.upvalueIndex[i]];
+    }
+    return new Function(code, cells);
+  }
+
+  private static int frameSize(Code code) {
+    return Math.max(1, code.code.registerCount);
+  }
+}
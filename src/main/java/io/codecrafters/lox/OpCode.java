@@ -0,0 +1,201 @@
+package io.codecrafters.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Instruction set of the bytecode tier. Operands follow their opcode inline
+ * in {@link Chunk#code}; the comment on each opcode lists them.
+ */
+final class OpCode {
+  static final int CONSTANT = 0;         // constant
+  static final int NIL = 1;
+  static final int TRUE = 2;
+  static final int FALSE = 3;
+  static final int POP = 4;
+  static final int GET_LOCAL = 5;        // slot
+  static final int SET_LOCAL = 6;        // slot
+  static final int GET_ENV = 7;          // depth, name token
+  static final int SET_ENV = 8;          // depth, name token
+  static final int GET_GLOBAL = 9;       // name token
+  static final int SET_GLOBAL = 10;      // name token
+  static final int GET_PROPERTY = 11;    // Expr.Get node
+  static final int CHECK_INSTANCE = 12;  // name token
+  static final int SET_PROPERTY = 13;    // name token
+  static final int GET_SUPER = 14;       // Expr.Super node, depth
+  static final int EQUAL = 15;
+  static final int NOT_EQUAL = 16;
+  static final int GREATER = 17;         // operator token
+  static final int GREATER_EQUAL = 18;   // operator token
+  static final int LESS = 19;            // operator token
+  static final int LESS_EQUAL = 20;      // operator token
+  static final int ADD = 21;             // operator token
+  static final int SUBTRACT = 22;        // operator token
+  static final int MULTIPLY = 23;        // operator token
+  static final int DIVIDE = 24;          // operator token
+  static final int NOT = 25;
+  static final int NEGATE = 26;          // operator token
+  static final int PRINT = 27;
+  static final int JUMP = 28;            // forward offset
+  static final int JUMP_IF_FALSE = 29;   // forward offset
+  static final int JUMP_IF_TRUE = 30;    // forward offset
+  static final int LOOP = 31;            // backward offset, HotLoop index
+  static final int CALL = 32;            // argument count, Expr.Call node
+  static final int PREPARE_INVOKE = 33;  // Expr.Get node
+  static final int PREPARE_SUPER = 34;   // Expr.Super node, depth
+  static final int INVOKE = 35;          // argument count, Expr.Call node
+  static final int RETURN = 36;
+  static final int THROW_RETURN = 37;
+
+  // Only found in recorded traces; see TraceRecorder.
+  static final int FRAME_GET_ENV = 38;        // frame, depth, name token
+  static final int FRAME_SET_ENV = 39;        // frame, depth, name token
+  static final int FRAME_GET_SUPER = 40;      // frame, Expr.Super node, depth
+  static final int FRAME_PREPARE_SUPER = 41;  // frame, Expr.Super node, depth
+  static final int GUARD_TRUTHY = 42;         // TraceExit
+  static final int GUARD_FALSY = 43;          // TraceExit
+  static final int GUARD_METHOD = 44;         // Expr.Get node, LoxClass, LoxFunction, TraceExit
+  static final int ENTER = 45;                // argument count, mode, declaration, frame,
+                                              // slot base, slot count, TraceExit
+  static final int LEAVE = 46;                // frame, stack base, is initializer
+  static final int TRACE_LOOP = 47;           // Trace
+  static final int GET_FIELD = 48;            // Expr.Get node, TraceExit
+
+  static final int GET_STABLE_GLOBAL = 49;    // name token, GlobalEnvironment.Binding
+
+  // Superinstructions, each running the opcodes in its name in one
+  // dispatch, with their operands in order. Which of them the compilers
+  // use is decided by Superinstructions.
+  static final int SET_LOCAL_POP = 50;                // slot
+  static final int SET_ENV_POP = 51;                  // depth, name token
+  static final int POP_GET_LOCAL = 52;                // slot
+  static final int GET_LOCAL_GET_LOCAL = 53;          // slot, slot
+  static final int GET_LOCAL_CONSTANT = 54;           // slot, constant
+  static final int CONSTANT_ADD = 55;                 // constant, operator token
+  static final int CONSTANT_SUBTRACT = 56;            // constant, operator token
+  static final int GET_LOCAL_ADD = 57;                // slot, operator token
+  static final int GET_LOCAL_MULTIPLY = 58;           // slot, operator token
+  static final int GET_LOCAL_CONSTANT_ADD = 59;       // slot, constant, operator token
+  static final int GET_LOCAL_CONSTANT_SUBTRACT = 60;  // slot, constant, operator token
+  static final int GET_LOCAL_CONSTANT_LESS = 61;      // slot, constant, operator token
+  static final int GET_LOCAL_GET_LOCAL_MULTIPLY = 62; // slot, slot, operator token
+  static final int ADD_SET_LOCAL_POP = 63;            // operator token, slot
+
+  // Number slots, which keep a number in the frame's double[] instead of
+  // boxing it. A "number" operand is a number slot if it is zero or more,
+  // the value on top of the stack, popped, if it is STACK, and otherwise
+  // the constant at index ~operand. Results go to a number slot, except
+  // for comparisons, which push their boolean.
+  static final int GET_NUMBER = 64;              // slot
+  static final int SET_NUMBER = 65;              // slot
+  static final int NUMBER_MOVE = 66;             // slot, number
+  static final int NUMBER_ADD = 67;              // slot, number, number, operator token
+  static final int NUMBER_SUBTRACT = 68;         // slot, number, number, operator token
+  static final int NUMBER_MULTIPLY = 69;         // slot, number, number, operator token
+  static final int NUMBER_DIVIDE = 70;           // slot, number, number, operator token
+  static final int NUMBER_NEGATE = 71;           // slot, number, operator token
+  static final int NUMBER_GREATER = 72;          // number, number, operator token
+  static final int NUMBER_GREATER_EQUAL = 73;    // number, number, operator token
+  static final int NUMBER_LESS = 74;             // number, number, operator token
+  static final int NUMBER_LESS_EQUAL = 75;       // number, number, operator token
+
+  static final int STACK = Integer.MIN_VALUE;
+
+  // ENTER modes: the stack layout CALL or INVOKE would have consumed.
+  static final int ENTER_FUNCTION = 0;  // callee, arguments
+  static final int ENTER_METHOD = 1;    // receiver, method, arguments
+  static final int ENTER_VALUE = 2;     // nil, callee, arguments
+
+  static final String[] NAMES = {
+    "CONSTANT", "NIL", "TRUE", "FALSE", "POP",
+    "GET_LOCAL", "SET_LOCAL", "GET_ENV", "SET_ENV", "GET_GLOBAL", "SET_GLOBAL",
+    "GET_PROPERTY", "CHECK_INSTANCE", "SET_PROPERTY", "GET_SUPER",
+    "EQUAL", "NOT_EQUAL", "GREATER", "GREATER_EQUAL", "LESS", "LESS_EQUAL",
+    "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "NOT", "NEGATE",
+    "PRINT", "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE", "LOOP",
+    "CALL", "PREPARE_INVOKE", "PREPARE_SUPER", "INVOKE", "RETURN",
+    "THROW_RETURN", "FRAME_GET_ENV", "FRAME_SET_ENV", "FRAME_GET_SUPER",
+    "FRAME_PREPARE_SUPER", "GUARD_TRUTHY", "GUARD_FALSY", "GUARD_METHOD", "ENTER",
+    "LEAVE", "TRACE_LOOP", "GET_FIELD", "GET_STABLE_GLOBAL",
+    "SET_LOCAL_POP", "SET_ENV_POP", "POP_GET_LOCAL", "GET_LOCAL_GET_LOCAL",
+    "GET_LOCAL_CONSTANT", "CONSTANT_ADD", "CONSTANT_SUBTRACT", "GET_LOCAL_ADD",
+    "GET_LOCAL_MULTIPLY", "GET_LOCAL_CONSTANT_ADD", "GET_LOCAL_CONSTANT_SUBTRACT",
+    "GET_LOCAL_CONSTANT_LESS", "GET_LOCAL_GET_LOCAL_MULTIPLY", "ADD_SET_LOCAL_POP",
+    "GET_NUMBER", "SET_NUMBER", "NUMBER_MOVE", "NUMBER_ADD", "NUMBER_SUBTRACT",
+    "NUMBER_MULTIPLY", "NUMBER_DIVIDE", "NUMBER_NEGATE", "NUMBER_GREATER",
+    "NUMBER_GREATER_EQUAL", "NUMBER_LESS", "NUMBER_LESS_EQUAL"
+  };
+
+  // The opcodes each superinstruction runs, or null for the others.
+  static final int[][] FUSED = new int[NAMES.length][];
+
+  static {
+    FUSED[SET_LOCAL_POP] = new int[] {SET_LOCAL, POP};
+    FUSED[SET_ENV_POP] = new int[] {SET_ENV, POP};
+    FUSED[POP_GET_LOCAL] = new int[] {POP, GET_LOCAL};
+    FUSED[GET_LOCAL_GET_LOCAL] = new int[] {GET_LOCAL, GET_LOCAL};
+    FUSED[GET_LOCAL_CONSTANT] = new int[] {GET_LOCAL, CONSTANT};
+    FUSED[CONSTANT_ADD] = new int[] {CONSTANT, ADD};
+    FUSED[CONSTANT_SUBTRACT] = new int[] {CONSTANT, SUBTRACT};
+    FUSED[GET_LOCAL_ADD] = new int[] {GET_LOCAL, ADD};
+    FUSED[GET_LOCAL_MULTIPLY] = new int[] {GET_LOCAL, MULTIPLY};
+    FUSED[GET_LOCAL_CONSTANT_ADD] = new int[] {GET_LOCAL, CONSTANT, ADD};
+    FUSED[GET_LOCAL_CONSTANT_SUBTRACT] = new int[] {GET_LOCAL, CONSTANT, SUBTRACT};
+    FUSED[GET_LOCAL_CONSTANT_LESS] = new int[] {GET_LOCAL, CONSTANT, LESS};
+    FUSED[GET_LOCAL_GET_LOCAL_MULTIPLY] = new int[] {GET_LOCAL, GET_LOCAL, MULTIPLY};
+    FUSED[ADD_SET_LOCAL_POP] = new int[] {ADD, SET_LOCAL, POP};
+  }
+
+  // Number of inline operands following each opcode.
+  static final int[] OPERANDS = {
+    1, 0, 0, 0, 0,
+    1, 1, 2, 2, 1, 1,
+    1, 1, 1, 2,
+    0, 0, 1, 1, 1, 1,
+    1, 1, 1, 1, 0, 1,
+    0, 1, 1, 1, 2,
+    2, 1, 2, 2, 0,
+    0, 3, 3, 3,
+    3, 1, 1, 4, 7,
+    3, 1, 2, 2,
+    1, 2, 1, 2,
+    2, 2, 2, 2,
+    2, 3, 3,
+    3, 3, 2,
+    1, 1, 2, 4, 4,
+    4, 4, 3, 3,
+    3, 3, 3
+  };
+
+  // Whether the instruction after op always runs next, which makes op
+  // fusable with it into a superinstruction. Calls stay last, so the trace
+  // recorder sees where a callee returns to.
+  static boolean fallsThrough(int op) {
+    return switch (op) {
+      case JUMP, JUMP_IF_FALSE, JUMP_IF_TRUE, LOOP, CALL, INVOKE, RETURN, THROW_RETURN -> false;
+      default -> op < FRAME_GET_ENV || op >= GET_STABLE_GLOBAL;
+    };
+  }
+
+  // The superinstruction running ops in one dispatch, or -1 if there is none.
+  static int fused(int[] ops) {
+    for (int op = 0; op < NAMES.length; op++) {
+      if (FUSED[op] != null && Arrays.equals(FUSED[op], ops)) return op;
+    }
+    return -1;
+  }
+
+  // A checksum of the opcodes and their operands, which changes whenever
+  // the instruction set does.
+  static String fingerprint() {
+    CRC32 crc = new CRC32();
+    for (int op = 0; op < NAMES.length; op++) {
+      crc.update((NAMES[op] + "/" + OPERANDS[op] + "/" + Arrays.toString(FUSED[op]) + ";")
+          .getBytes(StandardCharsets.UTF_8));
+    }
+    return Long.toHexString(crc.getValue());
+  }
+
+  private OpCode() {}
+}
@@ -0,0 +1,83 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Counts the instructions the VM executes together with the one or two
+ * that follow them in the chunk, as candidates for superinstructions. A
+ * sequence only continues past instructions that always fall through to
+ * the next one, so every sequence counted could be fused; see
+ * {@link OpCode#fallsThrough}. Traces are not counted, as they are built
+ * from chunks already compiled.
+ *
+ * <p>Installed on an Interpreter by {@code SuperinstructionProfiler}, which
+ * turns the counts into {@link Superinstructions}.
+ */
+final class OpcodeProfile {
+  private static final int OPS = OpCode.NAMES.length;
+
+  /** A sequence of opcodes and how many times it ran. */
+  record Sequence(int[] ops, long count) {
+    // Dispatches a superinstruction would save.
+    long saved() {
+      return count * (ops.length - 1);
+    }
+
+    String name() {
+      StringBuilder name = new StringBuilder();
+      for (int op : ops) {
+        if (!name.isEmpty()) name.append(' ');
+        name.append(OpCode.NAMES[op]);
+      }
+      return name.toString();
+    }
+  }
+
+  private final long[] singles = new long[OPS];
+  private final long[] pairs = new long[OPS * OPS];
+  private final long[] triples = new long[OPS * OPS * OPS];
+
+  void count(int[] code, int ip) {
+    int first = code[ip];
+    singles[first]++;
+    if (!OpCode.fallsThrough(first)) return;
+    int next = ip + 1 + OpCode.OPERANDS[first];
+    if (next >= code.length) return;
+
+    int second = code[next];
+    pairs[first * OPS + second]++;
+    if (!OpCode.fallsThrough(second)) return;
+    next += 1 + OpCode.OPERANDS[second];
+    if (next >= code.length) return;
+
+    triples[(first * OPS + second) * OPS + code[next]]++;
+  }
+
+  long total() {
+    long total = 0;
+    for (long count : singles) {
+      total += count;
+    }
+    return total;
+  }
+
+  // Every pair and triple that ran, the most dispatches saved first.
+  List<Sequence> sequences() {
+    List<Sequence> sequences = new ArrayList<>();
+    for (int i = 0; i < pairs.length; i++) {
+      if (pairs[i] > 0) {
+        sequences.add(new Sequence(new int[] {i / OPS, i % OPS}, pairs[i]));
+      }
+    }
+    for (int i = 0; i < triples.length; i++) {
+      if (triples[i] > 0) {
+        sequences.add(new Sequence(new int[] {i / (OPS * OPS), i / OPS % OPS, i % OPS},
+            triples[i]));
+      }
+    }
+    sequences.sort(Comparator.comparingLong(Sequence::saved).reversed());
+    return sequences;
+  }
+}
@@ -1,15 +1,70 @@
 package io.codecrafters.lox;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 class Parser {
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // How tightly each infix operator binds, from loosest to tightest.
+    // Unary operators bind tighter than any binary one, and calls and
+    // property accesses tighter still.
+    private static final int PREC_OR = 1;
+    private static final int PREC_AND = 2;
+    private static final int PREC_EQUALITY = 3;
+    private static final int PREC_COMPARISON = 4;
+    private static final int PREC_TERM = 5;
+    private static final int PREC_FACTOR = 6;
+    private static final int PREC_UNARY = 7;
+    private static final int PREC_CALL = 8;
+
+    // The precedence of each token type as an infix operator, indexed by
+    // ordinal; 0 for the types that aren't one, which stops any expression.
+    private static final int[] INFIX = new int[TokenType.values().length];
+
+    static {
+        INFIX[TokenType.OR.ordinal()] = PREC_OR;
+        INFIX[TokenType.AND.ordinal()] = PREC_AND;
+        INFIX[TokenType.BANG_EQUAL.ordinal()] = PREC_EQUALITY;
+        INFIX[TokenType.EQUAL_EQUAL.ordinal()] = PREC_EQUALITY;
+        INFIX[TokenType.GREATER.ordinal()] = PREC_COMPARISON;
+        INFIX[TokenType.GREATER_EQUAL.ordinal()] = PREC_COMPARISON;
+        INFIX[TokenType.LESS.ordinal()] = PREC_COMPARISON;
+        INFIX[TokenType.LESS_EQUAL.ordinal()] = PREC_COMPARISON;
+        INFIX[TokenType.MINUS.ordinal()] = PREC_TERM;
+        INFIX[TokenType.PLUS.ordinal()] = PREC_TERM;
+        INFIX[TokenType.SLASH.ordinal()] = PREC_FACTOR;
+        INFIX[TokenType.STAR.ordinal()] = PREC_FACTOR;
+        INFIX[TokenType.LEFT_PAREN.ordinal()] = PREC_CALL;
+        INFIX[TokenType.DOT.ordinal()] = PREC_CALL;
+    }
+
+    // Tokens are only made from the buffer for the parts of the tree that
+    // keep one; everything else reads the buffer's types.
+    private final TokenBuffer tokens;
+    private int current;
+    // Where the tokens to parse stop, and the line an error there is on.
+    private int end;
+    private int endLine;
+    // Where the tokens come from when they are parsed as they are scanned,
+    // until its EOF has been read; see pull.
+    private Iterator<Token> stream = null;
 
     public Parser(List<Token> tokens) {
-        this.tokens = tokens;
+        this.tokens = TokenBuffer.of(tokens);
+        this.current = 0;
+        this.end = this.tokens.size() - 1;
+        this.endLine = this.tokens.line(end);
+    }
+
+    // Parses tokens as they are scanned from a Reader, reading each one
+    // only once the one before it has been consumed.
+    Parser(Iterator<Token> tokens) {
+        this.tokens = TokenBuffer.of(List.of());
+        this.current = 0;
+        this.end = Integer.MAX_VALUE;
+        this.stream = tokens;
+        pull();
     }
 
     List<Stmt> parse() {
@@ -25,7 +80,7 @@ class Parser {
             Expr expr = expression();
             // For evaluate command: don't require semicolon
             if (!isAtEnd() && check(TokenType.SEMICOLON)) {
-                consume(TokenType.SEMICOLON, "Expect ';' after expression.");
+                expect(TokenType.SEMICOLON, "Expect ';' after expression.");
             }
             return new Stmt.Expression(expr);
         } catch (ParseError error) {
@@ -50,12 +105,13 @@ class Parser {
             value = expression();
         }
 
-        consume(TokenType.SEMICOLON, "Expect ';' after return value.");
+        expect(TokenType.SEMICOLON, "Expect ';' after return value.");
         return new Stmt.Return(keyword, value);
     }
 
     private Stmt forStatement() {
-        consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
+        Token keyword = previous();
+        expect(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
         if (match(TokenType.SEMICOLON)) {
@@ -70,13 +126,13 @@ class Parser {
         if (!check(TokenType.SEMICOLON)) {
             condition = expression();
         }
-        consume(TokenType.SEMICOLON, "Expect ';' after loop condition.");
+        expect(TokenType.SEMICOLON, "Expect ';' after loop condition.");
 
         Expr increment = null;
         if (!check(TokenType.RIGHT_PAREN)) {
             increment = expression();
         }
-        consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
 
         Stmt body = statement();
 
@@ -92,7 +148,10 @@ class Parser {
         if (condition == null) {
             condition = new Expr.Literal(true);
         }
-        body = new Stmt.While(condition, body);
+        // The variable the initializer declares, if any, lets the
+        // interpreter recognize a counted loop; see CountedLoop.
+        Token counter = initializer instanceof Stmt.Var var ? var.name : null;
+        body = new Stmt.While(keyword, condition, body, counter);
 
         if (initializer != null) {
             body = new Stmt.Block(List.of(initializer, body));
@@ -102,18 +161,19 @@ class Parser {
     }
 
     private Stmt whileStatement() {
-        consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
+        Token keyword = previous();
+        expect(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
-        consume(TokenType.RIGHT_PAREN, "Expect ')' after condition.");
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after condition.");
         Stmt body = statement();
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body, null);
     }
 
     private Stmt ifStatement() {
-        consume(TokenType.LEFT_PAREN, "Expect '(' after 'if'.");
+        expect(TokenType.LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
-        consume(TokenType.RIGHT_PAREN, "Expect ')' after if condition.");
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after if condition.");
 
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
@@ -131,32 +191,31 @@ class Parser {
             statements.add(declaration());
         }
 
-        consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
+        expect(TokenType.RIGHT_BRACE, "Expect '}' after block.");
         return statements;
   }
 
   private Stmt expressionStatement() {
         Expr expr = expression();
-        consume(TokenType.SEMICOLON, "Expect ';' after expression.");
+        expect(TokenType.SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
 
     private Stmt printStatement() {
         Expr value = expression();
-        consume(TokenType.SEMICOLON, "Expect ';' after value.");
+        expect(TokenType.SEMICOLON, "Expect ';' after value.");
         return new Stmt.Print(value);
     }
 
+    // Assignment binds loosest and groups to the right, so it is handled
+    // here rather than in the table: its target is whatever expression
+    // comes before the '='.
     private Expr expression() {
-        return assignment();
-    }
-
-  private Expr assignment() {
-        Expr expr = OR();
+        Expr expr = parsePrecedence(PREC_OR);
 
         if (match(TokenType.EQUAL)) {
             Token equals = previous();
-            Expr value = assignment();
+            Expr value = expression();
 
             if (expr instanceof Expr.Variable) {
                 Token name = ((Expr.Variable) expr).name;
@@ -169,108 +228,80 @@ class Parser {
             }
         }
 
-        return expr;
-  }
-
-    private Expr OR() {
-        Expr expr = AND();
-
-        while (match(TokenType.OR)) {
-            Token operator = previous();
-            Expr right = AND();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
         return expr;
     }
 
-    private Expr AND() {
-        Expr expr = equality();
-
-        while (match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr equality() {
-        Expr expr = comparison();
-
-        while (match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
+    // Parses a prefix expression, then every infix operator after it that
+    // binds at least as tightly as precedence; each operator's right operand
+    // only takes operators binding tighter than itself, which makes them
+    // left-associative.
+    private Expr parsePrecedence(int precedence) {
+        Expr expr = prefix();
 
-    private Expr comparison() {
-        Expr expr = term();
-
-        while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr term() {
-        Expr expr = factor();
-
-        while (match(TokenType.MINUS, TokenType.PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr factor() {
-        Expr expr = unary();
-
-        while (match(TokenType.SLASH, TokenType.STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
+        while (true) {
+            TokenType operator = peekType();
+            int infix = INFIX[operator.ordinal()];
+            if (infix < precedence) {
+                return expr;
+            }
 
-    private Expr unary() {
-        if (match(TokenType.BANG, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+            skip();
+            expr = switch (operator) {
+                case LEFT_PAREN -> finishCall(expr);
+                case DOT -> new Expr.Get(expr, consume(TokenType.IDENTIFIER,
+                    "Expect property name after '.'."));
+                case AND, OR -> new Expr.Logical(expr, previous(), parsePrecedence(infix + 1));
+                default -> new Expr.Binary(expr, previous(), parsePrecedence(infix + 1));
+            };
         }
-
-        return call();
     }
 
-    private Expr call() {
-        Expr expr = primary();
-
-        while (true) {
-            if (match(TokenType.LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER,
-                    "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                break;
+    private Expr prefix() {
+        switch (peekType()) {
+            case BANG, MINUS -> {
+                Token operator = advance();
+                Expr right = parsePrecedence(PREC_UNARY);
+                return new Expr.Unary(operator, right);
+            }
+            case FALSE -> {
+                skip();
+                return new Expr.Literal(false);
+            }
+            case TRUE -> {
+                skip();
+                return new Expr.Literal(true);
+            }
+            case NIL -> {
+                skip();
+                return new Expr.Literal(null);
+            }
+            case NUMBER, STRING -> {
+                skip();
+                return new Expr.Literal(tokens.literal(current - 1));
+            }
+            case SUPER -> {
+                Token keyword = advance();
+                expect(TokenType.DOT, "Expect '.' after 'super'.");
+                Token method = consume(TokenType.IDENTIFIER,
+                    "Expect superclass method name.");
+                return new Expr.Super(keyword, method);
             }
+            case THIS -> {
+                return new Expr.This(advance());
+            }
+            case IDENTIFIER -> {
+                return new Expr.Variable(advance());
+            }
+            case LEFT_PAREN -> {
+                skip();
+                Expr expr = expression();
+                expect(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            }
+            default -> throw error(peek(), "Expect expression.");
         }
-
-        return expr;
     }
+
     private Expr finishCall(Expr callee) {
         List<Expr> arguments = new ArrayList<>();
         if (!check(TokenType.RIGHT_PAREN)) {
@@ -286,50 +317,11 @@ class Parser {
 
         return new Expr.Call(callee, paren, arguments);
     }
-    private Expr primary() {
-        if (match(TokenType.FALSE)) {
-            return new Expr.Literal(false);
-        }
-        if (match(TokenType.TRUE)) {
-            return new Expr.Literal(true);
-        }
-        if (match(TokenType.NIL)) {
-            return new Expr.Literal(null);
-        }
-
-        if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
-
-        if (match(TokenType.SUPER)) {
-            Token keyword = previous();
-            consume(TokenType.DOT, "Expect '.' after 'super'.");
-            Token method = consume(TokenType.IDENTIFIER,
-                "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-        }
-
-        if (match(TokenType.THIS)) {
-            return new Expr.This(previous());
-        }
-
-        if (match(TokenType.IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
-
-        if (match(TokenType.LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-
-        throw error(peek(), "Expect expression.");
-    }
 
     private boolean match(TokenType... types) {
         for (TokenType type : types) {
             if (check(type)) {
-                advance();
+                skip();
                 return true;
             }
         }
@@ -345,6 +337,16 @@ class Parser {
         throw error(peek(), message);
     }
 
+    // Consumes a token the tree doesn't keep.
+    private void expect(TokenType type, String message) {
+        if (check(type)) {
+            skip();
+            return;
+        }
+
+        throw error(peek(), message);
+    }
+
     static ParseError error(Token token, String message) {
         if (token.type == TokenType.EOF) {
             Main.error(token.line, " at end" + ": " + message);
@@ -372,17 +374,17 @@ class Parser {
 
     Expr.Variable superclass = null;
     if (match(TokenType.LESS)) {
-      consume(TokenType.IDENTIFIER, "Expect superclass name.");
+      expect(TokenType.IDENTIFIER, "Expect superclass name.");
       superclass = new Expr.Variable(previous());
     }
-    consume(TokenType.LEFT_BRACE, "Expect '{' before class body.");
+    expect(TokenType.LEFT_BRACE, "Expect '{' before class body.");
 
     List<Stmt.Function> methods = new ArrayList<>();
     while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
         methods.add(function("method"));
     }
 
-    consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
+    expect(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
 
     return new Stmt.Class(name, superclass, methods);
   }
@@ -395,13 +397,13 @@ class Parser {
             initializer = expression();
         }
 
-        consume(TokenType.SEMICOLON, "Expect ';' after variable declaration.");
+        expect(TokenType.SEMICOLON, "Expect ';' after variable declaration.");
         return new Stmt.Var(name, initializer);
     }
 
     private Stmt.Function function(String function) {
         Token name = consume(TokenType.IDENTIFIER, "Expect " + function + " name.");
-        consume(TokenType.LEFT_PAREN, "Expect '(' after " + function + " name.");
+        expect(TokenType.LEFT_PAREN, "Expect '(' after " + function + " name.");
 
         List<Token> params = new ArrayList<>();
         if (!check(TokenType.RIGHT_PAREN)) {
@@ -413,8 +415,8 @@ class Parser {
             } while (match(TokenType.COMMA));
         }
 
-        consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
-        consume(TokenType.LEFT_BRACE, "Expect '{' before " + function + " body.");
+        expect(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
+        expect(TokenType.LEFT_BRACE, "Expect '{' before " + function + " body.");
         List<Stmt> body = block();
 
         return new Stmt.Function(name, params, body);
@@ -431,22 +433,47 @@ class Parser {
         if (isAtEnd()) {
             return false;
         }
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance() {
+    // Moves past the current token without making a Token of it.
+    private void skip() {
         if (!isAtEnd()) {
             current++;
+            pull();
+        }
+    }
+
+    // Reads the current token from the stream, if there is one and the
+    // token hasn't been read.
+    private void pull() {
+        if (stream == null || current < tokens.size()) {
+            return;
+        }
+        Token token = stream.next();
+        tokens.append(token);
+        if (token.type == TokenType.EOF) {
+            end = current;
+            endLine = token.line;
+            stream = null;
         }
+    }
+
+    private Token advance() {
+        skip();
         return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return current >= end;
+    }
+
+    private TokenType peekType() {
+        return isAtEnd() ? TokenType.EOF : tokens.type(current);
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return isAtEnd() ? new Token(TokenType.EOF, "", null, endLine) : tokens.get(current);
     }
 
     private Token previous() {
@@ -454,20 +481,20 @@ class Parser {
     }
 
     private void synchronize() {
-        advance();
+        skip();
 
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) {
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) {
                 return;
             }
 
-            switch (peek().type) {
+            switch (peekType()) {
                 case CLASS, FUN, VAR, FOR, IF, WHILE, PRINT, RETURN -> {
                     return;
                 }
             }
 
-            advance();
+            skip();
         }
     }
 
@@ -0,0 +1,95 @@
+package io.codecrafters.lox;
+
+import java.util.Arrays;
+
+/**
+ * Fuses instructions into superinstructions as a compiler writes them:
+ * each new instruction is merged with the one or two before it when
+ * {@link Superinstructions} enables a superinstruction for the whole
+ * sequence. Only instructions written after the last jump target can be
+ * merged, so no jump lands inside a superinstruction.
+ */
+final class Peephole {
+  private static final boolean[] NONE = new boolean[OpCode.NAMES.length];
+  private static final boolean[] ENABLED = enabled();
+
+  private final boolean[] enabled;
+  private int previous = -1;
+  private int beforePrevious = -1;
+  private int label = 0;
+
+  Peephole(boolean superinstructions) {
+    this.enabled = superinstructions ? ENABLED : NONE;
+  }
+
+  // A set made for another instruction set could name the wrong opcodes,
+  // so it is ignored until it has been regenerated.
+  private static boolean[] enabled() {
+    boolean[] enabled = new boolean[OpCode.NAMES.length];
+    if (Superinstructions.INSTRUCTION_SET.equals(OpCode.fingerprint())) {
+      for (int op : Superinstructions.ENABLED) {
+        enabled[op] = true;
+      }
+    }
+    return enabled;
+  }
+
+  // Marks position, where the next instruction will start, as a jump
+  // target.
+  void label(int position) {
+    label = position;
+  }
+
+  // Called once the instruction at start has been written, up to count.
+  // Returns where the code now ends.
+  int written(int[] code, int start, int count) {
+    if (beforePrevious >= label) {
+      int fused = fusion(code, beforePrevious, start);
+      if (fused >= 0) {
+        previous = beforePrevious;
+        beforePrevious = -1;
+        return rewrite(code, previous, count, fused);
+      }
+    }
+    if (previous >= label) {
+      int fused = fusion(code, previous, start);
+      if (fused >= 0) {
+        return rewrite(code, previous, count, fused);
+      }
+    }
+    beforePrevious = previous;
+    previous = start;
+    return count;
+  }
+
+  // The enabled superinstruction running the instructions starting at
+  // from up to and including the one at last, or -1.
+  private int fusion(int[] code, int from, int last) {
+    int[] ops = new int[3];
+    int length = 0;
+    for (int ip = from; ip <= last; ip += 1 + OpCode.OPERANDS[code[ip]]) {
+      int op = code[ip];
+      if (ip < last && !OpCode.fallsThrough(op)) return -1;
+      int[] parts = OpCode.FUSED[op] == null ? new int[] {op} : OpCode.FUSED[op];
+      if (length + parts.length > ops.length) return -1;
+      System.arraycopy(parts, 0, ops, length, parts.length);
+      length += parts.length;
+    }
+    int fused = length < 2 ? -1 : OpCode.fused(Arrays.copyOf(ops, length));
+    return fused >= 0 && enabled[fused] ? fused : -1;
+  }
+
+  // Replaces the instructions starting at from with fused, followed by all
+  // their operands.
+  private static int rewrite(int[] code, int from, int count, int fused) {
+    int write = from + 1;
+    for (int ip = from; ip < count; ) {
+      int operands = OpCode.OPERANDS[code[ip]];
+      System.arraycopy(code, ip + 1, code, write, operands);
+      write += operands;
+      ip += 1 + operands;
+    }
+    code[from] = fused;
+    return write;
+  }
+}
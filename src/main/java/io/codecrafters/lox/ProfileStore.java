@@ -0,0 +1,258 @@
+package io.codecrafters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Carries what the runtime learned about a program over to its next run,
+ * enabled with {@code -Dlox.profile=<file>}. At exit the file records which
+ * functions and loops were compiled, which property accesses and calls saw
+ * more than one class or callee, and which call sites were given their own
+ * copy of their callee. A later run of the same source starts with those
+ * counters and caches already in that state instead of warming up again.
+ *
+ * <p>Nodes are identified by their position in a walk of the syntax tree,
+ * which only means the same thing for the same source, so the file is keyed
+ * by a hash of the source text. A file for different source, from another
+ * version of this format, or that cannot be read is ignored and replaced at
+ * exit.
+ */
+class ProfileStore {
+  private static final String HEADER = "lox-profile 1";
+
+  /** What to seed into the runtime, by node. */
+  static final class Seeds {
+    final Set<List<Stmt>> hotFunctions = Collections.newSetFromMap(new IdentityHashMap<>());
+    final Set<Stmt.While> hotLoops = Collections.newSetFromMap(new IdentityHashMap<>());
+    final Set<Expr> polymorphic = Collections.newSetFromMap(new IdentityHashMap<>());
+    final Set<Expr> split = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    boolean isEmpty() {
+      return hotFunctions.isEmpty() && hotLoops.isEmpty() && polymorphic.isEmpty()
+          && split.isEmpty();
+    }
+  }
+
+  private final Path file;
+  private final String sourceHash;
+
+  // Function bodies, loops, calls and property accesses in tree order.
+  private final List<Object> nodes = new ArrayList<>();
+
+  private ProfileStore(Path file, String sourceHash) {
+    this.file = file;
+    this.sourceHash = sourceHash;
+  }
+
+  static ProfileStore open(Path file, CharSequence source, List<Stmt> statements) {
+    ProfileStore store = new ProfileStore(file, hash(source));
+    store.number(statements);
+    return store;
+  }
+
+  // Reads the file, if there is one for this source, into the interpreter's
+  // seeds. Anything unexpected in it means it is not ours to trust.
+  void seed(Interpreter interpreter) {
+    List<String> lines;
+    try {
+      if (!Files.exists(file)) return;
+      lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    } catch (IOException | RuntimeException e) {
+      interpreter.tiering.trace("profile: ignoring " + file + " (" + e.getMessage() + ")");
+      return;
+    }
+
+    if (lines.isEmpty() || !lines.get(0).equals(HEADER + " " + sourceHash)) {
+      interpreter.tiering.trace("profile: ignoring " + file + " (recorded for other source)");
+      return;
+    }
+
+    Seeds seeds = new Seeds();
+    for (String line : lines.subList(1, lines.size())) {
+      if (!parse(line, seeds)) {
+        interpreter.tiering.trace("profile: ignoring " + file + " (bad entry '" + line + "')");
+        return;
+      }
+    }
+
+    interpreter.seeds = seeds;
+    interpreter.tiering.trace("profile: seeded " + seeds.hotFunctions.size() + " functions, "
+        + seeds.hotLoops.size() + " loops, " + seeds.polymorphic.size()
+        + " polymorphic sites and " + seeds.split.size() + " split call sites");
+  }
+
+  private boolean parse(String line, Seeds seeds) {
+    String[] parts = line.split(" ");
+    if (parts.length != 2) return false;
+
+    int id;
+    try {
+      id = Integer.parseInt(parts[1]);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+    if (id < 0 || id >= nodes.size()) return false;
+
+    Object node = nodes.get(id);
+    switch (parts[0]) {
+      case "hot-function" -> {
+        if (!(node instanceof List<?>)) return false;
+        @SuppressWarnings("unchecked")
+        List<Stmt> body = (List<Stmt>) node;
+        seeds.hotFunctions.add(body);
+      }
+      case "hot-loop" -> {
+        if (!(node instanceof Stmt.While loop)) return false;
+        seeds.hotLoops.add(loop);
+      }
+      case "polymorphic" -> {
+        if (!(node instanceof Expr expr)) return false;
+        seeds.polymorphic.add(expr);
+      }
+      case "split" -> {
+        if (!(node instanceof Expr.Call call)) return false;
+        seeds.split.add(call);
+      }
+      default -> {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Writes the profile next to the file and moves it into place, so a run
+  // starting meanwhile sees either the old profile or the new one.
+  void save(Interpreter interpreter) {
+    StringBuilder out = new StringBuilder(HEADER).append(' ').append(sourceHash).append('\n');
+    for (int id = 0; id < nodes.size(); id++) {
+      Object node = nodes.get(id);
+      if (node instanceof List<?> body && interpreter.isHot(body)) {
+        out.append("hot-function ").append(id).append('\n');
+      } else if (node instanceof Stmt.While loop && interpreter.isHot(loop)) {
+        out.append("hot-loop ").append(id).append('\n');
+      } else if (node instanceof Expr expr) {
+        InlineCache cache = interpreter.existingCache(expr);
+        if (cache == null) continue;
+        if (cache.isPolymorphic()) {
+          out.append("polymorphic ").append(id).append('\n');
+        } else if (expr instanceof Expr.Call && cache.target() != null) {
+          out.append("split ").append(id).append('\n');
+        }
+      }
+    }
+
+    try {
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+      Files.writeString(temporary, out, StandardCharsets.UTF_8);
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      interpreter.tiering.trace("profile: could not write " + file + " (" + e.getMessage() + ")");
+    }
+  }
+
+  // Of the source's UTF-8, which a MappedSource already is.
+  private static String hash(CharSequence source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      if (source instanceof MappedSource mapped) {
+        mapped.hash(digest);
+      } else {
+        digest.update(source.toString().getBytes(StandardCharsets.UTF_8));
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void number(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      number(statement);
+    }
+  }
+
+  private void number(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.Block s -> number(s.statements);
+      case Stmt.Class s -> {
+        if (s.superclass != null) number(s.superclass);
+        for (Stmt.Function method : s.methods) {
+          number(method);
+        }
+      }
+      case Stmt.Expression s -> number(s.expression);
+      case Stmt.Function s -> {
+        nodes.add(s.body);
+        number(s.body);
+      }
+      case Stmt.If s -> {
+        number(s.condition);
+        number(s.thenBranch);
+        if (s.elseBranch != null) number(s.elseBranch);
+      }
+      case Stmt.Print s -> number(s.expression);
+      case Stmt.Return s -> {
+        if (s.value != null) number(s.value);
+      }
+      case Stmt.Var s -> {
+        if (s.initializer != null) number(s.initializer);
+      }
+      case Stmt.While s -> {
+        nodes.add(s);
+        number(s.condition);
+        number(s.body);
+      }
+    }
+  }
+
+  private void number(Expr expr) {
+    switch (expr) {
+      case Expr.Assign e -> number(e.value);
+      case Expr.Binary e -> {
+        number(e.left);
+        number(e.right);
+      }
+      case Expr.Call e -> {
+        nodes.add(e);
+        number(e.callee);
+        for (Expr argument : e.arguments) {
+          number(argument);
+        }
+      }
+      case Expr.Get e -> {
+        nodes.add(e);
+        number(e.object);
+      }
+      case Expr.Grouping e -> number(e.expression);
+      case Expr.Literal e -> {
+      }
+      case Expr.Logical e -> {
+        number(e.left);
+        number(e.right);
+      }
+      case Expr.Set e -> {
+        number(e.object);
+        number(e.value);
+      }
+      case Expr.Super e -> {
+      }
+      case Expr.This e -> {
+      }
+      case Expr.Unary e -> number(e.right);
+      case Expr.Variable e -> {
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the functions whose result depends on nothing but their arguments,
+ * so calling one twice with the same arguments can reuse the first result;
+ * see {@link Memo}. A function is pure when it is declared once, at the top
+ * level, under a name nothing assigns, and its body only declares,
+ * reads and assigns its own parameters and locals, does arithmetic,
+ * comparisons and logic on them, branches, loops, returns and calls pure
+ * functions by name. Printing, fields, classes, nested functions and calls
+ * to anything else are impure.
+ *
+ * <p>Functions calling each other are assumed pure together and dropped
+ * until no function left calls one that isn't.
+ */
+final class Purity {
+  private final Interpreter interpreter;
+  private final Set<String> pure;
+
+  private Purity(Interpreter interpreter, Set<String> pure) {
+    this.interpreter = interpreter;
+    this.pure = pure;
+  }
+
+  // The pure functions in statements, in the order they are declared.
+  static List<Stmt.Function> pureFunctions(List<Stmt> statements, Interpreter interpreter) {
+    Map<String, Stmt.Function> functions = new HashMap<>();
+    Set<String> redeclared = new HashSet<>();
+    for (Stmt statement : statements) {
+      Token name = switch (statement) {
+        case Stmt.Function s -> s.name;
+        case Stmt.Class s -> s.name;
+        case Stmt.Var s -> s.name;
+        default -> null;
+      };
+      if (name == null) continue;
+      if (functions.containsKey(name.lexeme) || redeclared.contains(name.lexeme)
+          || !(statement instanceof Stmt.Function function)) {
+        functions.remove(name.lexeme);
+        redeclared.add(name.lexeme);
+      } else {
+        functions.put(name.lexeme, function);
+      }
+    }
+    for (Stmt statement : statements) {
+      for (Expr.Assign assign : BytecodeCompiler.assignments(statement)) {
+        if (interpreter.distance(assign) == null) functions.remove(assign.name.lexeme);
+      }
+    }
+
+    Purity purity = new Purity(interpreter, new HashSet<>(functions.keySet()));
+    boolean changed = true;
+    while (changed) {
+      changed = purity.pure.removeIf(name -> !purity.statements(functions.get(name).body));
+    }
+    List<Stmt.Function> result = new ArrayList<>();
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Function function
+          && purity.pure.contains(function.name.lexeme)) {
+        result.add(function);
+      }
+    }
+    return result;
+  }
+
+  private boolean statements(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (!statement(statement)) return false;
+    }
+    return true;
+  }
+
+  private boolean statement(Stmt stmt) {
+    return switch (stmt) {
+      case Stmt.Block s -> statements(s.statements);
+      case Stmt.Expression s -> expression(s.expression);
+      case Stmt.If s -> expression(s.condition) && statement(s.thenBranch)
+          && (s.elseBranch == null || statement(s.elseBranch));
+      case Stmt.Return s -> s.value == null || expression(s.value);
+      case Stmt.Var s -> s.initializer == null || expression(s.initializer);
+      case Stmt.While s -> expression(s.condition) && statement(s.body);
+      case Stmt.Class s -> false;
+      case Stmt.Function s -> false;
+      case Stmt.Print s -> false;
+    };
+  }
+
+  // Locals of a top-level function can only be its own, since a nested
+  // function makes it impure.
+  private boolean expression(Expr expr) {
+    return switch (expr) {
+      case Expr.Assign e -> interpreter.distance(e) != null && expression(e.value);
+      case Expr.Binary e -> expression(e.left) && expression(e.right);
+      case Expr.Call e -> {
+        if (!(e.callee instanceof Expr.Variable callee)
+            || interpreter.distance(callee) != null || !pure.contains(callee.name.lexeme)) {
+          yield false;
+        }
+        for (Expr argument : e.arguments) {
+          if (!expression(argument)) yield false;
+        }
+        yield true;
+      }
+      case Expr.Grouping e -> expression(e.expression);
+      case Expr.Literal e -> true;
+      case Expr.Logical e -> expression(e.left) && expression(e.right);
+      case Expr.Unary e -> expression(e.right);
+      case Expr.Variable e -> interpreter.distance(e) != null;
+      case Expr.Get e -> false;
+      case Expr.Set e -> false;
+      case Expr.Super e -> false;
+      case Expr.This e -> false;
+    };
+  }
+}
@@ -0,0 +1,52 @@
+package io.codecrafters.lox;
+
+/**
+ * A function body compiled for the register VM. A method gets "this" in
+ * register 0 and its parameters after it; a function gets its parameters
+ * from register 0. Upvalue {@code i} of a closure is, when it is created,
+ * the cell in the creating frame's register {@code upvalueIndex[i]} if
+ * {@code upvalueIsLocal[i]}, and otherwise that frame's own upvalue
+ * {@code upvalueIndex[i]}.
+ */
+final class RegisterCode {
+  final String name;
+  final int arity;
+  final boolean isMethod;
+  final int[] code;
+  final Object[] constants;
+  final int registerCount;
+  final boolean[] upvalueIsLocal;
+  final int[] upvalueIndex;
+
+  RegisterCode(String name, int arity, boolean isMethod, int[] code, Object[] constants,
+               int registerCount, boolean[] upvalueIsLocal, int[] upvalueIndex) {
+    this.name = name;
+    this.arity = arity;
+    this.isMethod = isMethod;
+    this.code = code;
+    this.constants = constants;
+    this.registerCount = registerCount;
+    this.upvalueIsLocal = upvalueIsLocal;
+    this.upvalueIndex = upvalueIndex;
+  }
+
+  int instructionCount() {
+    int count = 0;
+    for (int ip = 0; ip < code.length; ip += 1 + RegisterOp.OPERANDS[code[ip]]) {
+      count++;
+    }
+    return count;
+  }
+
+  String disassemble() {
+    StringBuilder out = new StringBuilder();
+    for (int ip = 0; ip < code.length; ip += 1 + RegisterOp.OPERANDS[code[ip]]) {
+      out.append(String.format("%04d %s", ip, RegisterOp.NAMES[code[ip]]));
+      for (int i = 1; i <= RegisterOp.OPERANDS[code[ip]]; i++) {
+        out.append(' ').append(code[ip + i]);
+      }
+      out.append('\n');
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,617 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles a resolved program for the {@link RegisterVM}. Every local gets
+ * a register of its function's frame while its scope is open, in the scopes
+ * the Resolver laid out, and temporaries take the registers above the live
+ * locals. Operands that are locals or literals are read in place and an
+ * assignment to a local writes its result straight into the local's
+ * register, so {@code a = b + c} is one instruction where the stack VM
+ * needs four.
+ *
+ * <p>A local that a nested function uses is boxed in a cell, which the
+ * closures share as an upvalue. Which locals those are is only known once
+ * the nested functions have been seen, so the program is compiled twice:
+ * once to find them and once for real. Selected for {@code run} with
+ * {@code -Dlox.engine=registers}.
+ */
+final class RegisterCompiler {
+  // The destination of an expression statement, whose value nothing reads.
+  private static final int DISCARD = Integer.MIN_VALUE;
+
+  // A local variable, "this" or the hidden "super", and the function
+  // whose frame holds it.
+  private static final class Local {
+    final Object key;
+    final int register;
+    final boolean cell;
+    final FunctionState owner;
+
+    Local(Object key, int register, boolean cell, FunctionState owner) {
+      this.key = key;
+      this.register = register;
+      this.cell = cell;
+      this.owner = owner;
+    }
+  }
+
+  private static final class FunctionState {
+    final FunctionState enclosing;
+    final boolean isInitializer;
+    Local self;
+    int[] code = new int[64];
+    int length;
+    final List<Object> constants = new ArrayList<>();
+    final Map<Object, Integer> constantIndex = new HashMap<>();
+    int registers;
+    int maxRegisters;
+    final List<Local> upvalues = new ArrayList<>();
+    final List<Integer> upvalueIndex = new ArrayList<>();
+
+    FunctionState(FunctionState enclosing, boolean isInitializer) {
+      this.enclosing = enclosing;
+      this.isInitializer = isInitializer;
+    }
+
+    int reserve() {
+      int register = registers++;
+      maxRegisters = Math.max(maxRegisters, registers);
+      return register;
+    }
+  }
+
+  /** A compiled program, run with a fresh set of globals. */
+  static final class Program {
+    final RegisterCode script;
+
+    private Program(RegisterCode script) {
+      this.script = script;
+    }
+
+    void run() {
+      LoxRuntime.reset();
+      RegisterVM.execute(script, new Object[0][], new Object[script.registerCount]);
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final Set<Object> captured = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final List<Map<String, Local>> scopes = new ArrayList<>();
+  private FunctionState function;
+
+  private RegisterCompiler(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  static Program compile(List<Stmt> statements, Interpreter interpreter) {
+    RegisterCompiler compiler = new RegisterCompiler(interpreter);
+    compiler.script(statements);
+    return new Program(compiler.script(statements));
+  }
+
+  private RegisterCode script(List<Stmt> statements) {
+    function = new FunctionState(null, false);
+    for (Stmt statement : statements) {
+      statement(statement);
+    }
+    emit(RegisterOp.RETURN, constant(null));
+    return finish("script", 0, false);
+  }
+
+  private RegisterCode finish(String name, int arity, boolean isMethod) {
+    FunctionState state = function;
+    boolean[] upvalueIsLocal = new boolean[state.upvalues.size()];
+    int[] upvalueIndex = new int[state.upvalues.size()];
+    for (int i = 0; i < upvalueIndex.length; i++) {
+      upvalueIsLocal[i] = state.upvalues.get(i).owner == state.enclosing;
+      upvalueIndex[i] = state.upvalueIndex.get(i);
+    }
+    return new RegisterCode(name, arity, isMethod, Arrays.copyOf(state.code, state.length),
+        state.constants.toArray(), state.maxRegisters, upvalueIsLocal, upvalueIndex);
+  }
+
+  // ---- statements ----------------------------------------------------------
+
+  // Compiles stmt and frees the temporaries it used. Declarations keep the
+  // register of the local they declare.
+  private void statement(Stmt stmt) {
+    int mark = function.registers;
+    switch (stmt) {
+      case Stmt.Block s -> {
+        scopes.add(new HashMap<>());
+        for (Stmt statement : s.statements) {
+          statement(statement);
+        }
+        scopes.remove(scopes.size() - 1);
+      }
+      case Stmt.Class s -> mark = classDeclaration(s);
+      case Stmt.Expression s -> into(s.expression, DISCARD);
+      case Stmt.Function s -> mark = functionDeclaration(s);
+      case Stmt.If s -> {
+        int otherwise = jumpUnless(s.condition);
+        statement(s.thenBranch);
+        if (s.elseBranch == null) {
+          patch(otherwise);
+        } else {
+          emit(RegisterOp.JUMP, 0);
+          int end = function.length - 1;
+          patch(otherwise);
+          statement(s.elseBranch);
+          patch(end);
+        }
+      }
+      case Stmt.Print s -> emit(RegisterOp.PRINT, operand(s.expression));
+      case Stmt.Return s -> emit(RegisterOp.RETURN, function.isInitializer
+          ? read(function.self) : s.value == null ? constant(null) : operand(s.value));
+      case Stmt.Var s -> mark = varDeclaration(s);
+      case Stmt.While s -> {
+        int start = function.length;
+        int exit = jumpUnless(s.condition);
+        statement(s.body);
+        emit(RegisterOp.JUMP, start);
+        patch(exit);
+      }
+    }
+    function.registers = mark;
+  }
+
+  // Each declaration returns the registers in use once it is done.
+
+  private int varDeclaration(Stmt.Var stmt) {
+    if (scopes.isEmpty()) {
+      int mark = function.registers;
+      int value = stmt.initializer == null ? constant(null) : operand(stmt.initializer);
+      emit(RegisterOp.DEFINE_GLOBAL, constant(stmt.name.lexeme), value);
+      return mark;
+    }
+
+    int register = function.reserve();
+    if (stmt.initializer == null) {
+      emit(RegisterOp.MOVE, register, constant(null));
+    } else {
+      into(stmt.initializer, register);
+    }
+    if (declare(stmt.name, stmt.name, register).cell) {
+      emit(RegisterOp.NEW_CELL, register);
+    }
+    return register + 1;
+  }
+
+  private int functionDeclaration(Stmt.Function stmt) {
+    if (scopes.isEmpty()) {
+      int mark = function.registers;
+      int closure = temp();
+      emit(RegisterOp.CLOSURE, closure, constant(function(stmt, false, false)));
+      emit(RegisterOp.DEFINE_GLOBAL, constant(stmt.name.lexeme), closure);
+      return mark;
+    }
+
+    // Declared first, so the body can call the function by name.
+    int register = function.reserve();
+    Local local = declare(stmt.name, stmt.name, register);
+    RegisterCode code = function(stmt, false, false);
+    if (local.cell) {
+      emit(RegisterOp.MOVE, register, constant(null));
+      emit(RegisterOp.NEW_CELL, register);
+      int closure = temp();
+      emit(RegisterOp.CLOSURE, closure, constant(code));
+      emit(RegisterOp.SET_CELL, register, closure);
+    } else {
+      emit(RegisterOp.CLOSURE, register, constant(code));
+    }
+    return register + 1;
+  }
+
+  private int classDeclaration(Stmt.Class stmt) {
+    int mark = function.registers;
+    int register = scopes.isEmpty() ? -1 : function.reserve();
+    int superclass = constant(null);
+    if (stmt.superclass != null) {
+      superclass = operand(stmt.superclass);
+      emit(RegisterOp.CHECK_SUPERCLASS, superclass, stmt.superclass.name.line);
+    }
+
+    Local local = null;
+    if (register >= 0) {
+      local = declare(stmt.name, stmt.name, register);
+      if (local.cell) {
+        emit(RegisterOp.MOVE, register, constant(null));
+        emit(RegisterOp.NEW_CELL, register);
+      }
+    }
+
+    // Methods reach the superclass through a cell of the declaring frame,
+    // standing in for the scope the Resolver opens for "super".
+    if (stmt.superclass != null) {
+      int holder = temp();
+      emit(RegisterOp.MOVE, holder, superclass);
+      Local hidden = new Local(stmt, holder, captured.contains(stmt), function);
+      if (hidden.cell) {
+        emit(RegisterOp.NEW_CELL, holder);
+      }
+      Map<String, Local> scope = new HashMap<>();
+      scope.put("super", hidden);
+      scopes.add(scope);
+    }
+    scopes.add(new HashMap<>());
+
+    int first = function.registers;
+    for (Stmt.Function method : stmt.methods) {
+      RegisterCode code = function(method, true, method.name.lexeme.equals("init"));
+      emit(RegisterOp.CLOSURE, temp(), constant(code));
+    }
+
+    scopes.remove(scopes.size() - 1);
+    if (stmt.superclass != null) {
+      scopes.remove(scopes.size() - 1);
+    }
+
+    int klass = local == null || local.cell ? temp() : register;
+    emit(RegisterOp.CLASS, klass, constant(stmt.name.lexeme), superclass, first,
+        stmt.methods.size());
+    if (local == null) {
+      emit(RegisterOp.DEFINE_GLOBAL, constant(stmt.name.lexeme), klass);
+      return mark;
+    }
+    if (local.cell) {
+      emit(RegisterOp.SET_CELL, register, klass);
+    }
+    return register + 1;
+  }
+
+  // A method gets "this" in register 0, bound in the scope the Resolver
+  // opened for it around the method's own.
+  private RegisterCode function(Stmt.Function declaration, boolean isMethod,
+                                boolean isInitializer) {
+    FunctionState enclosing = function;
+    function = new FunctionState(enclosing, isInitializer);
+    if (isMethod) {
+      function.self = new Local(declaration, function.reserve(),
+          captured.contains(declaration), function);
+      scopes.get(scopes.size() - 1).put("this", function.self);
+    }
+
+    scopes.add(new HashMap<>());
+    List<Local> parameters = new ArrayList<>();
+    for (Token param : declaration.params) {
+      parameters.add(declare(param, param, function.reserve()));
+    }
+    if (function.self != null && function.self.cell) {
+      emit(RegisterOp.NEW_CELL, function.self.register);
+    }
+    for (Local parameter : parameters) {
+      if (parameter.cell) {
+        emit(RegisterOp.NEW_CELL, parameter.register);
+      }
+    }
+
+    for (Stmt statement : declaration.body) {
+      statement(statement);
+    }
+    emit(RegisterOp.RETURN, isInitializer ? read(function.self) : constant(null));
+    scopes.remove(scopes.size() - 1);
+
+    RegisterCode code = finish(declaration.name.lexeme, declaration.params.size(), isMethod);
+    function = enclosing;
+    return code;
+  }
+
+  // ---- expressions ---------------------------------------------------------
+
+  // Emits a jump taken unless condition holds, and returns the position of
+  // its target for patch. Comparisons test and branch in one instruction.
+  private int jumpUnless(Expr condition) {
+    int mark = function.registers;
+    switch (condition) {
+      case Expr.Grouping e -> {
+        return jumpUnless(e.expression);
+      }
+      case Expr.Binary e when compareAndJump(e.operator) >= 0 -> {
+        int left = leftOperand(e.left, e.right);
+        int right = operand(e.right);
+        emit(compareAndJump(e.operator), left, right, 0, e.operator.line);
+        function.registers = mark;
+        return function.length - 2;
+      }
+      case Expr.Unary e when e.operator.type == TokenType.BANG -> {
+        emit(RegisterOp.JUMP_IF_TRUE, operand(e.right), 0);
+      }
+      default -> emit(RegisterOp.JUMP_IF_FALSE, operand(condition), 0);
+    }
+    function.registers = mark;
+    return function.length - 1;
+  }
+
+  private static int compareAndJump(Token operator) {
+    return switch (operator.type) {
+      case GREATER -> RegisterOp.JUMP_UNLESS_GREATER;
+      case GREATER_EQUAL -> RegisterOp.JUMP_UNLESS_GREATER_EQUAL;
+      case LESS -> RegisterOp.JUMP_UNLESS_LESS;
+      case LESS_EQUAL -> RegisterOp.JUMP_UNLESS_LESS_EQUAL;
+      default -> -1;
+    };
+  }
+
+  // The operand holding expr's value: a literal's constant or a local's own
+  // register where possible, a new temporary otherwise.
+  private int operand(Expr expr) {
+    switch (expr) {
+      case Expr.Grouping e -> {
+        return operand(e.expression);
+      }
+      case Expr.Literal e -> {
+        return constant(e.value);
+      }
+      case Expr.Variable e -> {
+        Local local = resolve(e, e.name.lexeme);
+        if (local != null && local.owner == function && !local.cell) {
+          return local.register;
+        }
+      }
+      default -> {}
+    }
+    int temp = temp();
+    into(expr, temp);
+    function.registers = temp + 1;
+    return temp;
+  }
+
+  // The operand for the left side of a binary operation. A variable is
+  // copied if evaluating the right side could assign it.
+  private int leftOperand(Expr left, Expr right) {
+    int operand = operand(left);
+    if (operand >= 0 && unwrap(left) instanceof Expr.Variable && assigns(right)) {
+      int temp = temp();
+      emit(RegisterOp.MOVE, temp, operand);
+      return temp;
+    }
+    return operand;
+  }
+
+  private static boolean assigns(Expr expr) {
+    return switch (expr) {
+      case Expr.Assign e -> true;
+      case Expr.Binary e -> assigns(e.left) || assigns(e.right);
+      case Expr.Call e -> assigns(e.callee) || e.arguments.stream().anyMatch(RegisterCompiler::assigns);
+      case Expr.Get e -> assigns(e.object);
+      case Expr.Grouping e -> assigns(e.expression);
+      case Expr.Logical e -> assigns(e.left) || assigns(e.right);
+      case Expr.Set e -> assigns(e.object) || assigns(e.value);
+      case Expr.Unary e -> assigns(e.right);
+      case Expr.Literal e -> false;
+      case Expr.Super e -> false;
+      case Expr.This e -> false;
+      case Expr.Variable e -> false;
+    };
+  }
+
+  // Evaluates expr into register dst, or only for its effects if dst is
+  // DISCARD.
+  private void into(Expr expr, int dst) {
+    switch (expr) {
+      case Expr.Assign e -> assign(e, dst);
+      case Expr.Binary e -> {
+        int op = switch (e.operator.type) {
+          case PLUS -> RegisterOp.ADD;
+          case MINUS -> RegisterOp.SUBTRACT;
+          case STAR -> RegisterOp.MULTIPLY;
+          case SLASH -> RegisterOp.DIVIDE;
+          case GREATER -> RegisterOp.GREATER;
+          case GREATER_EQUAL -> RegisterOp.GREATER_EQUAL;
+          case LESS -> RegisterOp.LESS;
+          case LESS_EQUAL -> RegisterOp.LESS_EQUAL;
+          case EQUAL_EQUAL -> RegisterOp.EQUAL;
+          default -> RegisterOp.NOT_EQUAL;
+        };
+        int left = leftOperand(e.left, e.right);
+        int right = operand(e.right);
+        if (op == RegisterOp.EQUAL || op == RegisterOp.NOT_EQUAL) {
+          emit(op, target(dst), left, right);
+        } else {
+          emit(op, target(dst), left, right, e.operator.line);
+        }
+      }
+      case Expr.Call e -> {
+        int callee = temp();
+        into(e.callee, callee);
+        for (int i = 0; i < e.arguments.size(); i++) {
+          function.registers = callee + 1 + i;
+          into(e.arguments.get(i), temp());
+        }
+        emit(RegisterOp.CALL, dst == DISCARD ? callee : dst, callee, e.arguments.size(),
+            e.paren.line);
+      }
+      case Expr.Get e -> emit(RegisterOp.GET_PROPERTY, target(dst), operand(e.object),
+          constant(e.name.lexeme), e.name.line);
+      case Expr.Grouping e -> into(e.expression, dst);
+      case Expr.Literal e -> {
+        if (dst != DISCARD) {
+          emit(RegisterOp.MOVE, dst, constant(e.value));
+        }
+      }
+      case Expr.Logical e -> {
+        int result = target(dst);
+        into(e.left, result);
+        emit(e.operator.type == TokenType.OR ? RegisterOp.JUMP_IF_TRUE : RegisterOp.JUMP_IF_FALSE,
+            result, 0);
+        int end = function.length - 1;
+        into(e.right, result);
+        patch(end);
+      }
+      case Expr.Set e -> {
+        int object = leftOperand(e.object, e.value);
+        emit(RegisterOp.CHECK_INSTANCE, object, e.name.line);
+        int value = operand(e.value);
+        emit(RegisterOp.SET_PROPERTY, object, constant(e.name.lexeme), value);
+        move(dst, value);
+      }
+      case Expr.Super e -> {
+        // "this" is bound in the scope just inside the one binding "super".
+        int distance = interpreter.distance(e);
+        Local superclass = lookup(distance, "super");
+        Local self = lookup(distance - 1, "this");
+        emit(RegisterOp.GET_SUPER, target(dst), read(superclass), read(self),
+            constant(e.method.lexeme), e.method.line);
+      }
+      case Expr.This e -> {
+        if (dst != DISCARD) {
+          load(resolve(e, "this"), dst);
+        }
+      }
+      case Expr.Unary e -> {
+        if (e.operator.type == TokenType.MINUS) {
+          emit(RegisterOp.NEGATE, target(dst), operand(e.right), e.operator.line);
+        } else {
+          emit(RegisterOp.NOT, target(dst), operand(e.right));
+        }
+      }
+      case Expr.Variable e -> {
+        Local local = resolve(e, e.name.lexeme);
+        if (local == null) {
+          emit(RegisterOp.GET_GLOBAL, target(dst), constant(e.name.lexeme), e.name.line);
+        } else if (dst != DISCARD) {
+          load(local, dst);
+        }
+      }
+    }
+  }
+
+  private void assign(Expr.Assign e, int dst) {
+    Local local = resolve(e, e.name.lexeme);
+    if (local != null && local.owner == function && !local.cell
+        && !(unwrap(e.value) instanceof Expr.Logical)) {
+      // A logical expression writes its left operand before it reads the
+      // right, which may be this local; anything else writes once, last.
+      into(e.value, local.register);
+      move(dst, local.register);
+      return;
+    }
+
+    int value = operand(e.value);
+    if (local == null) {
+      emit(RegisterOp.SET_GLOBAL, constant(e.name.lexeme), value, e.name.line);
+    } else if (local.owner != function) {
+      emit(RegisterOp.SET_UPVALUE, upvalue(function, local), value);
+    } else if (local.cell) {
+      emit(RegisterOp.SET_CELL, local.register, value);
+    } else {
+      emit(RegisterOp.MOVE, local.register, value);
+    }
+    move(dst, value);
+  }
+
+  private static Expr unwrap(Expr expr) {
+    while (expr instanceof Expr.Grouping grouping) {
+      expr = grouping.expression;
+    }
+    return expr;
+  }
+
+  // ---- variables -----------------------------------------------------------
+
+  private Local declare(Token name, Object key, int register) {
+    Local local = new Local(key, register, captured.contains(key), function);
+    scopes.get(scopes.size() - 1).put(name.lexeme, local);
+    return local;
+  }
+
+  // The local expr refers to, or null for a global.
+  private Local resolve(Expr expr, String name) {
+    Integer distance = interpreter.distance(expr);
+    return distance == null ? null : lookup(distance, name);
+  }
+
+  // The local bound to name distance scopes out, noting if it is captured.
+  private Local lookup(int distance, String name) {
+    Local local = scopes.get(scopes.size() - 1 - distance).get(name);
+    if (local.owner != function) {
+      captured.add(local.key);
+    }
+    return local;
+  }
+
+  // An operand holding local's value.
+  private int read(Local local) {
+    if (local.owner == function && !local.cell) {
+      return local.register;
+    }
+    int temp = temp();
+    load(local, temp);
+    return temp;
+  }
+
+  private void load(Local local, int dst) {
+    if (local.owner != function) {
+      emit(RegisterOp.GET_UPVALUE, dst, upvalue(function, local));
+    } else if (local.cell) {
+      emit(RegisterOp.GET_CELL, dst, local.register);
+    } else {
+      emit(RegisterOp.MOVE, dst, local.register);
+    }
+  }
+
+  // The index of local among state's upvalues, adding it, and it to the
+  // functions in between, if it is not there yet.
+  private static int upvalue(FunctionState state, Local local) {
+    int index = state.upvalues.indexOf(local);
+    if (index >= 0) return index;
+    state.upvalues.add(local);
+    state.upvalueIndex.add(local.owner == state.enclosing
+        ? local.register : upvalue(state.enclosing, local));
+    return state.upvalues.size() - 1;
+  }
+
+  // ---- code ----------------------------------------------------------------
+
+  private void emit(int... words) {
+    FunctionState state = function;
+    if (state.length + words.length > state.code.length) {
+      state.code = Arrays.copyOf(state.code, Math.max(state.code.length * 2,
+          state.length + words.length));
+    }
+    System.arraycopy(words, 0, state.code, state.length, words.length);
+    state.length += words.length;
+  }
+
+  // Points the jump whose target is at position to the end of the code.
+  private void patch(int position) {
+    function.code[position] = function.length;
+  }
+
+  private void move(int dst, int value) {
+    if (dst != DISCARD && dst != value) {
+      emit(RegisterOp.MOVE, dst, value);
+    }
+  }
+
+  private int target(int dst) {
+    return dst == DISCARD ? temp() : dst;
+  }
+
+  private int temp() {
+    return function.reserve();
+  }
+
+  // The operand for a constant. Compiled functions are told apart by
+  // identity, other values by equality.
+  private int constant(Object value) {
+    Integer index = value instanceof RegisterCode ? null : function.constantIndex.get(value);
+    if (index == null) {
+      index = function.constants.size();
+      function.constants.add(value);
+      if (!(value instanceof RegisterCode)) {
+        function.constantIndex.put(value, index);
+      }
+    }
+    return ~index;
+  }
+}
@@ -0,0 +1,81 @@
+package io.codecrafters.lox;
+
+/**
+ * Instruction set of the register VM. Instructions are three-address: they
+ * name the registers they read and the one they write, so {@code a = b + c}
+ * on locals is a single ADD. Operands follow their opcode inline in
+ * {@link RegisterCode#code}; the comment on each opcode lists them.
+ *
+ * <p>A "value" operand is either a register, if it is zero or more, or the
+ * constant at index {@code ~operand}, so constants need no load of their
+ * own. Jump targets are absolute. Operations that can fail carry the line
+ * to report.
+ */
+final class RegisterOp {
+  static final int MOVE = 0;              // dst, value
+  static final int GET_CELL = 1;          // dst, register holding the cell
+  static final int SET_CELL = 2;          // register holding the cell, value
+  static final int NEW_CELL = 3;          // register, boxed in place
+  static final int GET_UPVALUE = 4;       // dst, upvalue
+  static final int SET_UPVALUE = 5;       // upvalue, value
+  static final int GET_GLOBAL = 6;        // dst, name constant, line
+  static final int SET_GLOBAL = 7;        // name constant, value, line
+  static final int DEFINE_GLOBAL = 8;     // name constant, value
+  static final int ADD = 9;               // dst, value, value, line
+  static final int SUBTRACT = 10;         // dst, value, value, line
+  static final int MULTIPLY = 11;         // dst, value, value, line
+  static final int DIVIDE = 12;           // dst, value, value, line
+  static final int GREATER = 13;          // dst, value, value, line
+  static final int GREATER_EQUAL = 14;    // dst, value, value, line
+  static final int LESS = 15;             // dst, value, value, line
+  static final int LESS_EQUAL = 16;       // dst, value, value, line
+  static final int EQUAL = 17;            // dst, value, value
+  static final int NOT_EQUAL = 18;        // dst, value, value
+  static final int NEGATE = 19;           // dst, value, line
+  static final int NOT = 20;              // dst, value
+  static final int JUMP = 21;             // target
+  static final int JUMP_IF_FALSE = 22;    // value, target
+  static final int JUMP_IF_TRUE = 23;     // value, target
+  // Compare and branch in one: jump to target unless the comparison holds.
+  static final int JUMP_UNLESS_GREATER = 24;        // value, value, target, line
+  static final int JUMP_UNLESS_GREATER_EQUAL = 25;  // value, value, target, line
+  static final int JUMP_UNLESS_LESS = 26;           // value, value, target, line
+  static final int JUMP_UNLESS_LESS_EQUAL = 27;     // value, value, target, line
+  static final int PRINT = 28;            // value
+  static final int CALL = 29;             // dst, callee register, argument count, line;
+                                          // arguments follow the callee
+  static final int GET_PROPERTY = 30;     // dst, value, name constant, line
+  static final int CHECK_INSTANCE = 31;   // value, line
+  static final int SET_PROPERTY = 32;     // value, name constant, value
+  static final int GET_SUPER = 33;        // dst, superclass, this, name constant, line
+  static final int CLOSURE = 34;          // dst, RegisterCode constant
+  static final int CHECK_SUPERCLASS = 35; // value, line
+  static final int CLASS = 36;            // dst, name constant, superclass value,
+                                          // first method register, method count
+  static final int RETURN = 37;           // value
+
+  static final String[] NAMES = {
+    "MOVE", "GET_CELL", "SET_CELL", "NEW_CELL", "GET_UPVALUE", "SET_UPVALUE",
+    "GET_GLOBAL", "SET_GLOBAL", "DEFINE_GLOBAL",
+    "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE",
+    "GREATER", "GREATER_EQUAL", "LESS", "LESS_EQUAL", "EQUAL", "NOT_EQUAL",
+    "NEGATE", "NOT", "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE",
+    "JUMP_UNLESS_GREATER", "JUMP_UNLESS_GREATER_EQUAL", "JUMP_UNLESS_LESS",
+    "JUMP_UNLESS_LESS_EQUAL", "PRINT", "CALL", "GET_PROPERTY", "CHECK_INSTANCE",
+    "SET_PROPERTY", "GET_SUPER", "CLOSURE", "CHECK_SUPERCLASS", "CLASS", "RETURN"
+  };
+
+  // Number of inline operands following each opcode.
+  static final int[] OPERANDS = {
+    2, 2, 2, 1, 2, 2,
+    3, 3, 2,
+    4, 4, 4, 4,
+    4, 4, 4, 4, 3, 3,
+    3, 2, 1, 2, 2,
+    4, 4, 4,
+    4, 1, 4, 4, 2,
+    3, 5, 2, 2, 5, 1
+  };
+
+  private RegisterOp() {}
+}
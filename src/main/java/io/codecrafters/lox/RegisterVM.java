@@ -0,0 +1,233 @@
+package io.codecrafters.lox;
+
+/**
+ * Runs {@link RegisterCode}. Each call gets a fresh array of registers and
+ * recurses on the Java stack; the operations themselves, and the errors
+ * they raise, are those of {@link LoxRuntime}.
+ */
+final class RegisterVM {
+  private RegisterVM() {}
+
+  /** A closure over RegisterCode; its upvalues are the cells it shares. */
+  static final class RegisterFunction extends LoxRuntime.Function {
+    final RegisterCode code;
+    final Object[][] upvalues;
+
+    RegisterFunction(RegisterCode code, Object[][] upvalues) {
+      super(code.name, code.arity);
+      this.code = code;
+      this.upvalues = upvalues;
+    }
+
+    @Override
+    Object invoke(LoxRuntime.Instance self, Object[] arguments) {
+      Object[] registers = new Object[code.registerCount];
+      int first = 0;
+      if (code.isMethod) {
+        registers[0] = self;
+        first = 1;
+      }
+      System.arraycopy(arguments, 0, registers, first, arguments.length);
+      return execute(code, upvalues, registers);
+    }
+  }
+
+  static Object execute(RegisterCode function, Object[][] upvalues, Object[] r) {
+    int[] code = function.code;
+    Object[] k = function.constants;
+    int ip = 0;
+    while (true) {
+      switch (code[ip]) {
+        case RegisterOp.MOVE -> {
+          r[code[ip + 1]] = value(r, k, code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.GET_CELL -> {
+          r[code[ip + 1]] = ((Object[]) r[code[ip + 2]])[0];
+          ip += 3;
+        }
+        case RegisterOp.SET_CELL -> {
+          ((Object[]) r[code[ip + 1]])[0] = value(r, k, code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.NEW_CELL -> {
+          r[code[ip + 1]] = new Object[] {r[code[ip + 1]]};
+          ip += 2;
+        }
+        case RegisterOp.GET_UPVALUE -> {
+          r[code[ip + 1]] = upvalues[code[ip + 2]][0];
+          ip += 3;
+        }
+        case RegisterOp.SET_UPVALUE -> {
+          upvalues[code[ip + 1]][0] = value(r, k, code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.GET_GLOBAL -> {
+          r[code[ip + 1]] = LoxRuntime.global((String) k[~code[ip + 2]], code[ip + 3]);
+          ip += 4;
+        }
+        case RegisterOp.SET_GLOBAL -> {
+          LoxRuntime.assign((String) k[~code[ip + 1]], value(r, k, code[ip + 2]), code[ip + 3]);
+          ip += 4;
+        }
+        case RegisterOp.DEFINE_GLOBAL -> {
+          LoxRuntime.define((String) k[~code[ip + 1]], value(r, k, code[ip + 2]));
+          ip += 3;
+        }
+        case RegisterOp.ADD -> {
+          r[code[ip + 1]] = LoxRuntime.add(value(r, k, code[ip + 2]), value(r, k, code[ip + 3]),
+              code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.SUBTRACT -> {
+          r[code[ip + 1]] = LoxRuntime.subtract(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]), code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.MULTIPLY -> {
+          r[code[ip + 1]] = LoxRuntime.multiply(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]), code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.DIVIDE -> {
+          r[code[ip + 1]] = LoxRuntime.divide(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]), code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.GREATER -> {
+          r[code[ip + 1]] = LoxRuntime.greater(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]), code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.GREATER_EQUAL -> {
+          r[code[ip + 1]] = LoxRuntime.greaterEqual(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]), code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.LESS -> {
+          r[code[ip + 1]] = LoxRuntime.less(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]), code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.LESS_EQUAL -> {
+          r[code[ip + 1]] = LoxRuntime.lessEqual(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]), code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.EQUAL -> {
+          r[code[ip + 1]] = LoxRuntime.isEqual(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]));
+          ip += 4;
+        }
+        case RegisterOp.NOT_EQUAL -> {
+          r[code[ip + 1]] = !LoxRuntime.isEqual(value(r, k, code[ip + 2]),
+              value(r, k, code[ip + 3]));
+          ip += 4;
+        }
+        case RegisterOp.NEGATE -> {
+          r[code[ip + 1]] = LoxRuntime.negate(value(r, k, code[ip + 2]), code[ip + 3]);
+          ip += 4;
+        }
+        case RegisterOp.NOT -> {
+          r[code[ip + 1]] = !LoxRuntime.isTruthy(value(r, k, code[ip + 2]));
+          ip += 3;
+        }
+        case RegisterOp.JUMP -> ip = code[ip + 1];
+        case RegisterOp.JUMP_IF_FALSE ->
+            ip = LoxRuntime.isTruthy(value(r, k, code[ip + 1])) ? ip + 3 : code[ip + 2];
+        case RegisterOp.JUMP_IF_TRUE ->
+            ip = LoxRuntime.isTruthy(value(r, k, code[ip + 1])) ? code[ip + 2] : ip + 3;
+        case RegisterOp.JUMP_UNLESS_GREATER ->
+            ip = LoxRuntime.greater(value(r, k, code[ip + 1]), value(r, k, code[ip + 2]),
+                code[ip + 4]) ? ip + 5 : code[ip + 3];
+        case RegisterOp.JUMP_UNLESS_GREATER_EQUAL ->
+            ip = LoxRuntime.greaterEqual(value(r, k, code[ip + 1]), value(r, k, code[ip + 2]),
+                code[ip + 4]) ? ip + 5 : code[ip + 3];
+        case RegisterOp.JUMP_UNLESS_LESS ->
+            ip = LoxRuntime.less(value(r, k, code[ip + 1]), value(r, k, code[ip + 2]),
+                code[ip + 4]) ? ip + 5 : code[ip + 3];
+        case RegisterOp.JUMP_UNLESS_LESS_EQUAL ->
+            ip = LoxRuntime.lessEqual(value(r, k, code[ip + 1]), value(r, k, code[ip + 2]),
+                code[ip + 4]) ? ip + 5 : code[ip + 3];
+        case RegisterOp.PRINT -> {
+          LoxRuntime.print(value(r, k, code[ip + 1]));
+          ip += 2;
+        }
+        case RegisterOp.CALL -> {
+          r[code[ip + 1]] = call(r, code[ip + 2], code[ip + 3], code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.GET_PROPERTY -> {
+          r[code[ip + 1]] = LoxRuntime.get(value(r, k, code[ip + 2]), (String) k[~code[ip + 3]],
+              code[ip + 4]);
+          ip += 5;
+        }
+        case RegisterOp.CHECK_INSTANCE -> {
+          LoxRuntime.fieldsOf(value(r, k, code[ip + 1]), code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.SET_PROPERTY -> {
+          LoxRuntime.set((LoxRuntime.Instance) value(r, k, code[ip + 1]),
+              (String) k[~code[ip + 2]], value(r, k, code[ip + 3]));
+          ip += 4;
+        }
+        case RegisterOp.GET_SUPER -> {
+          r[code[ip + 1]] = LoxRuntime.superMethod((LoxRuntime.Klass) value(r, k, code[ip + 2]),
+              (LoxRuntime.Instance) value(r, k, code[ip + 3]), (String) k[~code[ip + 4]],
+              code[ip + 5]);
+          ip += 6;
+        }
+        case RegisterOp.CLOSURE -> {
+          r[code[ip + 1]] = closure((RegisterCode) k[~code[ip + 2]], upvalues, r);
+          ip += 3;
+        }
+        case RegisterOp.CHECK_SUPERCLASS -> {
+          LoxRuntime.superclass(value(r, k, code[ip + 1]), code[ip + 2]);
+          ip += 3;
+        }
+        case RegisterOp.CLASS -> {
+          LoxRuntime.Function[] methods = new LoxRuntime.Function[code[ip + 5]];
+          for (int i = 0; i < methods.length; i++) {
+            methods[i] = (LoxRuntime.Function) r[code[ip + 4] + i];
+          }
+          r[code[ip + 1]] = new LoxRuntime.Klass((String) k[~code[ip + 2]],
+              (LoxRuntime.Klass) value(r, k, code[ip + 3]), methods);
+          ip += 6;
+        }
+        case RegisterOp.RETURN -> {
+          return value(r, k, code[ip + 1]);
+        }
+        default -> throw new IllegalStateException("Unknown opcode " + code[ip]);
+      }
+    }
+  }
+
+  private static Object value(Object[] r, Object[] k, int operand) {
+    return operand >= 0 ? r[operand] : k[~operand];
+  }
+
+  // Calls a closure of matching arity directly, with its arguments copied
+  // from the registers after the callee into the bottom of its own.
+  private static Object call(Object[] r, int callee, int count, int line) {
+    if (r[callee] instanceof RegisterFunction function && !function.code.isMethod
+        && function.code.arity == count) {
+      RegisterCode code = function.code;
+      Object[] registers = new Object[code.registerCount];
+      System.arraycopy(r, callee + 1, registers, 0, count);
+      return execute(code, function.upvalues, registers);
+    }
+
+    Object[] arguments = new Object[count];
+    System.arraycopy(r, callee + 1, arguments, 0, count);
+    return LoxRuntime.call(r[callee], line, arguments);
+  }
+
+  private static Object closure(RegisterCode code, Object[][] upvalues, Object[] r) {
+    Object[][] cells = new Object[code.upvalueIndex.length][];
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] = code.upvalueIsLocal[i]
+          ? (Object[]) r[code.upvalueIndex[i]] : upvalues[code.upvalueIndex[i]];
+    }
+    return new RegisterFunction(code, cells);
+  }
+}
@@ -12,6 +12,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   private final Interpreter interpreter;
    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
    private FunctionType currentFunction = FunctionType.NONE;
+   private List<Stmt> currentBody = null;
 
   Resolver(Interpreter interpreter) {
     this.interpreter = interpreter;
@@ -32,6 +33,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   }
 
   private ClassType currentClass = ClassType.NONE;
+  private Stmt.Class currentClassStmt = null;
 
     @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
@@ -99,6 +101,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+    // Records the nodes whose inline caches decide whether a function body
+    // has gone polymorphic.
+    private void profile(Expr expr) {
+    if (currentBody != null) {
+      interpreter.resolveProfiled(currentBody, expr);
+    }
+  }
+
     private void resolveLocal(Expr expr, Token name) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
       if (scopes.get(i).containsKey(name.lexeme)) {
@@ -127,7 +137,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveFunction(Stmt.Function function, FunctionType type) {
     beginScope();
     FunctionType enclosingFunction = currentFunction;
+    List<Stmt> enclosingBody = currentBody;
     currentFunction = type;
+    currentBody = function.body;
     for (Token param : function.params) {
       declare(param);
       define(param);
@@ -135,6 +147,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     resolve(function.body);
     endScope();
     currentFunction = enclosingFunction;
+    currentBody = enclosingBody;
   }
 
     @Override
@@ -189,6 +202,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
   public Void visitCallExpr(Expr.Call expr) {
+    profile(expr);
     resolve(expr.callee);
 
     for (Expr argument : expr.arguments) {
@@ -225,7 +239,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
       ClassType enclosingClass = currentClass;
+      Stmt.Class enclosingClassStmt = currentClassStmt;
       currentClass = ClassType.CLASS;
+      currentClassStmt = stmt;
 
       declare(stmt.name);
       define(stmt.name);
@@ -261,11 +277,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       endScope();
       if (stmt.superclass != null) endScope();
       currentClass = enclosingClass;
+      currentClassStmt = enclosingClassStmt;
       return null;
     }
 
     @Override
     public Void visitGetExpr(Expr.Get expr) {
+      profile(expr);
       resolve(expr.object);
       return null;
   }
@@ -295,6 +313,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     } else if (currentClass != ClassType.SUBCLASS) {
       Main.error(expr.keyword.line,
           "Can't use 'super' in a class with no superclass.");
+    } else {
+      interpreter.resolveSuper(currentClassStmt, expr);
     }
       resolveLocal(expr, expr.keyword);
       return null;
@@ -1,33 +1,119 @@
 package io.codecrafters.lox;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 class Scanner {
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    static final int CHUNK = 8192;
+
+    // A String, or a MappedSource whose chars are UTF-8 bytes, or the
+    // window of a Reader's chars the token being scanned starts in.
+    private final CharSequence source;
+    private final TokenBuffer tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    Scanner(String source) {
+    // Only set when scanning a Reader; see tokens().
+    private final Reader reader;
+    private final char[] chunk;
+    private boolean drained = false;
+    private Token scanned = null;
+
+    Scanner(CharSequence source) {
         this.source = source;
+        this.tokens = new TokenBuffer(source);
+        this.reader = null;
+        this.chunk = null;
+    }
+
+    Scanner(Reader reader) {
+        this(reader, CHUNK);
+    }
+
+    Scanner(Reader reader, int chunkSize) {
+        this.source = new StringBuilder();
+        this.tokens = null;
+        this.reader = reader;
+        this.chunk = new char[chunkSize];
     }
 
-    public List<Token> scanTokens() {
+    public TokenBuffer scanTokens() {
         while (!this.isAtEnd()) {
             start = current;
             this.scanToken();
         }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(TokenType.EOF, source.length(), 0, line);
 
         return tokens;
     }
 
+    // The tokens of a Scanner over a Reader, each scanned when asked for
+    // and ending with EOF. Only the chars of the token being scanned and
+    // one chunk are held, however long the input. Reading fails with an
+    // UncheckedIOException.
+    Iterator<Token> tokens() {
+        return new Iterator<>() {
+            private boolean ended = false;
+
+            @Override
+            public boolean hasNext() {
+                return !ended;
+            }
+
+            @Override
+            public Token next() {
+                if (ended) {
+                    throw new NoSuchElementException();
+                }
+                while (scanned == null) {
+                    if (isAtEnd()) {
+                        ended = true;
+                        return new Token(TokenType.EOF, "", null, line);
+                    }
+                    start = current;
+                    scanToken();
+                }
+                Token token = scanned;
+                scanned = null;
+                return token;
+            }
+        };
+    }
+
     private boolean isAtEnd() {
-        return this.current >= this.source.length();
+        return this.current >= this.source.length() && !this.refill();
+    }
+
+    // Reads another chunk into the window, first dropping what is before
+    // the token being scanned; false once the reader has no more.
+    private boolean refill() {
+        if (this.reader == null || this.drained) {
+            return false;
+        }
+        StringBuilder window = (StringBuilder) this.source;
+        window.delete(0, this.start);
+        this.current -= this.start;
+        this.start = 0;
+        try {
+            int read;
+            do {
+                read = this.reader.read(this.chunk);
+            } while (read == 0);
+            if (read < 0) {
+                this.drained = true;
+                return false;
+            }
+            window.append(this.chunk, 0, read);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private void scanToken() {
@@ -74,6 +160,9 @@ class Scanner {
                 if (this.peek() == '/') {
                     while (this.peek() != '\n' && !this.isAtEnd()) {
                         this.advance();
+                        // A comment is no token, so a Reader's window
+                        // needn't keep it.
+                        this.start = this.current;
                     }
                 } else {
                     this.addToken(TokenType.SLASH);
@@ -87,16 +176,29 @@ class Scanner {
             case '\n' ->
                 this.line++;
             default ->
-                Main.error(this.line, "Unexpected character: " + c);
+                this.unexpected(c);
+        }
+    }
+
+    private void unexpected(char c) {
+        if (this.source instanceof MappedSource mapped && c >= 0x80) {
+            int first = this.current - 1;
+            this.current = first + mapped.width(first);
+            // Reported a UTF-16 char at a time, as from a String.
+            for (char unit : Character.toChars(mapped.codePointAt(first))) {
+                Main.error(this.line, "Unexpected character: " + unit);
+            }
+            return;
         }
+        Main.error(this.line, "Unexpected character: " + c);
     }
 
     private void identifier() {
-        while (this.AlphaNumeric(this.peek())) {
-            this.advance();
+        while (this.AlphaNumeric(this.peekChar())) {
+            this.current += this.width();
         }
 
-        String text = this.source.substring(this.start, this.current);
+        String text = this.source.subSequence(this.start, this.current).toString();
         TokenType type = switch (text) {
             case "and" ->
                 TokenType.AND;
@@ -157,8 +259,7 @@ class Scanner {
             }
         }
 
-        String numberString = this.source.substring(this.start, this.current);
-        this.addToken(TokenType.NUMBER, Double.valueOf(numberString));
+        this.addToken(TokenType.NUMBER);
     }
 
     private boolean isDigit(char c) {
@@ -166,8 +267,10 @@ class Scanner {
     }
 
     private char peekNext() {
-        if (this.current + 1 >= this.source.length()) {
-            return '\0';
+        while (this.current + 1 >= this.source.length()) {
+            if (!this.refill()) {
+                return '\0';
+            }
         }
         return this.source.charAt(this.current + 1);
     }
@@ -185,8 +288,7 @@ class Scanner {
             return;
         }
         this.advance();
-        String value = this.source.substring(this.start + 1, this.current - 1);
-        this.addToken(TokenType.STRING, value);
+        this.addToken(TokenType.STRING);
     }
 
     private char peek() {
@@ -196,6 +298,26 @@ class Scanner {
         return this.source.charAt(this.current);
     }
 
+    // Like peek, but decoding a character a MappedSource spreads over
+    // several bytes; of one outside the BMP, only its high surrogate.
+    private char peekChar() {
+        char c = this.peek();
+        if (this.source instanceof MappedSource mapped && c >= 0x80) {
+            int codePoint = mapped.codePointAt(this.current);
+            return Character.isBmpCodePoint(codePoint)
+                    ? (char) codePoint : Character.highSurrogate(codePoint);
+        }
+        return c;
+    }
+
+    // How many chars of the source the character at current takes.
+    private int width() {
+        if (this.source instanceof MappedSource mapped) {
+            return mapped.width(this.current);
+        }
+        return 1;
+    }
+
     private boolean match() {
         if (this.isAtEnd()) {
             return false;
@@ -212,12 +334,14 @@ class Scanner {
         return this.source.charAt(this.current++);
     }
 
+    // Its lexeme and literal are read back from the source when needed,
+    // except from a Reader's window, which moves on.
     private void addToken(TokenType type) {
-        this.addToken(type, null);
-    }
-
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        if (reader != null) {
+            String lexeme = source.subSequence(start, current).toString();
+            scanned = new Token(type, lexeme, TokenBuffer.literal(type, lexeme), line);
+            return;
+        }
+        tokens.add(type, start, current - start, line);
     }
 }
@@ -2,7 +2,7 @@ package io.codecrafters.lox;
 
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt permits Stmt.Block, Stmt.Class, Stmt.Expression, Stmt.Function, Stmt.If, Stmt.Print, Stmt.Return, Stmt.Var, Stmt.While {
   interface Visitor<R> {
     R visitBlockStmt(Block stmt);
     R visitClassStmt(Class stmt);
@@ -14,7 +14,7 @@ abstract class Stmt {
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
   }
-  static class Block extends Stmt {
+  static final class Block extends Stmt {
     Block(List<Stmt> statements) {
       this.statements = statements;
     }
@@ -26,7 +26,7 @@ abstract class Stmt {
 
     final List<Stmt> statements;
   }
-  static class Class extends Stmt {
+  static final class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
       this.name = name;
       this.superclass = superclass;
@@ -42,7 +42,7 @@ abstract class Stmt {
     final Expr.Variable superclass;
     final List<Stmt.Function> methods;
   }
-  static class Expression extends Stmt {
+  static final class Expression extends Stmt {
     Expression(Expr expression) {
       this.expression = expression;
     }
@@ -54,7 +54,7 @@ abstract class Stmt {
 
     final Expr expression;
   }
-  static class Function extends Stmt {
+  static final class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
       this.name = name;
       this.params = params;
@@ -70,7 +70,7 @@ abstract class Stmt {
     final List<Token> params;
     final List<Stmt> body;
   }
-  static class If extends Stmt {
+  static final class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
       this.condition = condition;
       this.thenBranch = thenBranch;
@@ -86,7 +86,7 @@ abstract class Stmt {
     final Stmt thenBranch;
     final Stmt elseBranch;
   }
-  static class Print extends Stmt {
+  static final class Print extends Stmt {
     Print(Expr expression) {
       this.expression = expression;
     }
@@ -98,7 +98,7 @@ abstract class Stmt {
 
     final Expr expression;
   }
-  static class Return extends Stmt {
+  static final class Return extends Stmt {
     Return(Token keyword, Expr value) {
       this.keyword = keyword;
       this.value = value;
@@ -112,7 +112,7 @@ abstract class Stmt {
     final Token keyword;
     final Expr value;
   }
-  static class Var extends Stmt {
+  static final class Var extends Stmt {
     Var(Token name, Expr initializer) {
       this.name = name;
       this.initializer = initializer;
@@ -126,10 +126,12 @@ abstract class Stmt {
     final Token name;
     final Expr initializer;
   }
-  static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+  static final class While extends Stmt {
+    While(Token keyword, Expr condition, Stmt body, Token counter) {
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
+      this.counter = counter;
     }
 
     @Override
@@ -137,8 +139,11 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    final Token keyword;
     final Expr condition;
     final Stmt body;
+    final Token counter;
+    int invariants;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
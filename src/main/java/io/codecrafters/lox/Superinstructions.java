@@ -0,0 +1,31 @@
+package io.codecrafters.lox;
+
+/**
+ * The superinstructions the BytecodeCompiler fuses, chosen by
+ * {@code SuperinstructionProfiler} from the opcode sequences run most
+ * often over the benchmark corpus. Generated; rerun the profiler
+ * instead of editing it, and whenever {@link OpCode} changes.
+ */
+final class Superinstructions {
+  // Identifies the instruction set the selection was made for.
+  static final String INSTRUCTION_SET = "352bb83f";
+
+  static final int[] ENABLED = {
+    OpCode.GET_LOCAL_GET_LOCAL_MULTIPLY,  // 4.62% of dispatches saved
+    OpCode.ADD_SET_LOCAL_POP,  // 4.60% of dispatches saved
+    OpCode.POP_GET_LOCAL,  // 3.91% of dispatches saved
+    OpCode.GET_LOCAL_GET_LOCAL,  // 3.59% of dispatches saved
+    OpCode.GET_LOCAL_MULTIPLY,  // 3.45% of dispatches saved
+    OpCode.GET_LOCAL_CONSTANT,  // 3.43% of dispatches saved
+    OpCode.SET_LOCAL_POP,  // 3.23% of dispatches saved
+    OpCode.SET_ENV_POP,  // 2.64% of dispatches saved
+    OpCode.CONSTANT_ADD,  // 2.53% of dispatches saved
+    OpCode.GET_LOCAL_CONSTANT_LESS,  // 2.37% of dispatches saved
+    OpCode.GET_LOCAL_CONSTANT_SUBTRACT,  // 2.37% of dispatches saved
+    OpCode.GET_LOCAL_CONSTANT_ADD,  // 1.73% of dispatches saved
+    OpCode.GET_LOCAL_ADD,  // 1.43% of dispatches saved
+    OpCode.CONSTANT_SUBTRACT,  // 1.21% of dispatches saved
+  };
+
+  private Superinstructions() {}
+}
@@ -0,0 +1,31 @@
+package io.codecrafters.lox;
+
+/**
+ * Something the tiering policy can compile to bytecode: a whole function
+ * body, or a single loop entered through on-stack replacement.
+ */
+abstract class TieredCode {
+  enum State {
+    INTERPRETED,
+    QUEUED,
+    COMPILED,
+    FAILED
+  }
+
+  int backEdges = 0;
+
+  // Written by the compiler thread, read by the interpreter.
+  volatile State state = State.INTERPRETED;
+  volatile Chunk compiled = null;
+
+  // Restarts the counters after the compiled code has been thrown away.
+  void reset() {
+    backEdges = 0;
+  }
+
+  abstract String describe();
+
+  abstract String counters();
+
+  abstract Chunk compile(Interpreter interpreter);
+}
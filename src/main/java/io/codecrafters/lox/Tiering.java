@@ -0,0 +1,174 @@
+package io.codecrafters.lox;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decides when code leaves the tree-walking interpreter for the bytecode
+ * tier. Functions start interpreted; once a function has been invoked
+ * {@code invocationThreshold} times, or its loops have taken
+ * {@code backEdgeThreshold} back-edges, its body is compiled, by default on
+ * a background thread so the script keeps running in the meantime. A single
+ * loop taking that many back-edges is compiled on its own and entered
+ * mid-execution, so hot loops in top-level code benefit too.
+ *
+ * <p>Compiled loops are counted again by the VM. After {@code traceThreshold}
+ * back-edges the next iteration is recorded as a trace (see
+ * {@link TraceRecorder}) and later iterations run the trace instead.
+ *
+ * <p>Configured with system properties:
+ * <ul>
+ *   <li>{@code lox.tiering} - {@code false} keeps everything interpreted</li>
+ *   <li>{@code lox.tiering.invocations} - invocation threshold (default 500)</li>
+ *   <li>{@code lox.tiering.backedges} - back-edge threshold (default 5000)</li>
+ *   <li>{@code lox.tiering.background} - {@code false} compiles on the
+ *       calling thread</li>
+ *   <li>{@code lox.tiering.trace} - {@code true} logs tier-up events to
+ *       stderr</li>
+ *   <li>{@code lox.tiering.traces} - {@code false} turns off trace
+ *       recording</li>
+ *   <li>{@code lox.tiering.tracethreshold} - VM back-edges before a loop is
+ *       recorded (default 64)</li>
+ *   <li>{@code lox.tiering.stats} - {@code true} prints trace statistics to
+ *       stderr when the program ends</li>
+ *   <li>{@code lox.tiering.superinstructions} - {@code false} compiles
+ *       without superinstructions</li>
+ *   <li>{@code lox.tiering.numberslots} - {@code false} keeps every local
+ *       boxed, instead of unboxing those that have only held numbers</li>
+ * </ul>
+ */
+class Tiering {
+  static final int DEFAULT_INVOCATION_THRESHOLD = 500;
+  static final int DEFAULT_BACK_EDGE_THRESHOLD = 5000;
+  static final int DEFAULT_TRACE_THRESHOLD = 64;
+
+  static final Tiering DISABLED = new Tiering(false, 0, 0, false, false);
+
+  private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "lox-compiler");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  final boolean enabled;
+  final int invocationThreshold;
+  final int backEdgeThreshold;
+  final boolean background;
+  final boolean trace;
+  final boolean tracing;
+  final int traceThreshold;
+  final boolean superinstructions;
+  final boolean numberSlots;
+
+  Tiering(boolean enabled, int invocationThreshold, int backEdgeThreshold,
+          boolean background, boolean trace) {
+    this(enabled, invocationThreshold, backEdgeThreshold, background, trace, true,
+        DEFAULT_TRACE_THRESHOLD);
+  }
+
+  Tiering(boolean enabled, int invocationThreshold, int backEdgeThreshold,
+          boolean background, boolean trace, boolean tracing, int traceThreshold) {
+    this(enabled, invocationThreshold, backEdgeThreshold, background, trace, tracing,
+        traceThreshold, true);
+  }
+
+  Tiering(boolean enabled, int invocationThreshold, int backEdgeThreshold,
+          boolean background, boolean trace, boolean tracing, int traceThreshold,
+          boolean superinstructions) {
+    this(enabled, invocationThreshold, backEdgeThreshold, background, trace, tracing,
+        traceThreshold, superinstructions, true);
+  }
+
+  Tiering(boolean enabled, int invocationThreshold, int backEdgeThreshold,
+          boolean background, boolean trace, boolean tracing, int traceThreshold,
+          boolean superinstructions, boolean numberSlots) {
+    this.enabled = enabled;
+    this.invocationThreshold = invocationThreshold;
+    this.backEdgeThreshold = backEdgeThreshold;
+    this.background = background;
+    this.trace = trace;
+    this.tracing = tracing;
+    this.traceThreshold = traceThreshold;
+    this.superinstructions = superinstructions;
+    this.numberSlots = numberSlots;
+  }
+
+  static Tiering fromSystemProperties() {
+    return new Tiering(
+        !"false".equals(System.getProperty("lox.tiering")),
+        Integer.getInteger("lox.tiering.invocations", DEFAULT_INVOCATION_THRESHOLD),
+        Integer.getInteger("lox.tiering.backedges", DEFAULT_BACK_EDGE_THRESHOLD),
+        !"false".equals(System.getProperty("lox.tiering.background")),
+        Boolean.getBoolean("lox.tiering.trace"),
+        !"false".equals(System.getProperty("lox.tiering.traces")),
+        Integer.getInteger("lox.tiering.tracethreshold", DEFAULT_TRACE_THRESHOLD),
+        !"false".equals(System.getProperty("lox.tiering.superinstructions")),
+        !"false".equals(System.getProperty("lox.tiering.numberslots")));
+  }
+
+  void recordInvocation(Interpreter interpreter, FunctionProfile profile) {
+    if (++profile.invocations >= invocationThreshold) {
+      tierUp(interpreter, profile);
+    }
+  }
+
+  void recordBackEdge(Interpreter interpreter, TieredCode code) {
+    if (++code.backEdges >= backEdgeThreshold) {
+      tierUp(interpreter, code);
+    }
+  }
+
+  private void tierUp(Interpreter interpreter, TieredCode code) {
+    if (!enabled || code.state != TieredCode.State.INTERPRETED) return;
+
+    code.state = TieredCode.State.QUEUED;
+    trace(code.describe() + ": queued after " + code.counters());
+
+    if (background) {
+      COMPILER.execute(() -> compile(interpreter, code));
+    } else {
+      compile(interpreter, code);
+    }
+  }
+
+  private void compile(Interpreter interpreter, TieredCode code) {
+    long start = System.nanoTime();
+    try {
+      Chunk chunk = code.compile(interpreter);
+      trace(String.format("%s: compiled to %d instructions in %.2f ms", code.describe(),
+          chunk.instructionCount(), (System.nanoTime() - start) / 1e6));
+      code.state = TieredCode.State.COMPILED;
+      code.compiled = chunk;
+      for (Assumption assumption : chunk.assumptions) {
+        if (!assumption.addDependent(() -> deoptimize(code, chunk, assumption))) {
+          deoptimize(code, chunk, assumption);
+          break;
+        }
+      }
+    } catch (BytecodeCompiler.Unsupported unsupported) {
+      code.state = TieredCode.State.FAILED;
+      trace(code.describe() + ": stays interpreted (" + unsupported.getMessage() + ")");
+    }
+  }
+
+  // Sends code compiled against a broken assumption back to the
+  // interpreter. Calls made from now on are interpreted, and counted again
+  // towards a recompile; frames already running the chunk deoptimize at
+  // their next loop back-edge.
+  void deoptimize(TieredCode code, Chunk chunk, Assumption assumption) {
+    chunk.invalidated = true;
+    synchronized (code) {
+      if (code.compiled != chunk) return;
+      code.compiled = null;
+      code.state = TieredCode.State.INTERPRETED;
+      code.reset();
+    }
+    trace(code.describe() + ": deoptimized, assumed " + assumption);
+  }
+
+  void trace(String message) {
+    if (trace) {
+      System.err.println("[tier] " + message);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package io.codecrafters.lox;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The tokens the Scanner found, kept as the type, offset, length and line
+ * of each in parallel arrays over the source rather than as a Token apiece.
+ * A token is about 13 bytes here; as an object with its own lexeme and
+ * boxed literal it was several times that, and several times the source.
+ *
+ * <p>The Parser reads types straight from the arrays and only asks for a
+ * Token when it keeps one in the tree. Reading it as a list makes each
+ * Token afresh.
+ */
+final class TokenBuffer extends AbstractList<Token> implements RandomAccess {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  // A String, or a MappedSource whose offsets are in bytes.
+  private final CharSequence source;
+  private byte[] types;
+  private int[] starts;
+  private int[] lengths;
+  private int[] lines;
+  private int size = 0;
+
+  TokenBuffer(CharSequence source) {
+    this.source = source;
+    // Lox averages a token every few characters.
+    int capacity = source.length() / 4 + 16;
+    this.types = new byte[capacity];
+    this.starts = new int[capacity];
+    this.lengths = new int[capacity];
+    this.lines = new int[capacity];
+  }
+
+  // The buffer tokens came from, or one holding the same tokens.
+  static TokenBuffer of(List<Token> tokens) {
+    if (tokens instanceof TokenBuffer buffer) return buffer;
+    TokenBuffer buffer = new TokenBuffer(new StringBuilder());
+    for (Token token : tokens) buffer.append(token);
+    return buffer;
+  }
+
+  // Adds a Token made elsewhere, keeping its lexeme in a buffer made over
+  // a StringBuilder to hold them.
+  void append(Token token) {
+    StringBuilder lexemes = (StringBuilder) source;
+    add(token.type, lexemes.length(), token.lexeme.length(), token.line);
+    lexemes.append(token.lexeme);
+  }
+
+  void add(TokenType type, int start, int length, int line) {
+    if (size == types.length) {
+      int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+    }
+    types[size] = (byte) type.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    lines[size] = line;
+    size++;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  int line(int index) {
+    return lines[index];
+  }
+
+  String lexeme(int index) {
+    return text(starts[index], starts[index] + lengths[index]);
+  }
+
+  // What the Scanner used to box: a number's value, or a string's text
+  // without its quotes.
+  Object literal(int index) {
+    return switch (type(index)) {
+      case NUMBER -> Double.valueOf(lexeme(index));
+      case STRING -> text(starts[index] + 1, starts[index] + lengths[index] - 1);
+      default -> null;
+    };
+  }
+
+  static Object literal(TokenType type, String lexeme) {
+    return switch (type) {
+      case NUMBER -> Double.valueOf(lexeme);
+      case STRING -> lexeme.substring(1, lexeme.length() - 1);
+      default -> null;
+    };
+  }
+
+  private String text(int start, int end) {
+    return source instanceof MappedSource mapped
+        ? mapped.decode(start, end) : source.subSequence(start, end).toString();
+  }
+
+  @Override
+  public Token get(int index) {
+    if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+    return new Token(type(index), lexeme(index), literal(index), lines[index]);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,97 @@
+package io.codecrafters.lox;
+
+import java.util.Arrays;
+
+/**
+ * One recorded iteration of a hot loop, compiled to a straight-line chunk:
+ * branches became guards and calls to compiled functions were inlined, each
+ * inlined call getting its own region of one combined slot array. The VM
+ * runs it like any other chunk, with {@code frames} holding the Environment
+ * of every inlined call; it loops back to its first instruction until a
+ * guard fails and hands back the {@link TraceExit} for that guard.
+ */
+final class Trace {
+  // A trace that keeps exiting before finishing an iteration costs more
+  // than it saves: after this many such entries in a row it is dropped, and
+  // the loop may record the path it takes now instead.
+  private static final int MAX_FAILED_ENTRIES = 32;
+
+  final HotLoop loop;
+  Chunk chunk;
+  int frameCount;
+  long entries = 0;
+  long iterations = 0;
+  private int failedEntries = 0;
+
+  Trace(HotLoop loop) {
+    this.loop = loop;
+  }
+
+  // Runs the trace from the top of the loop in the root frame of the VM,
+  // then rebuilds the VM state at the exit: frames that were inlined finish
+  // running in the VM, and their results are passed back to their callers
+  // until only the root frame is left. Its slots and stack are written back
+  // in place; the exit tells the caller where to carry on.
+  TraceExit run(Interpreter interpreter, Chunk root, Environment scope, Object[] slots,
+                double[] numbers, Object[] stack) {
+    Object[] traceSlots = new Object[chunk.slotCount];
+    System.arraycopy(slots, 0, traceSlots, 0, root.slotCount);
+    double[] traceNumbers = VM.numbers(chunk);
+    if (numbers != null) {
+      System.arraycopy(numbers, 0, traceNumbers, 0, root.slotCount);
+    }
+    Object[] traceStack = new Object[chunk.maxStack];
+    Environment[] frames = new Environment[frameCount];
+    frames[0] = scope;
+
+    long before = iterations;
+    TraceExit exit = (TraceExit) VM.execute(interpreter, chunk, scope, frames, traceSlots,
+        traceNumbers, traceStack, 0, 0);
+    exit.taken++;
+    entries++;
+
+    TraceStats stats = interpreter.traceStats;
+    stats.entries++;
+    stats.iterations += iterations - before;
+    stats.sideExits++;
+
+    Object result = null;
+    for (int frame = exit.chunks.length - 1; frame > 0; frame--) {
+      Chunk callee = exit.chunks[frame];
+      int slotBase = exit.slotBases[frame];
+      Object[] calleeSlots = Arrays.copyOfRange(traceSlots, slotBase, slotBase + callee.slotCount);
+      double[] calleeNumbers = callee.hasNumberSlots
+          ? Arrays.copyOfRange(traceNumbers, slotBase, slotBase + callee.slotCount) : null;
+      Object[] calleeStack = new Object[callee.maxStack];
+      int depth = exit.depths[frame];
+      System.arraycopy(traceStack, exit.stackBases[frame], calleeStack, 0, depth);
+      if (frame < exit.chunks.length - 1) {
+        calleeStack[depth++] = result;
+      }
+      result = VM.execute(interpreter, callee, frames[frame], null, calleeSlots, calleeNumbers,
+          calleeStack, depth, exit.ips[frame]);
+    }
+
+    System.arraycopy(traceSlots, 0, slots, 0, root.slotCount);
+    if (numbers != null) {
+      System.arraycopy(traceNumbers, 0, numbers, 0, root.slotCount);
+    }
+    System.arraycopy(traceStack, 0, stack, 0, exit.depths[0]);
+    if (exit.chunks.length > 1) {
+      stack[exit.depths[0]] = result;
+    }
+
+    failedEntries = iterations == before ? failedEntries + 1 : 0;
+    if (failedEntries >= MAX_FAILED_ENTRIES) {
+      loop.trace = null;
+      loop.backEdges = 0;
+      if (++loop.aborts >= TraceRecorder.MAX_ABORTS) {
+        loop.blacklisted = true;
+      }
+      stats.discarded++;
+      interpreter.tiering.trace("trace for " + root.name + ": discarded after "
+          + failedEntries + " entries in a row without a full iteration");
+    }
+    return exit;
+  }
+}
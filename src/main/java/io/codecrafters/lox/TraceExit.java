@@ -0,0 +1,35 @@
+package io.codecrafters.lox;
+
+/**
+ * Where a trace leaves off when one of its guards fails: for each frame that
+ * was live at the guard, outermost first, the chunk it belongs to, the
+ * instruction to resume at, and where its slots and operand stack sit in the
+ * trace's combined arrays. Frames below the innermost one are waiting on a
+ * call, so their stack depth excludes the callee and its arguments and they
+ * resume just after the call instruction.
+ */
+final class TraceExit {
+  final Chunk[] chunks;
+  final int[] ips;
+  final int[] slotBases;
+  final int[] stackBases;
+  final int[] depths;
+  long taken = 0;
+
+  TraceExit(Chunk[] chunks, int[] ips, int[] slotBases, int[] stackBases, int[] depths) {
+    this.chunks = chunks;
+    this.ips = ips;
+    this.slotBases = slotBases;
+    this.stackBases = stackBases;
+    this.depths = depths;
+  }
+
+  int rootIp() {
+    return ips[0];
+  }
+
+  // A call the root frame was waiting on has returned its value by now.
+  int rootSp() {
+    return chunks.length > 1 ? depths[0] + 1 : depths[0];
+  }
+}
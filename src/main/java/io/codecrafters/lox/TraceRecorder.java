@@ -0,0 +1,351 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the instructions the VM executes during one iteration of a hot
+ * loop and turns them into a {@link Trace}.
+ *
+ * <p>Recording starts at a back-edge and ends when the same back-edge comes
+ * round again. Conditional jumps become guards on the direction that was
+ * taken. A call to a compiled function is followed into the callee, whose
+ * instructions are recorded too, behind a guard that the callee is the same
+ * declaration next time; a method call also guards on the receiver's class.
+ * An inlined method keeps its receiver in a slot, so reading "this" skips
+ * the Environment, and reading a field skips the method cache.
+ * Anything else that is called, such as a class, a native or a function
+ * still in the tree-walker, runs unrecorded as an ordinary call.
+ *
+ * <p>Every guard carries a {@link TraceExit} describing the VM state just
+ * before the guarded instruction, so a failed guard resumes the VM at that
+ * instruction and it is executed again normally.
+ */
+final class TraceRecorder {
+  private static final int MAX_LENGTH = 4096;
+  private static final int MAX_INLINE_DEPTH = 4;
+  static final int MAX_ABORTS = 3;
+
+  private static final class Frame {
+    final Chunk chunk;
+    final int slotBase;
+    final int stackBase;
+
+    // Slot holding "this" for an inlined method, or -1.
+    final int receiverSlot;
+
+    // Where this frame picks up once an inlined call out of it returns.
+    int returnIp;
+    int waitDepth;
+
+    Frame(Chunk chunk, int slotBase, int stackBase, int receiverSlot) {
+      this.chunk = chunk;
+      this.slotBase = slotBase;
+      this.stackBase = stackBase;
+      this.receiverSlot = receiverSlot;
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final Chunk root;
+  private final int loopIndex;
+  private final Trace trace;
+  private final List<Frame> frames = new ArrayList<>();
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+  private int[] code = new int[256];
+  private int count = 0;
+  private final Peephole peephole;
+  private int slotCount;
+  private boolean hasNumberSlots;
+  private int maxStack;
+  private int frameCount = 1;
+
+  // Position of the slot operands of an ENTER still waiting for its callee.
+  private int pendingEnter = -1;
+  private Chunk pendingCallee = null;
+  private boolean pendingMethod = false;
+  private boolean inOpaqueCall = false;
+  private boolean done = false;
+
+  private TraceRecorder(Interpreter interpreter, Chunk root, int loopIndex) {
+    this.interpreter = interpreter;
+    this.root = root;
+    this.loopIndex = loopIndex;
+    this.trace = new Trace(root.loops[loopIndex]);
+    this.slotCount = root.slotCount;
+    this.hasNumberSlots = root.hasNumberSlots;
+    this.maxStack = root.maxStack;
+    this.peephole = new Peephole(interpreter.tiering.superinstructions);
+    frames.add(new Frame(root, 0, 0, -1));
+  }
+
+  static TraceRecorder start(Interpreter interpreter, Chunk root, int loopIndex) {
+    TraceRecorder recorder = new TraceRecorder(interpreter, root, loopIndex);
+    interpreter.recorder = recorder;
+    interpreter.tiering.trace("trace for " + root.name + ": recording after "
+        + root.loops[loopIndex].backEdges + " back-edges");
+    return recorder;
+  }
+
+  // Called when the VM starts running a chunk while a recording is under
+  // way. Returns the recorder if the chunk is an inlined callee, or null if
+  // its instructions are not part of the trace.
+  TraceRecorder enter(Chunk chunk) {
+    if (done || inOpaqueCall) return null;
+    if (pendingEnter < 0) {
+      abort("entered " + chunk.name + " outside a call");
+      return null;
+    }
+    // The callee may have run in the tree-walker and called this chunk from
+    // there, as a split copy of a compiled method does.
+    if (chunk != pendingCallee) {
+      abort("entered " + chunk.name + " instead of " + pendingCallee.name);
+      return null;
+    }
+
+    Frame caller = frames.get(frames.size() - 1);
+    int slotBase = caller.slotBase + caller.chunk.slotCount + (caller.receiverSlot < 0 ? 0 : 1);
+    Frame frame = new Frame(chunk, slotBase, caller.stackBase + caller.waitDepth,
+        pendingMethod ? slotBase + chunk.slotCount : -1);
+    code[pendingEnter] = slotBase;
+    code[pendingEnter + 1] = chunk.slotCount;
+    pendingEnter = -1;
+
+    frames.add(frame);
+    slotCount = Math.max(slotCount, slotBase + chunk.slotCount + (pendingMethod ? 1 : 0));
+    hasNumberSlots |= chunk.hasNumberSlots;
+    maxStack = Math.max(maxStack, frame.stackBase + chunk.maxStack);
+    frameCount = Math.max(frameCount, frames.size());
+    return this;
+  }
+
+  // Called by the VM after a call made from a recorded frame returns.
+  void afterCall() {
+    if (done) return;
+    if (inOpaqueCall) {
+      inOpaqueCall = false;
+    } else if (pendingEnter >= 0) {
+      abort("callee ran in the interpreter");
+    }
+  }
+
+  // Called by the VM before it executes the instruction at ip. Returns false
+  // once the recording has finished or been abandoned.
+  boolean record(Chunk chunk, int ip, Object[] stack, int sp) {
+    if (done) return false;
+    Frame frame = frames.get(frames.size() - 1);
+    if (chunk != frame.chunk) return abort("lost track of " + chunk.name);
+    if (count > MAX_LENGTH) return abort("trace too long");
+
+    int[] parts = OpCode.FUSED[chunk.code[ip]];
+    if (parts == null) return record(frame, chunk, chunk.code[ip], ip, stack, sp);
+
+    // A superinstruction is recorded as the instructions it runs, for emit
+    // to fuse again. Only the first of them looks at the stack, which is as
+    // the superinstruction found it.
+    for (int part : parts) {
+      if (!record(frame, chunk, part, ip, stack, sp)) return false;
+      ip += OpCode.OPERANDS[part];
+    }
+    return true;
+  }
+
+  // Records op, whose operands follow position ip of chunk.
+  private boolean record(Frame frame, Chunk chunk, int op, int ip, Object[] stack, int sp) {
+    int[] in = chunk.code;
+    Object[] pool = chunk.constants;
+    int depth = frames.size() - 1;
+    switch (op) {
+      case OpCode.NIL, OpCode.TRUE, OpCode.FALSE, OpCode.POP, OpCode.EQUAL,
+           OpCode.NOT_EQUAL, OpCode.NOT, OpCode.PRINT -> emit(op);
+      case OpCode.GET_PROPERTY -> {
+        Expr.Get node = (Expr.Get) pool[in[ip + 1]];
+        if (stack[sp - 1] instanceof LoxInstance instance && instance.hasField(node.name)) {
+          emit(OpCode.GET_FIELD, constant(node), exit(ip, sp));
+        } else {
+          emit(op, constant(node));
+        }
+      }
+      case OpCode.CONSTANT, OpCode.GET_GLOBAL, OpCode.SET_GLOBAL,
+           OpCode.CHECK_INSTANCE, OpCode.SET_PROPERTY, OpCode.GREATER,
+           OpCode.GREATER_EQUAL, OpCode.LESS, OpCode.LESS_EQUAL, OpCode.ADD,
+           OpCode.SUBTRACT, OpCode.MULTIPLY, OpCode.DIVIDE,
+           OpCode.NEGATE -> emit(op, constant(pool[in[ip + 1]]));
+      case OpCode.GET_STABLE_GLOBAL -> emit(op, constant(pool[in[ip + 1]]),
+          constant(pool[in[ip + 2]]));
+      case OpCode.GET_LOCAL, OpCode.SET_LOCAL, OpCode.GET_NUMBER, OpCode.SET_NUMBER ->
+          emit(op, frame.slotBase + in[ip + 1]);
+      case OpCode.NUMBER_MOVE -> emit(op, frame.slotBase + in[ip + 1],
+          number(frame, pool, in[ip + 2]));
+      case OpCode.NUMBER_ADD, OpCode.NUMBER_SUBTRACT, OpCode.NUMBER_MULTIPLY,
+           OpCode.NUMBER_DIVIDE -> emit(op, frame.slotBase + in[ip + 1],
+          number(frame, pool, in[ip + 2]), number(frame, pool, in[ip + 3]),
+          constant(pool[in[ip + 4]]));
+      case OpCode.NUMBER_NEGATE -> emit(op, frame.slotBase + in[ip + 1],
+          number(frame, pool, in[ip + 2]), constant(pool[in[ip + 3]]));
+      case OpCode.NUMBER_GREATER, OpCode.NUMBER_GREATER_EQUAL, OpCode.NUMBER_LESS,
+           OpCode.NUMBER_LESS_EQUAL -> emit(op, number(frame, pool, in[ip + 1]),
+          number(frame, pool, in[ip + 2]), constant(pool[in[ip + 3]]));
+      case OpCode.GET_ENV -> {
+        // Depth 0 of a method's scope holds nothing but "this".
+        if (in[ip + 1] == 0 && frame.receiverSlot >= 0) {
+          emit(OpCode.GET_LOCAL, frame.receiverSlot);
+        } else {
+          emit(OpCode.FRAME_GET_ENV, depth, in[ip + 1], constant(pool[in[ip + 2]]));
+        }
+      }
+      case OpCode.SET_ENV -> emit(OpCode.FRAME_SET_ENV, depth, in[ip + 1],
+          constant(pool[in[ip + 2]]));
+      case OpCode.GET_SUPER -> emit(OpCode.FRAME_GET_SUPER, depth,
+          constant(pool[in[ip + 1]]), in[ip + 2]);
+      case OpCode.PREPARE_SUPER -> emit(OpCode.FRAME_PREPARE_SUPER, depth,
+          constant(pool[in[ip + 1]]), in[ip + 2]);
+      case OpCode.JUMP -> {
+      }
+      case OpCode.JUMP_IF_FALSE, OpCode.JUMP_IF_TRUE -> {
+        boolean truthy = Interpreter.isTruthy(stack[sp - 1]);
+        emit(truthy ? OpCode.GUARD_TRUTHY : OpCode.GUARD_FALSY, exit(ip, sp));
+      }
+      case OpCode.LOOP -> {
+        if (depth == 0 && in[ip + 2] == loopIndex) return finish();
+        return abort("reached another loop");
+      }
+      case OpCode.PREPARE_INVOKE -> recordPrepareInvoke(ip, stack, sp,
+          (Expr.Get) pool[in[ip + 1]]);
+      case OpCode.CALL, OpCode.INVOKE -> recordCall(frame, ip, stack, sp, op, in[ip + 1],
+          pool[in[ip + 2]]);
+      case OpCode.RETURN -> {
+        if (depth == 0) return abort("returned from " + chunk.name);
+        emit(OpCode.LEAVE, depth, frame.stackBase, chunk.isInitializer ? 1 : 0);
+        frames.remove(depth);
+      }
+      default -> {
+        return abort("cannot record " + OpCode.NAMES[op]);
+      }
+    }
+    return true;
+  }
+
+  // A method looked up on an instance is recorded against the instance's
+  // class; fields shadowing methods stay on the generic path.
+  private void recordPrepareInvoke(int ip, Object[] stack, int sp, Expr.Get node) {
+    if (stack[sp - 1] instanceof LoxInstance instance && !instance.hasField(node.name)) {
+      LoxFunction method = instance.klass.findMethod(node.name.lexeme);
+      if (method != null) {
+        emit(OpCode.GUARD_METHOD, constant(node), constant(instance.klass), constant(method),
+            exit(ip, sp));
+        return;
+      }
+    }
+    emit(OpCode.PREPARE_INVOKE, constant(node));
+  }
+
+  private void recordCall(Frame frame, int ip, Object[] stack, int sp, int op, int argCount,
+                          Object node) {
+    int calleeIndex = sp - 1 - argCount;
+    Object callee = stack[calleeIndex];
+    // A memoized function has to be called to use its cache.
+    if (!(callee instanceof LoxFunction function) || function.compiled() == null
+        || function.isMemoized() || frames.size() >= MAX_INLINE_DEPTH) {
+      emit(op, argCount, constant(node));
+      inOpaqueCall = true;
+      return;
+    }
+
+    int mode;
+    if (op == OpCode.CALL) {
+      mode = OpCode.ENTER_FUNCTION;
+    } else {
+      mode = stack[calleeIndex - 1] == null ? OpCode.ENTER_VALUE : OpCode.ENTER_METHOD;
+    }
+    int exit = exit(ip, sp);
+    frame.returnIp = ip + 1 + OpCode.OPERANDS[op];
+    frame.waitDepth = op == OpCode.CALL ? calleeIndex : calleeIndex - 1;
+    // The slot base and count are filled in by enter() once the callee runs.
+    emit(OpCode.ENTER, argCount, mode, constant(function.declaration()), frames.size(), 0, 0,
+        exit);
+    pendingEnter = count - 3;
+    pendingCallee = function.compiled();
+    pendingMethod = mode == OpCode.ENTER_METHOD;
+  }
+
+  // A number operand of frame, moved into the trace's slots and constants.
+  private int number(Frame frame, Object[] pool, int operand) {
+    if (operand >= 0) return frame.slotBase + operand;
+    return operand == OpCode.STACK ? operand : ~constant(pool[~operand]);
+  }
+
+  private int exit(int ip, int sp) {
+    int size = frames.size();
+    Chunk[] chunks = new Chunk[size];
+    int[] ips = new int[size];
+    int[] slotBases = new int[size];
+    int[] stackBases = new int[size];
+    int[] depths = new int[size];
+    for (int i = 0; i < size; i++) {
+      Frame frame = frames.get(i);
+      chunks[i] = frame.chunk;
+      slotBases[i] = frame.slotBase;
+      stackBases[i] = frame.stackBase;
+      ips[i] = i == size - 1 ? ip : frame.returnIp;
+      depths[i] = i == size - 1 ? sp : frame.waitDepth;
+    }
+    return constant(new TraceExit(chunks, ips, slotBases, stackBases, depths));
+  }
+
+  private boolean finish() {
+    emit(OpCode.TRACE_LOOP, constant(trace));
+    done = true;
+    interpreter.recorder = null;
+
+    trace.chunk = new Chunk("trace for " + root.name, Arrays.copyOf(code, count),
+        constants.toArray(), slotCount, hasNumberSlots, maxStack, false, new HotLoop[0],
+        List.of(), null);
+    trace.frameCount = frameCount;
+    trace.loop.trace = trace;
+    interpreter.traceStats.recorded(trace.chunk);
+    interpreter.tiering.trace(trace.chunk.name + ": recorded " + trace.chunk.instructionCount()
+        + " instructions across " + frameCount + " frame(s)");
+    return false;
+  }
+
+  private boolean abort(String reason) {
+    done = true;
+    interpreter.recorder = null;
+
+    HotLoop loop = trace.loop;
+    loop.backEdges = 0;
+    if (++loop.aborts >= MAX_ABORTS) {
+      loop.blacklisted = true;
+    }
+    interpreter.traceStats.aborted++;
+    interpreter.tiering.trace("trace for " + root.name + ": aborted, " + reason);
+    return false;
+  }
+
+  private int constant(Object value) {
+    Integer index = constantIndexes.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndexes.put(value, index);
+    }
+    return index;
+  }
+
+  private void emit(int op, int... operands) {
+    if (count + operands.length + 1 > code.length) {
+      code = Arrays.copyOf(code, code.length * 2);
+    }
+    int start = count;
+    code[count++] = op;
+    for (int operand : operands) {
+      code[count++] = operand;
+    }
+    count = peephole.written(code, start, count);
+  }
+}
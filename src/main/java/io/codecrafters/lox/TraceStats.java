@@ -0,0 +1,27 @@
+package io.codecrafters.lox;
+
+/**
+ * Counters for the trace recorder, printed at exit with
+ * {@code -Dlox.tiering.stats=true}.
+ */
+final class TraceStats {
+  int recorded = 0;
+  int instructions = 0;
+  int aborted = 0;
+  int discarded = 0;
+  long entries = 0;
+  long iterations = 0;
+  long sideExits = 0;
+
+  void recorded(Chunk trace) {
+    recorded++;
+    instructions += trace.instructionCount();
+  }
+
+  String report() {
+    return String.format("traces: %d recorded (%.1f instructions on average), %d aborted, "
+            + "%d discarded; %d entries, %d iterations, %d side exits",
+        recorded, recorded == 0 ? 0.0 : (double) instructions / recorded, aborted,
+        discarded, entries, iterations, sideExits);
+  }
+}
@@ -0,0 +1,319 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Flow-sensitive type inference over a resolved program. Arithmetic and
+ * comparisons whose operands are proven to always be numbers are marked
+ * {@code provenNumeric}, and the interpreter skips their operand checks.
+ *
+ * <p>Only local variables are tracked, through each function in program
+ * order: branches are joined where they meet, loops are iterated until
+ * their types stop changing, and an operation that would have failed
+ * unless a variable held a number proves it does from then on. Globals,
+ * parameters, fields and call results are unknown, as is any variable a
+ * nested function reads from outside itself. A variable that a nested
+ * function assigns is unknown from that function's declaration on, as
+ * nothing can call it before then; a loop whose body declares one is
+ * analyzed again.
+ */
+final class TypeInference {
+  enum Type { NUMBER, STRING, BOOLEAN, NIL, UNKNOWN }
+
+  /** How much of a program the inference typed. */
+  record Coverage(int typed, int expressions, int proven, int operations) {
+    String report() {
+      return String.format("types: %d of %d expressions have a proven type; %d of %d number "
+          + "operations skip their operand checks (%.1f%%)", typed, expressions, proven,
+          operations, operations == 0 ? 0.0 : 100.0 * proven / operations);
+    }
+  }
+
+  // A local variable: what declared it, and how many functions deep.
+  private record Binding(Object declaration, int function) {}
+
+  private final Interpreter interpreter;
+  private final Set<Object> assignedByClosures;
+  private final List<Map<String, Binding>> scopes = new ArrayList<>();
+  private int function = 0;
+  private Map<Object, Type> types = new HashMap<>();
+
+  // The types at each loop's head when it last stopped changing.
+  private final Map<Stmt.While, Map<Object, Type>> loopHeads = new IdentityHashMap<>();
+
+  // When each local was last assigned, counting assignments.
+  private final Map<Object, Integer> assignedAt = new HashMap<>();
+  private int assignments = 0;
+
+  // Every operation, and whether each visit found its operands numbers.
+  private final Map<Expr, Boolean> proven = new IdentityHashMap<>();
+  private final Map<Expr, Type> seen = new IdentityHashMap<>();
+
+  private TypeInference(Interpreter interpreter) {
+    this.interpreter = interpreter;
+    this.assignedByClosures = new HashSet<>();
+  }
+
+  static Coverage infer(List<Stmt> statements, Interpreter interpreter) {
+    TypeInference inference = new TypeInference(interpreter);
+    inference.statements(statements);
+
+    int proven = 0;
+    for (Map.Entry<Expr, Boolean> operation : inference.proven.entrySet()) {
+      if (!operation.getValue()) continue;
+      proven++;
+      switch (operation.getKey()) {
+        case Expr.Binary e -> e.provenNumeric = true;
+        case Expr.Unary e -> e.provenNumeric = true;
+        default -> throw new IllegalStateException("not an operation");
+      }
+    }
+    int typed = 0;
+    for (Type type : inference.seen.values()) {
+      if (type != Type.UNKNOWN) typed++;
+    }
+    return new Coverage(typed, inference.seen.size(), proven, inference.proven.size());
+  }
+
+  private void statements(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      statement(statement);
+    }
+  }
+
+  private void statement(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.Block s -> {
+        scopes.add(new HashMap<>());
+        statements(s.statements);
+        scopes.remove(scopes.size() - 1);
+      }
+      case Stmt.Class s -> {
+        declare(s.name, s.name, Type.UNKNOWN);
+        if (s.superclass != null) {
+          expression(s.superclass);
+          scopes.add(new HashMap<>());
+        }
+        scopes.add(new HashMap<>());
+        for (Stmt.Function method : s.methods) {
+          function(method);
+        }
+        scopes.remove(scopes.size() - 1);
+        if (s.superclass != null) scopes.remove(scopes.size() - 1);
+      }
+      case Stmt.Expression s -> expression(s.expression);
+      case Stmt.Function s -> {
+        declare(s.name, s.name, Type.UNKNOWN);
+        function(s);
+      }
+      case Stmt.If s -> {
+        expression(s.condition);
+        Map<Object, Type> otherwise = new HashMap<>(types);
+        statement(s.thenBranch);
+        Map<Object, Type> then = types;
+        types = otherwise;
+        if (s.elseBranch != null) statement(s.elseBranch);
+        types = join(then, types);
+      }
+      case Stmt.Print s -> expression(s.expression);
+      case Stmt.Return s -> {
+        if (s.value != null) expression(s.value);
+      }
+      case Stmt.Var s -> declare(s.name, s,
+          s.initializer == null ? Type.NIL : expression(s.initializer));
+      case Stmt.While s -> {
+        // The loop exits after a condition check, with the types that
+        // hold once the types at the check stop changing. Each round of an
+        // enclosing loop picks up from where they last stopped, rather
+        // than iterating a nested loop from scratch every time.
+        Map<Object, Type> last = loopHeads.get(s);
+        if (last != null) types = join(types, last);
+        while (true) {
+          int closures = assignedByClosures.size();
+          Map<Object, Type> head = new HashMap<>(types);
+          expression(s.condition);
+          Map<Object, Type> exit = new HashMap<>(types);
+          statement(s.body);
+          types = join(head, types);
+          if (types.equals(head) && assignedByClosures.size() == closures) {
+            loopHeads.put(s, head);
+            types = exit;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private void function(Stmt.Function declaration) {
+    Map<Object, Type> enclosing = types;
+    types = new HashMap<>();
+    function++;
+    scopes.add(new HashMap<>());
+    for (Token param : declaration.params) {
+      declare(param, param, Type.UNKNOWN);
+    }
+    statements(declaration.body);
+    scopes.remove(scopes.size() - 1);
+    function--;
+    types = enclosing;
+  }
+
+  private Type expression(Expr expr) {
+    Type type = switch (expr) {
+      case Expr.Assign e -> {
+        Type value = expression(e.value);
+        Binding binding = binding(e, e.name);
+        if (binding != null && binding.function < function) {
+          assignedByClosures.add(binding.declaration);
+        }
+        if (binding != null) assignedAt.put(binding.declaration, assignments++);
+        if (isTracked(binding)) types.put(binding.declaration, value);
+        yield value;
+      }
+      case Expr.Binary e -> binary(e);
+      case Expr.Call e -> {
+        expression(e.callee);
+        for (Expr argument : e.arguments) {
+          expression(argument);
+        }
+        yield Type.UNKNOWN;
+      }
+      case Expr.Get e -> {
+        expression(e.object);
+        yield Type.UNKNOWN;
+      }
+      case Expr.Grouping e -> expression(e.expression);
+      case Expr.Literal e -> switch (e.value) {
+        case null -> Type.NIL;
+        case Double d -> Type.NUMBER;
+        case String s -> Type.STRING;
+        case Boolean b -> Type.BOOLEAN;
+        default -> Type.UNKNOWN;
+      };
+      case Expr.Logical e -> {
+        Type left = expression(e.left);
+        Map<Object, Type> skipped = new HashMap<>(types);
+        Type right = expression(e.right);
+        types = join(skipped, types);
+        yield left == right ? left : Type.UNKNOWN;
+      }
+      case Expr.Set e -> {
+        expression(e.object);
+        yield expression(e.value);
+      }
+      case Expr.Super e -> Type.UNKNOWN;
+      case Expr.This e -> Type.UNKNOWN;
+      case Expr.Unary e -> {
+        Type right = expression(e.right);
+        if (e.operator.type == TokenType.BANG) yield Type.BOOLEAN;
+        prove(e, right == Type.NUMBER);
+        refine(e.right, Type.NUMBER);
+        yield Type.NUMBER;
+      }
+      case Expr.Variable e -> {
+        Binding binding = binding(e, e.name);
+        yield isTracked(binding)
+            ? types.getOrDefault(binding.declaration, Type.UNKNOWN) : Type.UNKNOWN;
+      }
+    };
+    seen.merge(expr, type, TypeInference::join);
+    return type;
+  }
+
+  private Type binary(Expr.Binary expr) {
+    Type left = expression(expr.left);
+    int mark = assignments;
+    Type right = expression(expr.right);
+    switch (expr.operator.type) {
+      case BANG_EQUAL, EQUAL_EQUAL -> {
+        return Type.BOOLEAN;
+      }
+      case PLUS -> {
+        prove(expr, left == Type.NUMBER && right == Type.NUMBER);
+        // Adding succeeds on two numbers or two strings, so one side's
+        // type is the other's.
+        Type sum = left == Type.NUMBER || right == Type.NUMBER ? Type.NUMBER
+            : left == Type.STRING || right == Type.STRING ? Type.STRING : Type.UNKNOWN;
+        if (sum != Type.UNKNOWN) refine(expr, mark, sum);
+        return sum;
+      }
+      default -> {
+        prove(expr, left == Type.NUMBER && right == Type.NUMBER);
+        refine(expr, mark, Type.NUMBER);
+        return switch (expr.operator.type) {
+          case MINUS, STAR, SLASH -> Type.NUMBER;
+          default -> Type.BOOLEAN;
+        };
+      }
+    }
+  }
+
+  private void prove(Expr operation, boolean numeric) {
+    proven.merge(operation, numeric, Boolean::logicalAnd);
+  }
+
+  // Records that both operands of a binary operation that succeeded had
+  // type. The left one is only refined if nothing has assigned it since
+  // the right one began, at mark.
+  private void refine(Expr.Binary operation, int mark, Type type) {
+    Expr left = unwrap(operation.left);
+    boolean reassigned = left instanceof Expr.Variable variable
+        && binding(variable, variable.name) instanceof Binding binding
+        && assignedAt.getOrDefault(binding.declaration, -1) >= mark;
+    if (!reassigned) refine(left, type);
+    refine(operation.right, type);
+  }
+
+  private void refine(Expr operand, Type type) {
+    if (unwrap(operand) instanceof Expr.Variable variable) {
+      Binding binding = binding(variable, variable.name);
+      if (isTracked(binding)) types.put(binding.declaration, type);
+    }
+  }
+
+  private static Expr unwrap(Expr expr) {
+    return expr instanceof Expr.Grouping grouping ? unwrap(grouping.expression) : expr;
+  }
+
+  private void declare(Token name, Object declaration, Type type) {
+    if (scopes.isEmpty()) return;
+    scopes.get(scopes.size() - 1).put(name.lexeme, new Binding(declaration, function));
+    types.put(declaration, type);
+  }
+
+  // The local expr refers to, found the way the Resolver did; null for a
+  // global.
+  private Binding binding(Expr expr, Token name) {
+    Integer distance = interpreter.distance(expr);
+    return distance == null ? null : scopes.get(scopes.size() - 1 - distance).get(name.lexeme);
+  }
+
+  // Whether the current function is the only code that can store to
+  // binding.
+  private boolean isTracked(Binding binding) {
+    return binding != null && binding.function == function
+        && !assignedByClosures.contains(binding.declaration);
+  }
+
+  // The types that hold on either of two paths.
+  private static Map<Object, Type> join(Map<Object, Type> a, Map<Object, Type> b) {
+    Map<Object, Type> joined = new HashMap<>();
+    for (Map.Entry<Object, Type> entry : a.entrySet()) {
+      if (entry.getValue() == b.get(entry.getKey())) {
+        joined.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return joined;
+  }
+
+  private static Type join(Type a, Type b) {
+    return a == b ? a : Type.UNKNOWN;
+  }
+}
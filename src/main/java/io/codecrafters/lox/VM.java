@@ -0,0 +1,556 @@
+package io.codecrafters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Executes a {@link Chunk} produced by the BytecodeCompiler. Each call runs
+ * in its own Java frame with an operand stack and a slot array; calls to
+ * other functions go back through {@link LoxCallable#call}, so a compiled
+ * function can call interpreted ones and vice versa.
+ *
+ * <p>The same loop runs recorded traces. For those, {@code frames} holds the
+ * Environment of each inlined call and a failed guard returns its
+ * {@link TraceExit} instead of a value.
+ */
+final class VM {
+
+  private VM() {}
+
+  static Object run(Interpreter interpreter, Chunk chunk, Environment scope,
+                    List<Object> arguments) {
+    Object[] slots = new Object[chunk.slotCount];
+    for (int i = 0; i < arguments.size(); i++) {
+      slots[i] = arguments.get(i);
+    }
+    return execute(interpreter, chunk, scope, null, slots, numbers(chunk),
+        new Object[chunk.maxStack], 0, 0);
+  }
+
+  // The unboxed half of a frame's slots, if its chunk has number slots.
+  static double[] numbers(Chunk chunk) {
+    return chunk.hasNumberSlots ? new double[chunk.slotCount] : null;
+  }
+
+  static Object execute(Interpreter interpreter, Chunk chunk, Environment scope,
+                        Environment[] frames, Object[] slots, double[] numbers, Object[] stack,
+                        int sp, int ip) {
+    int[] code = chunk.code;
+    Object[] constants = chunk.constants;
+    TraceRecorder recorder = interpreter.recorder == null
+        ? null : interpreter.recorder.enter(chunk);
+    OpcodeProfile profile = frames == null ? interpreter.opcodeProfile : null;
+
+    while (true) {
+      if (recorder != null && !recorder.record(chunk, ip, stack, sp)) {
+        recorder = null;
+      }
+      if (profile != null) {
+        profile.count(code, ip);
+      }
+
+      switch (code[ip++]) {
+        case OpCode.CONSTANT -> stack[sp++] = constants[code[ip++]];
+        case OpCode.NIL -> stack[sp++] = null;
+        case OpCode.TRUE -> stack[sp++] = true;
+        case OpCode.FALSE -> stack[sp++] = false;
+        case OpCode.POP -> sp--;
+        case OpCode.GET_LOCAL -> stack[sp++] = slots[code[ip++]];
+        case OpCode.SET_LOCAL -> slots[code[ip++]] = stack[sp - 1];
+        case OpCode.GET_ENV -> {
+          int depth = code[ip++];
+          Token name = (Token) constants[code[ip++]];
+          stack[sp++] = scope.getAt(depth, name.lexeme);
+        }
+        case OpCode.SET_ENV -> {
+          int depth = code[ip++];
+          Token name = (Token) constants[code[ip++]];
+          scope.assignAt(depth, name, stack[sp - 1]);
+        }
+        case OpCode.GET_STABLE_GLOBAL -> {
+          Token name = (Token) constants[code[ip++]];
+          GlobalEnvironment.Binding binding = (GlobalEnvironment.Binding) constants[code[ip++]];
+          // Until a deoptimized frame reaches its next back-edge.
+          stack[sp++] = binding.unchanged.isValid()
+              ? binding.value : interpreter.globals.get(name);
+        }
+        case OpCode.GET_GLOBAL ->
+            stack[sp++] = interpreter.globals.get((Token) constants[code[ip++]]);
+        case OpCode.SET_GLOBAL ->
+            interpreter.globals.assign((Token) constants[code[ip++]], stack[sp - 1]);
+        case OpCode.GET_PROPERTY -> {
+          Expr.Get node = (Expr.Get) constants[code[ip++]];
+          stack[sp - 1] = interpreter.getProperty(stack[sp - 1], node);
+        }
+        case OpCode.CHECK_INSTANCE -> {
+          Token name = (Token) constants[code[ip++]];
+          if (!(stack[sp - 1] instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+          }
+        }
+        case OpCode.SET_PROPERTY -> {
+          Token name = (Token) constants[code[ip++]];
+          Object value = stack[--sp];
+          ((LoxInstance) stack[sp - 1]).set(name, value);
+          stack[sp - 1] = value;
+        }
+        case OpCode.GET_SUPER -> {
+          Expr.Super node = (Expr.Super) constants[code[ip++]];
+          Environment thisScope = scope.ancestor(code[ip++]);
+          LoxFunction method = interpreter.superMethod(node, thisScope);
+          stack[sp++] = method.bind((LoxInstance) thisScope.getAt(0, "this"));
+        }
+        case OpCode.EQUAL -> {
+          Object right = stack[--sp];
+          stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], right);
+        }
+        case OpCode.NOT_EQUAL -> {
+          Object right = stack[--sp];
+          stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], right);
+        }
+        case OpCode.GREATER -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left > (double) right;
+        }
+        case OpCode.GREATER_EQUAL -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left >= (double) right;
+        }
+        case OpCode.LESS -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left < (double) right;
+        }
+        case OpCode.LESS_EQUAL -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left <= (double) right;
+        }
+        case OpCode.ADD -> {
+          Object right = stack[--sp];
+          stack[sp - 1] = add(constants[code[ip++]], stack[sp - 1], right);
+        }
+        case OpCode.SUBTRACT -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left - (double) right;
+        }
+        case OpCode.MULTIPLY -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left * (double) right;
+        }
+        case OpCode.DIVIDE -> {
+          Object right = stack[--sp];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left / (double) right;
+        }
+        case OpCode.NOT -> stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+        case OpCode.NEGATE -> {
+          Token operator = (Token) constants[code[ip++]];
+          if (!(stack[sp - 1] instanceof Double)) {
+            throw new RuntimeError(operator, "Operand must be a number.");
+          }
+          stack[sp - 1] = -(double) stack[sp - 1];
+        }
+        case OpCode.PRINT -> System.out.println(interpreter.stringify(stack[--sp]));
+        case OpCode.JUMP -> ip += code[ip] + 1;
+        case OpCode.JUMP_IF_FALSE -> {
+          ip += Interpreter.isTruthy(stack[sp - 1]) ? 1 : code[ip] + 1;
+        }
+        case OpCode.JUMP_IF_TRUE -> {
+          ip += Interpreter.isTruthy(stack[sp - 1]) ? code[ip] + 1 : 1;
+        }
+        case OpCode.LOOP -> {
+          int index = code[ip + 1];
+          HotLoop loop = chunk.loops[index];
+          ip -= code[ip] - 1;
+          if (chunk.invalidated) {
+            return Deoptimizer.resume(interpreter, chunk, loop.state, scope, slots, numbers);
+          }
+          if (loop.trace != null) {
+            TraceExit exit = loop.trace.run(interpreter, chunk, scope, slots, numbers, stack);
+            ip = exit.rootIp();
+            sp = exit.rootSp();
+          } else if (interpreter.recorder == null && interpreter.tiering.tracing
+              && !loop.blacklisted && ++loop.backEdges >= interpreter.tiering.traceThreshold
+              && sp == 0) {
+            recorder = TraceRecorder.start(interpreter, chunk, index);
+          }
+        }
+        case OpCode.CALL -> {
+          int argCount = code[ip++];
+          Expr.Call node = (Expr.Call) constants[code[ip++]];
+          List<Object> callArguments = popArguments(stack, sp, argCount);
+          sp -= argCount;
+          stack[sp - 1] = interpreter.callValue(stack[sp - 1], callArguments, node);
+          if (recorder != null) recorder.afterCall();
+        }
+        case OpCode.PREPARE_INVOKE -> {
+          Expr.Get node = (Expr.Get) constants[code[ip++]];
+          Object object = stack[sp - 1];
+          if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(node.name, "Only instances have properties.");
+          }
+
+          LoxInstance instance = (LoxInstance) object;
+          if (instance.hasField(node.name)) {
+            stack[sp - 1] = null;
+            stack[sp++] = instance.get(node.name);
+          } else {
+            stack[sp++] = interpreter.findMethod(instance, node);
+          }
+        }
+        case OpCode.PREPARE_SUPER -> {
+          Expr.Super node = (Expr.Super) constants[code[ip++]];
+          Environment thisScope = scope.ancestor(code[ip++]);
+          LoxFunction method = interpreter.superMethod(node, thisScope);
+          stack[sp++] = thisScope.getAt(0, "this");
+          stack[sp++] = method;
+        }
+        case OpCode.INVOKE -> {
+          int argCount = code[ip++];
+          Expr.Call node = (Expr.Call) constants[code[ip++]];
+          List<Object> callArguments = popArguments(stack, sp, argCount);
+          sp -= argCount + 1;
+          Object receiver = stack[sp - 1];
+          Object callee = stack[sp];
+          stack[sp - 1] = receiver == null
+              ? interpreter.callValue(callee, callArguments, node)
+              : interpreter.callMethod((LoxInstance) receiver, (LoxFunction) callee,
+                  callArguments, node);
+          if (recorder != null) recorder.afterCall();
+        }
+        case OpCode.RETURN -> {
+          if (chunk.isInitializer) {
+            return scope.getAt(0, "this");
+          }
+          return stack[sp - 1];
+        }
+        case OpCode.THROW_RETURN -> throw new Return(stack[sp - 1]);
+        case OpCode.FRAME_GET_ENV -> {
+          Environment frame = frames[code[ip++]];
+          int depth = code[ip++];
+          Token name = (Token) constants[code[ip++]];
+          stack[sp++] = frame.getAt(depth, name.lexeme);
+        }
+        case OpCode.FRAME_SET_ENV -> {
+          Environment frame = frames[code[ip++]];
+          int depth = code[ip++];
+          Token name = (Token) constants[code[ip++]];
+          frame.assignAt(depth, name, stack[sp - 1]);
+        }
+        case OpCode.FRAME_GET_SUPER -> {
+          Environment frame = frames[code[ip++]];
+          Expr.Super node = (Expr.Super) constants[code[ip++]];
+          Environment thisScope = frame.ancestor(code[ip++]);
+          LoxFunction method = interpreter.superMethod(node, thisScope);
+          stack[sp++] = method.bind((LoxInstance) thisScope.getAt(0, "this"));
+        }
+        case OpCode.FRAME_PREPARE_SUPER -> {
+          Environment frame = frames[code[ip++]];
+          Expr.Super node = (Expr.Super) constants[code[ip++]];
+          Environment thisScope = frame.ancestor(code[ip++]);
+          LoxFunction method = interpreter.superMethod(node, thisScope);
+          stack[sp++] = thisScope.getAt(0, "this");
+          stack[sp++] = method;
+        }
+        case OpCode.GUARD_TRUTHY -> {
+          if (!Interpreter.isTruthy(stack[sp - 1])) return constants[code[ip]];
+          ip++;
+        }
+        case OpCode.GUARD_FALSY -> {
+          if (Interpreter.isTruthy(stack[sp - 1])) return constants[code[ip]];
+          ip++;
+        }
+        case OpCode.GUARD_METHOD -> {
+          Expr.Get node = (Expr.Get) constants[code[ip]];
+          if (!(stack[sp - 1] instanceof LoxInstance instance)
+              || instance.klass != constants[code[ip + 1]] || instance.hasField(node.name)) {
+            return constants[code[ip + 3]];
+          }
+          stack[sp++] = constants[code[ip + 2]];
+          ip += 4;
+        }
+        case OpCode.ENTER -> {
+          int argCount = code[ip];
+          int mode = code[ip + 1];
+          int calleeIndex = sp - 1 - argCount;
+          Object receiver = mode == OpCode.ENTER_FUNCTION ? null : stack[calleeIndex - 1];
+          if (!(stack[calleeIndex] instanceof LoxFunction function)
+              || function.declaration() != constants[code[ip + 2]]
+              || (mode == OpCode.ENTER_METHOD) != (receiver != null)) {
+            return constants[code[ip + 6]];
+          }
+
+          int slotBase = code[ip + 4];
+          int slotCount = code[ip + 5];
+          Environment calleeScope = function.closure();
+          if (receiver != null) {
+            calleeScope = new Environment(calleeScope);
+            calleeScope.define("this", receiver);
+            slots[slotBase + slotCount] = receiver;
+          }
+          frames[code[ip + 3]] = calleeScope;
+
+          System.arraycopy(stack, calleeIndex + 1, slots, slotBase, argCount);
+          Arrays.fill(slots, slotBase + argCount, slotBase + slotCount, null);
+          sp = mode == OpCode.ENTER_FUNCTION ? calleeIndex : calleeIndex - 1;
+          ip += 7;
+        }
+        case OpCode.LEAVE -> {
+          Object value = code[ip + 2] == 1
+              ? frames[code[ip]].getAt(0, "this") : stack[sp - 1];
+          sp = code[ip + 1];
+          stack[sp++] = value;
+          ip += 3;
+        }
+        case OpCode.GET_FIELD -> {
+          Expr.Get node = (Expr.Get) constants[code[ip]];
+          if (!(stack[sp - 1] instanceof LoxInstance instance)) return constants[code[ip + 1]];
+          Object value = instance.field(node.name);
+          if (value == null && !instance.hasField(node.name)) return constants[code[ip + 1]];
+          stack[sp - 1] = value;
+          ip += 2;
+        }
+        case OpCode.TRACE_LOOP -> {
+          ((Trace) constants[code[ip]]).iterations++;
+          ip = 0;
+        }
+        case OpCode.SET_LOCAL_POP -> slots[code[ip++]] = stack[--sp];
+        case OpCode.SET_ENV_POP -> {
+          int depth = code[ip++];
+          Token name = (Token) constants[code[ip++]];
+          scope.assignAt(depth, name, stack[--sp]);
+        }
+        case OpCode.POP_GET_LOCAL -> stack[sp - 1] = slots[code[ip++]];
+        case OpCode.GET_LOCAL_GET_LOCAL -> {
+          stack[sp++] = slots[code[ip++]];
+          stack[sp++] = slots[code[ip++]];
+        }
+        case OpCode.GET_LOCAL_CONSTANT -> {
+          stack[sp++] = slots[code[ip++]];
+          stack[sp++] = constants[code[ip++]];
+        }
+        case OpCode.CONSTANT_ADD -> {
+          Object right = constants[code[ip++]];
+          stack[sp - 1] = add(constants[code[ip++]], stack[sp - 1], right);
+        }
+        case OpCode.CONSTANT_SUBTRACT -> {
+          Object right = constants[code[ip++]];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left - (double) right;
+        }
+        case OpCode.GET_LOCAL_ADD -> {
+          Object right = slots[code[ip++]];
+          stack[sp - 1] = add(constants[code[ip++]], stack[sp - 1], right);
+        }
+        case OpCode.GET_LOCAL_MULTIPLY -> {
+          Object right = slots[code[ip++]];
+          Object left = stack[sp - 1];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp - 1] = (double) left * (double) right;
+        }
+        case OpCode.GET_LOCAL_CONSTANT_ADD -> {
+          Object left = slots[code[ip++]];
+          Object right = constants[code[ip++]];
+          stack[sp++] = add(constants[code[ip++]], left, right);
+        }
+        case OpCode.GET_LOCAL_CONSTANT_SUBTRACT -> {
+          Object left = slots[code[ip++]];
+          Object right = constants[code[ip++]];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp++] = (double) left - (double) right;
+        }
+        case OpCode.GET_LOCAL_CONSTANT_LESS -> {
+          Object left = slots[code[ip++]];
+          Object right = constants[code[ip++]];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp++] = (double) left < (double) right;
+        }
+        case OpCode.GET_LOCAL_GET_LOCAL_MULTIPLY -> {
+          Object left = slots[code[ip++]];
+          Object right = slots[code[ip++]];
+          checkNumbers(constants[code[ip++]], left, right);
+          stack[sp++] = (double) left * (double) right;
+        }
+        case OpCode.ADD_SET_LOCAL_POP -> {
+          Object right = stack[--sp];
+          Object left = stack[--sp];
+          Object sum = add(constants[code[ip++]], left, right);
+          slots[code[ip++]] = sum;
+        }
+        case OpCode.GET_NUMBER -> stack[sp++] = getNumber(slots, numbers, code[ip++]);
+        case OpCode.SET_NUMBER -> setNumber(slots, numbers, code[ip++], stack[sp - 1]);
+        case OpCode.NUMBER_MOVE -> {
+          int a = code[ip + 1];
+          if (isNumber(slots, constants, stack, sp, a)) {
+            putNumber(slots, numbers, code[ip], number(numbers, constants, stack, sp, a));
+          } else {
+            setNumber(slots, numbers, code[ip], boxed(slots, numbers, constants, stack, sp, a));
+          }
+          if (a == OpCode.STACK) sp--;
+          ip += 2;
+        }
+        case OpCode.NUMBER_ADD -> {
+          int a = code[ip + 1];
+          int b = code[ip + 2];
+          if (isNumber(slots, constants, stack, sp, a)
+              && isNumber(slots, constants, stack, sp, b)) {
+            putNumber(slots, numbers, code[ip], number(numbers, constants, stack, sp, a)
+                + number(numbers, constants, stack, sp, b));
+          } else {
+            setNumber(slots, numbers, code[ip], add(constants[code[ip + 3]],
+                boxed(slots, numbers, constants, stack, sp, a),
+                boxed(slots, numbers, constants, stack, sp, b)));
+          }
+          if (a == OpCode.STACK || b == OpCode.STACK) sp--;
+          ip += 4;
+        }
+        case OpCode.NUMBER_SUBTRACT, OpCode.NUMBER_MULTIPLY, OpCode.NUMBER_DIVIDE -> {
+          int op = code[ip - 1];
+          int a = code[ip + 1];
+          int b = code[ip + 2];
+          double left;
+          double right;
+          if (isNumber(slots, constants, stack, sp, a)
+              && isNumber(slots, constants, stack, sp, b)) {
+            left = number(numbers, constants, stack, sp, a);
+            right = number(numbers, constants, stack, sp, b);
+          } else {
+            Object boxedLeft = boxed(slots, numbers, constants, stack, sp, a);
+            Object boxedRight = boxed(slots, numbers, constants, stack, sp, b);
+            checkNumbers(constants[code[ip + 3]], boxedLeft, boxedRight);
+            left = (double) boxedLeft;
+            right = (double) boxedRight;
+          }
+          putNumber(slots, numbers, code[ip], op == OpCode.NUMBER_SUBTRACT ? left - right
+              : op == OpCode.NUMBER_MULTIPLY ? left * right : left / right);
+          if (a == OpCode.STACK || b == OpCode.STACK) sp--;
+          ip += 4;
+        }
+        case OpCode.NUMBER_NEGATE -> {
+          int a = code[ip + 1];
+          double value;
+          if (isNumber(slots, constants, stack, sp, a)) {
+            value = number(numbers, constants, stack, sp, a);
+          } else {
+            Object operand = boxed(slots, numbers, constants, stack, sp, a);
+            if (!(operand instanceof Double)) {
+              throw new RuntimeError((Token) constants[code[ip + 2]], "Operand must be a number.");
+            }
+            value = (double) operand;
+          }
+          putNumber(slots, numbers, code[ip], -value);
+          if (a == OpCode.STACK) sp--;
+          ip += 3;
+        }
+        case OpCode.NUMBER_GREATER, OpCode.NUMBER_GREATER_EQUAL, OpCode.NUMBER_LESS,
+             OpCode.NUMBER_LESS_EQUAL -> {
+          int op = code[ip - 1];
+          int a = code[ip];
+          int b = code[ip + 1];
+          double left;
+          double right;
+          if (isNumber(slots, constants, stack, sp, a)
+              && isNumber(slots, constants, stack, sp, b)) {
+            left = number(numbers, constants, stack, sp, a);
+            right = number(numbers, constants, stack, sp, b);
+          } else {
+            Object boxedLeft = boxed(slots, numbers, constants, stack, sp, a);
+            Object boxedRight = boxed(slots, numbers, constants, stack, sp, b);
+            checkNumbers(constants[code[ip + 2]], boxedLeft, boxedRight);
+            left = (double) boxedLeft;
+            right = (double) boxedRight;
+          }
+          if (a == OpCode.STACK || b == OpCode.STACK) sp--;
+          stack[sp++] = switch (op) {
+            case OpCode.NUMBER_GREATER -> left > right;
+            case OpCode.NUMBER_GREATER_EQUAL -> left >= right;
+            case OpCode.NUMBER_LESS -> left < right;
+            default -> left <= right;
+          };
+          ip += 3;
+        }
+        default -> throw new IllegalStateException("Unknown opcode " + code[ip - 1]);
+      }
+    }
+  }
+
+  // A number slot keeps its value in numbers while it is a number, with
+  // null in slots. Anything else stored in it moves to slots, nil as
+  // NIL_SLOT, until the next number is stored.
+  private static final Object NIL_SLOT = new Object();
+
+  static Object getNumber(Object[] slots, double[] numbers, int slot) {
+    Object value = slots[slot];
+    if (value == null) return numbers[slot];
+    return value == NIL_SLOT ? null : value;
+  }
+
+  static void setNumber(Object[] slots, double[] numbers, int slot, Object value) {
+    if (value instanceof Double number) {
+      putNumber(slots, numbers, slot, number);
+    } else {
+      slots[slot] = value == null ? NIL_SLOT : value;
+    }
+  }
+
+  private static void putNumber(Object[] slots, double[] numbers, int slot, double value) {
+    numbers[slot] = value;
+    slots[slot] = null;
+  }
+
+  private static boolean isNumber(Object[] slots, Object[] constants, Object[] stack, int sp,
+                                  int operand) {
+    if (operand >= 0) return slots[operand] == null;
+    return (operand == OpCode.STACK ? stack[sp - 1] : constants[~operand]) instanceof Double;
+  }
+
+  private static double number(double[] numbers, Object[] constants, Object[] stack, int sp,
+                               int operand) {
+    if (operand >= 0) return numbers[operand];
+    return (double) (operand == OpCode.STACK ? stack[sp - 1] : constants[~operand]);
+  }
+
+  private static Object boxed(Object[] slots, double[] numbers, Object[] constants,
+                              Object[] stack, int sp, int operand) {
+    if (operand >= 0) return getNumber(slots, numbers, operand);
+    return operand == OpCode.STACK ? stack[sp - 1] : constants[~operand];
+  }
+
+  private static List<Object> popArguments(Object[] stack, int sp, int argCount) {
+    List<Object> arguments = new ArrayList<>(argCount);
+    for (int i = sp - argCount; i < sp; i++) {
+      arguments.add(stack[i]);
+    }
+    return arguments;
+  }
+
+  private static Object add(Object operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    } else if (left instanceof String && right instanceof String) {
+      return (String) left + (String) right;
+    }
+    throw new RuntimeError((Token) operator, "Operands must be two numbers or two strings.");
+  }
+
+  private static void checkNumbers(Object operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) {
+      return;
+    }
+    throw new RuntimeError((Token) operator, "Operands must be numbers.");
+  }
+}
@@ -16,16 +16,16 @@ public class GenerateAst {
 
         defineAst(outputDir, "Expr", Arrays.asList(
                 "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Binary   : Expr left, Token operator, Expr right; boolean provenNumeric, int temporary, int invariant",
+                "Call     : Expr callee, Token paren, List<Expr> arguments; Stmt.Function inlined",
+                "Get      : Expr object, Token name; int temporary, int invariant",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
                 "Set      : Expr object, Token name, Expr value",
                 "Super    : Token keyword, Token method",
                 "This     : Token keyword",
-                "Unary    : Token operator, Expr right",
+                "Unary    : Token operator, Expr right; boolean provenNumeric",
                 "Variable : Token name"
         ));
         defineAst(outputDir, "Stmt", Arrays.asList(
@@ -39,7 +39,7 @@ public class GenerateAst {
                 "Print : Expr expression",
                 "Return : Token keyword, Expr value",
                 "Var : Token name, Expr initializer",
-                "While : Expr condition, Stmt body"
+                "While : Token keyword, Expr condition, Stmt body, Token counter; int invariants"
         ));
     }
 
@@ -53,7 +53,14 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        // Sealed, so consumers can dispatch with an exhaustive switch over
+        // the node types instead of going through accept().
+        writer.print("abstract sealed class " + baseName + " permits ");
+        for (int i = 0; i < types.size(); i++) {
+            String className = types.get(i).split(":")[0].trim();
+            writer.print((i > 0 ? ", " : "") + baseName + "." + className);
+        }
+        writer.println(" {");
 
         defineVisitor(writer, baseName, types);
 
@@ -85,10 +92,15 @@ public class GenerateAst {
         writer.println("  }");
     }
 
+    // Fields after a ';' are left out of the constructor and are not final,
+    // for passes over the finished tree to fill in.
     private static void defineType(
             PrintWriter writer, String baseName,
             String className, String fieldList) {
-        writer.println("  static class " + className + " extends "
+        String[] parts = fieldList.split(";");
+        fieldList = parts[0].trim();
+
+        writer.println("  static final class " + className + " extends "
                 + baseName + " {");
 
         // Constructor.
@@ -116,6 +128,11 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println("    final " + field + ";");
         }
+        if (parts.length > 1) {
+            for (String field : parts[1].trim().split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
 
         writer.println("  }");
     }
@@ -0,0 +1,113 @@
+package io.codecrafters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares a program run with {@code run} against the same program compiled
+ * with {@code compile} and run as a JAR: the wall time of a whole process
+ * that only prints, for startup, and of one doing real work, for which the
+ * program also reports how long its last of several rounds took once
+ * warmed up.
+ *
+ * <p>Not a unit test; run it by hand after {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/classes:target/test-classes io.codecrafters.lox.CompiledJarBenchmark
+ * </pre>
+ */
+class CompiledJarBenchmark {
+
+    private static final String STARTUP = """
+        print "hello";
+        """;
+
+    private static final String THROUGHPUT = """
+        fun fib(n) {
+          if (n < 2) return n;
+          return fib(n - 1) + fib(n - 2);
+        }
+
+        class Point {
+          init(x, y) {
+            this.x = x;
+            this.y = y;
+          }
+
+          norm() {
+            return this.x * this.x + this.y * this.y;
+          }
+        }
+
+        fun work() {
+          var total = 0;
+          for (var i = 0; i < 100000; i = i + 1) {
+            var p = Point(i, i + 1);
+            total = total + p.norm() - i * 2;
+          }
+          return total + fib(25);
+        }
+
+        var last = 0;
+        for (var round = 0; round < 5; round = round + 1) {
+          var start = clock();
+          work();
+          last = clock() - start;
+        }
+        print last;
+        """;
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("lox-bench");
+        measure("startup", STARTUP, dir);
+        measure("throughput", THROUGHPUT, dir);
+    }
+
+    private static void measure(String name, String source, Path dir) throws Exception {
+        Path file = dir.resolve(name + ".lox");
+        Path jar = dir.resolve(name + ".jar");
+        Files.writeString(file, source);
+
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+        JarCompiler.compile(statements, interpreter, jar);
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> run = List.of(java, "-cp", System.getProperty("java.class.path"),
+            "io.codecrafters.lox.Main", "run", file.toString());
+        List<String> compiled = List.of(java, "-jar", jar.toString());
+
+        // Alternate the two so neither runs on a machine warmed up by the
+        // other, and keep the best round of each.
+        Result bestRun = null;
+        Result bestCompiled = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            bestRun = Result.best(bestRun, time(run));
+            bestCompiled = Result.best(bestCompiled, time(compiled));
+        }
+
+        System.out.printf("%-10s run: %8.1f ms (%s)%n", name, bestRun.millis, bestRun.output);
+        System.out.printf("%-10s jar: %8.1f ms (%s)%n", name, bestCompiled.millis,
+            bestCompiled.output);
+    }
+
+    private record Result(double millis, String output) {
+        static Result best(Result a, Result b) {
+            return a == null || b.millis < a.millis ? b : a;
+        }
+    }
+
+    private static Result time(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(new ArrayList<>(command))
+            .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes()).trim();
+        process.waitFor();
+        return new Result((System.nanoTime() - start) / 1e6, output);
+    }
+}
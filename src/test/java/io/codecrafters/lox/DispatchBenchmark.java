@@ -0,0 +1,104 @@
+package io.codecrafters.lox;
+
+import java.util.List;
+
+/**
+ * Compares the {@code accept(Visitor)} double dispatch in
+ * {@link Interpreter#evaluate} with a switch over the sealed node types on
+ * the same program, in steady state and on the first run in a fresh JVM.
+ *
+ * <p>Not a unit test; run it by hand after {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/classes:target/test-classes io.codecrafters.lox.DispatchBenchmark
+ * </pre>
+ * On JDK 21 the two are at parity in steady state, while the switch's
+ * first run pays for bootstrapping {@code typeSwitch}, which is why
+ * evaluate uses accept.
+ */
+class DispatchBenchmark {
+
+    private static final String PROGRAM = """
+        fun fib(n) {
+          if (n < 2) return n;
+          return fib(n - 1) + fib(n - 2);
+        }
+
+        class Point {
+          init(x, y) {
+            this.x = x;
+            this.y = y;
+          }
+
+          norm() {
+            return this.x * this.x + this.y * this.y;
+          }
+        }
+
+        var total = 0;
+        for (var i = 0; i < 20000; i = i + 1) {
+          var p = Point(i, i + 1);
+          total = total + p.norm() - i * 2;
+        }
+        total = total + fib(22);
+        """;
+
+    private static final int ROUNDS = 5;
+    private static final int ITERATIONS = 10;
+
+    /** Dispatches every expression through a switch over the node types. */
+    private static final class SwitchInterpreter extends Interpreter {
+        @Override
+        Object evaluate(Expr expr) {
+            return switch (expr) {
+                case Expr.Assign e -> visitAssignExpr(e);
+                case Expr.Binary e -> visitBinaryExpr(e);
+                case Expr.Call e -> visitCallExpr(e);
+                case Expr.Get e -> visitGetExpr(e);
+                case Expr.Grouping e -> visitGroupingExpr(e);
+                case Expr.Literal e -> visitLiteralExpr(e);
+                case Expr.Logical e -> visitLogicalExpr(e);
+                case Expr.Set e -> visitSetExpr(e);
+                case Expr.Super e -> visitSuperExpr(e);
+                case Expr.This e -> visitThisExpr(e);
+                case Expr.Unary e -> visitUnaryExpr(e);
+                case Expr.Variable e -> visitVariableExpr(e);
+            };
+        }
+    }
+
+    public static void main(String[] args) {
+        List<Stmt> statements = new Parser(new Scanner(PROGRAM).scanTokens()).parse();
+
+        // Pass "switch" to time the switch's first run instead of accept's;
+        // each needs a JVM of its own.
+        boolean firstSwitch = args.length > 0 && args[0].equals("switch");
+        System.out.printf("%s dispatch, first run: %8.2f ms%n",
+            firstSwitch ? "switch" : "accept", measure(statements, !firstSwitch, 1));
+
+        // Alternate the two modes so neither benefits from running after the
+        // other has warmed up shared code, and keep the best round of each.
+        double bestSwitch = Double.MAX_VALUE;
+        double bestAccept = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            bestSwitch = Math.min(bestSwitch, measure(statements, false, ITERATIONS));
+            bestAccept = Math.min(bestAccept, measure(statements, true, ITERATIONS));
+        }
+
+        System.out.printf("switch dispatch: %8.2f ms/run%n", bestSwitch);
+        System.out.printf("accept dispatch: %8.2f ms/run%n", bestAccept);
+    }
+
+    private static double measure(List<Stmt> statements, boolean useAccept, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            runOnce(statements, useAccept);
+        }
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+
+    private static void runOnce(List<Stmt> statements, boolean useAccept) {
+        Interpreter interpreter = useAccept ? new Interpreter() : new SwitchInterpreter();
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+    }
+}
@@ -2,13 +2,20 @@ package io.codecrafters.lox;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class IntegrationTest {
 
@@ -50,6 +57,108 @@ class IntegrationTest {
         return interpreter.evaluate(exprStmt.expression);
     }
 
+    // Runs source with every function compiled to bytecode on its first
+    // call, on the calling thread, so tests see the compiled tier at once.
+    private void runCompiled(String source, boolean trace) {
+        runTiered(source, new Tiering(true, 1, 1, false, trace));
+    }
+
+    // Runs source under tiering, compiling on the calling thread.
+    private void runTiered(String source, Tiering tiering) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(tiering);
+        new Resolver(interpreter).resolve(statements);
+        try {
+            interpreter.interpret(statements);
+        } catch (RuntimeError error) {
+            System.err.println(error.getMessage());
+            System.err.println("[line " + error.token.line + "]");
+        }
+    }
+
+    // Runs source with the profile at path seeding and recording the run,
+    // compiling code once it has seen threshold calls or back-edges.
+    private void runProfiled(String source, Path path, int threshold) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(new Tiering(true, threshold, threshold, false, true));
+        new Resolver(interpreter).resolve(statements);
+        ProfileStore store = ProfileStore.open(path, source, statements);
+        store.seed(interpreter);
+        interpreter.interpret(statements);
+        store.save(interpreter);
+    }
+
+    // Runs source on the method handle engine, reporting errors as Main does.
+    private void runHandles(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+        try {
+            HandleCompiler.compile(statements, interpreter).run();
+        } catch (RuntimeError error) {
+            System.err.println(error.getMessage());
+            System.err.println("[line " + error.token.line + "]");
+        }
+    }
+
+    // Compiles the function declared first in source to bytecode, with or
+    // without superinstructions.
+    private Chunk compileFirstFunction(String source, boolean superinstructions) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(new Tiering(true, 1, 1, false, false, false,
+            Tiering.DEFAULT_TRACE_THRESHOLD, superinstructions));
+        new Resolver(interpreter).resolve(statements);
+        Stmt.Function function = (Stmt.Function) statements.get(0);
+        return interpreter.functionProfile(function.name.lexeme, function.params, function.body, false)
+            .compile(interpreter);
+    }
+
+    // Runs source in the tree-walker, then compiles its first function with
+    // the store feedback the run left behind.
+    private Chunk compileAfterRunning(String source, boolean numberSlots) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(new Tiering(true, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, false, false, false, Tiering.DEFAULT_TRACE_THRESHOLD, true,
+            numberSlots));
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+        Stmt.Function function = (Stmt.Function) statements.get(0);
+        return interpreter.functionProfile(function.name.lexeme, function.params, function.body, false)
+            .compile(interpreter);
+    }
+
+    private static boolean contains(Chunk chunk, int op) {
+        for (int ip = 0; ip < chunk.code.length; ip += 1 + OpCode.OPERANDS[chunk.code[ip]]) {
+            if (chunk.code[ip] == op) return true;
+        }
+        return false;
+    }
+
+    // Compiles source for the register VM.
+    private RegisterCompiler.Program compileRegisters(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+        return RegisterCompiler.compile(statements, interpreter);
+    }
+
+    // Compiles source to a JAR in dir, runs it in a new JVM and returns its
+    // exit code, with its stdout and stderr written to outContent and
+    // errContent as if it had run here.
+    private int runJar(String source, Path dir) throws Exception {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+        Path jar = dir.resolve("program.jar");
+        JarCompiler.compile(statements, interpreter, jar);
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-jar", jar.toString()).start();
+        outContent.write(process.getInputStream().readAllBytes());
+        errContent.write(process.getErrorStream().readAllBytes());
+        return process.waitFor();
+    }
+
     @Test
     void itShouldHandlePrintStatementWithExpression(){
         Main.run(
@@ -1148,4 +1257,1378 @@ class IntegrationTest {
         assertThat(errContent.toString()).contains("Expect '.' after 'super'.");
         assertThat(Main.hadError).isTrue();
     }
+
+    @Test
+    void itShouldChainSuperInitializers() {
+        Main.run(
+            """
+            class A {
+              init(x) {
+                this.x = x;
+              }
+            }
+
+            class B < A {
+              init(x, y) {
+                super.init(x);
+                this.y = y;
+              }
+            }
+
+            class C < B {
+              init(x, y, z) {
+                super.init(x, y);
+                this.z = z;
+              }
+            }
+
+            var c = C(1, 2, 3);
+            print c.x + c.y + c.z;
+            print c.init(4, 5, 6) == c;
+            print c.x;
+            """
+        );
+        String[] lines = outContent.toString().split("\n");
+        assertThat(lines[0].trim()).isEqualTo("6");
+        assertThat(lines[1].trim()).isEqualTo("true");
+        assertThat(lines[2].trim()).isEqualTo("4");
+    }
+
+    @Test
+    void itShouldResolveSuperAgainstEachDefinitionOfTheClass() {
+        Main.run(
+            """
+            class A {
+              name() { return "A"; }
+            }
+
+            class B {
+              name() { return "B"; }
+            }
+
+            fun make(base) {
+              class Sub < base {
+                name() { return "Sub of " + super.name(); }
+              }
+              return Sub();
+            }
+
+            print make(A).name();
+            print make(B).name();
+            var m = make(A).name;
+            print m();
+            """
+        );
+        String[] lines = outContent.toString().split("\n");
+        assertThat(lines[0].trim()).isEqualTo("Sub of A");
+        assertThat(lines[1].trim()).isEqualTo("Sub of B");
+        assertThat(lines[2].trim()).isEqualTo("Sub of A");
+    }
+
+    @Test
+    void itShouldThrowRuntimeErrorForUndefinedSuperMethod() {
+        Main.run(
+            """
+            class A {}
+
+            class B < A {
+              method() {
+                super.missing(1);
+              }
+            }
+
+            B().method();
+            """
+        );
+        assertThat(errContent.toString()).contains("Undefined property 'missing'.");
+        assertThat(errContent.toString()).contains("[line 5]");
+        assertThat(Main.hadRuntimeError).isTrue();
+    }
+
+    @Test
+    void itShouldKeepResultsWhenPolymorphicHelpersAreSplitPerCallSite() {
+        Main.run(
+            """
+            class Shape {
+              describe() { return "shape"; }
+            }
+
+            class Circle < Shape {
+              init(r) { this.r = r; }
+              area() { return 3 * this.r * this.r; }
+              describe() { return "circle of " + super.describe(); }
+            }
+
+            class Square < Shape {
+              init(s) { this.s = s; }
+              area() { return this.s * this.s; }
+            }
+
+            fun area(shape) {
+              return shape.area();
+            }
+
+            var circles = 0;
+            var squares = 0;
+            for (var i = 0; i < 300; i = i + 1) {
+              circles = circles + area(Circle(1));
+              squares = squares + area(Square(2));
+            }
+            print circles;
+            print squares;
+
+            var c = Circle(1);
+            for (var i = 0; i < 300; i = i + 1) {
+              area(Square(1));
+              area(c);
+            }
+            c.area = area;
+            print c.area(Square(3));
+            print c.describe();
+            """
+        );
+        String[] lines = outContent.toString().split("\n");
+        assertThat(lines[0].trim()).isEqualTo("900");
+        assertThat(lines[1].trim()).isEqualTo("1200");
+        assertThat(lines[2].trim()).isEqualTo("9");
+        assertThat(lines[3].trim()).isEqualTo("circle of shape");
+    }
+
+    @Test
+    void itShouldProduceTheSameOutputFromCompiledFunctions() {
+        String source = """
+            var greeting = "hi";
+            var calls = 0;
+
+            fun fib(n) {
+              if (n < 2) return n;
+              return fib(n - 1) + fib(n - 2);
+            }
+
+            fun countdown(n) {
+              var out = "";
+              while (n > 0) {
+                var n2 = n;
+                {
+                  var n = n2 - 1;
+                  out = out + "." ;
+                  n2 = n;
+                }
+                n = n2;
+                calls = calls + 1;
+              }
+              return out + greeting;
+            }
+
+            class Counter {
+              init(start) { this.count = start; }
+              add(n) { this.count = this.count + n; return this; }
+            }
+
+            class Named < Counter {
+              init(name) { super.init(0); this.name = name; }
+              add(n) { super.add(n * 2); return this; }
+              show() { return this.count; }
+            }
+
+            fun both(a, b) { return a and b or !a and !b; }
+
+            for (var i = 0; i < 3; i = i + 1) {
+              print fib(i + 10);
+              print countdown(i + 1);
+              print Named("c").add(i).add(1).show();
+              print both(i == 1, nil) == both(false, i != 1);
+            }
+            print calls;
+            """;
+
+        Main.run(source);
+        String interpreted = outContent.toString();
+        outContent.reset();
+
+        runCompiled(source, false);
+        assertThat(outContent.toString()).isEqualTo(interpreted);
+        assertThat(errContent.toString()).isEmpty();
+    }
+
+    @Test
+    void itShouldReportRuntimeErrorsFromCompiledFunctions() {
+        runCompiled(
+            """
+            fun add(a, b) {
+              return a + b;
+            }
+
+            print add(1, 2);
+            print add("a", true);
+            """,
+            false
+        );
+        assertThat(outContent.toString().trim()).isEqualTo("3");
+        assertThat(errContent.toString()).contains("Operands must be two numbers or two strings.");
+        assertThat(errContent.toString()).contains("[line 2]");
+    }
+
+    @Test
+    void itShouldTraceTierUpEvents() {
+        runCompiled(
+            """
+            fun square(x) { return x * x; }
+            fun outer() {
+              fun inner() { return 1; }
+              return inner();
+            }
+            print square(3) + outer();
+            """,
+            true
+        );
+        assertThat(outContent.toString().trim()).isEqualTo("10");
+        assertThat(errContent.toString()).contains("[tier] square: compiled to");
+        assertThat(errContent.toString()).contains("[tier] outer: stays interpreted (declares function inner)");
+    }
+
+    @Test
+    void itShouldReplaceHotTopLevelLoopsWhileTheyRun() {
+        String source = """
+            var total = 0;
+            var i = 0;
+            while (i < 10) {
+              var step = i * 2;
+              {
+                var i = step + 1;
+                total = total + i;
+              }
+              i = i + 1;
+            }
+            print total;
+            print i;
+            """;
+
+        runCompiled(source, true);
+        String[] lines = outContent.toString().split("\n");
+        assertThat(lines[0].trim()).isEqualTo("100");
+        assertThat(lines[1].trim()).isEqualTo("10");
+        assertThat(errContent.toString()).contains("[tier] loop at line 3: entering compiled loop after 1 back-edges");
+    }
+
+    @Test
+    void itShouldReturnFromCompiledLoopsInInterpretedFunctions() {
+        runCompiled(
+            """
+            fun firstSquareAbove(limit) {
+              fun step() { return 1; }
+              var i = 0;
+              while (true) {
+                if (i * i > limit) return i;
+                i = i + step();
+              }
+            }
+
+            print firstSquareAbove(50);
+            print firstSquareAbove(1000);
+            """,
+            false
+        );
+        String[] lines = outContent.toString().split("\n");
+        assertThat(lines[0].trim()).isEqualTo("8");
+        assertThat(lines[1].trim()).isEqualTo("32");
+    }
+
+    @Test
+    void itShouldLeaveTracesWhenTheirGuardsFail() {
+        String source = """
+            class Shape {
+              init(size) { this.size = size; }
+              area() { return this.size * this.size; }
+              scaled(k) { return this.area() * k; }
+            }
+            class Circle < Shape {
+              area() { return 3 * super.area(); }
+            }
+            fun pick(i, a, b) {
+              if (i < 150 or i >= 250) return a;
+              return b;
+            }
+            fun tenfold(k) { return k * 10; }
+            var square = Shape(2);
+            var circle = Circle(2);
+            var total = 0;
+            for (var i = 0; i < 300; i = i + 1) {
+              var shape = pick(i, square, circle);
+              if (i == 270) square.scaled = tenfold;
+              total = total + shape.scaled(2) + shape.size;
+            }
+            print total;
+            """;
+
+        runCompiled(source, true);
+        assertThat(outContent.toString().trim()).isEqualTo("4960");
+        assertThat(errContent.toString()).contains("[tier] trace for loop at line 17: recorded");
+        assertThat(errContent.toString()).contains("[tier] trace for loop at line 17: discarded");
+    }
+
+    @Test
+    void itShouldNotInlineACalleeThatRanInTheTreeWalker() {
+        // Once area() goes polymorphic, describe() is split into a copy that
+        // is still interpreted, and only its call to super.area() reaches
+        // the VM while the trace waits for describe() to be entered.
+        String source = """
+            class Shape {
+              init(size) { this.size = size; }
+              area() { return this.size * this.size; }
+              describe() { return this.area() + 1; }
+            }
+            class Circle < Shape {
+              area() { return 3 * super.area(); }
+            }
+            var square = Shape(2);
+            var circle = Circle(3);
+            fun measure(count) {
+              var total = 0;
+              for (var i = 0; i < count; i = i + 1) {
+                if (i < count / 2) total = total + square.describe();
+                else total = total + circle.describe();
+              }
+              return total;
+            }
+            print measure(1000);
+            """;
+
+        runTiered(source, new Tiering(true, Tiering.DEFAULT_INVOCATION_THRESHOLD, 1, false, true));
+        assertThat(outContent.toString().trim()).isEqualTo("16500");
+        assertThat(errContent.toString()).contains("aborted, entered area instead of describe");
+    }
+
+    @Test
+    void itShouldReportRuntimeErrorsRaisedInsideTraces() {
+        runCompiled(
+            """
+            fun half(n) {
+              if (n == 120) return "oops";
+              return n / 2;
+            }
+            var total = 0;
+            for (var i = 0; i < 200; i = i + 1) {
+              total = total + half(i) * 2;
+            }
+            print total;
+            """,
+            true
+        );
+        assertThat(outContent.toString()).isEmpty();
+        assertThat(errContent.toString()).contains("[tier] trace for loop at line 6: recorded");
+        assertThat(errContent.toString()).contains("Operands must be numbers.\n[line 7]");
+    }
+
+    @Test
+    void itShouldDeoptimizeRunningFramesWhenAGlobalIsReassigned() {
+        String source = """
+            fun step(x) { return x + 1; }
+            fun other(x) { return x + 100; }
+            fun run(n) {
+              var total = 0;
+              var i = 0;
+              {
+                var scale = 2;
+                while (i < n) {
+                  total = step(total);
+                  if (i == 40) step = other;
+                  i = i + 1;
+                }
+                total = total * scale;
+              }
+              return total + i;
+            }
+            print run(10);
+            print run(80);
+            print run(80);
+            """;
+
+        runCompiled(source, true);
+        String[] lines = outContent.toString().split("\n");
+        assertThat(lines[0].trim()).isEqualTo("30");
+        assertThat(lines[1].trim()).isEqualTo("7962");
+        assertThat(lines[2].trim()).isEqualTo("16080");
+        assertThat(errContent.toString()).contains("[tier] run: deoptimized, assumed global 'step' keeps its value");
+    }
+
+    @Test
+    void itShouldDeoptimizeWhenAFunctionIsRedefined() {
+        runCompiled(
+            """
+            fun helper() { return "first"; }
+            fun callHelper() { return helper(); }
+            print callHelper();
+            print callHelper();
+            fun helper() { return "second"; }
+            print callHelper();
+            """,
+            true
+        );
+        String[] lines = outContent.toString().split("\n");
+        assertThat(lines[0].trim()).isEqualTo("first");
+        assertThat(lines[1].trim()).isEqualTo("first");
+        assertThat(lines[2].trim()).isEqualTo("second");
+        assertThat(errContent.toString()).contains("[tier] callHelper: deoptimized, assumed global 'helper' keeps its value");
+    }
+
+    @Test
+    void itShouldStartWarmFromASavedProfile(@TempDir Path dir) throws Exception {
+        String source = """
+            fun square(n) { return n * n; }
+            var total = 0;
+            for (var i = 0; i < 20; i = i + 1) { total = total + square(i); }
+            print total;
+            """;
+        Path profile = dir.resolve("squares.profile");
+
+        runProfiled(source, profile, 10);
+        assertThat(Files.readString(profile)).contains("hot-function", "hot-loop");
+        assertThat(errContent.toString()).doesNotContain("profile: seeded");
+
+        // Far too few calls to compile anything from a cold start.
+        errContent.reset();
+        runProfiled(source, profile, 1000);
+        String[] lines = outContent.toString().split("\n");
+        assertThat(lines[0].trim()).isEqualTo("2470");
+        assertThat(lines[1].trim()).isEqualTo("2470");
+        assertThat(errContent.toString()).contains(
+            "[tier] profile: seeded 1 functions, 1 loops",
+            "[tier] square: compiled",
+            "[tier] loop at line 3: entering compiled loop");
+    }
+
+    @Test
+    void itShouldIgnoreAProfileRecordedForOtherSource(@TempDir Path dir) throws Exception {
+        Path profile = dir.resolve("stale.profile");
+        Files.writeString(profile, "lox-profile 1 0000\nhot-function 0\n");
+
+        runProfiled("fun one() { return 1; }\nprint one();", profile, 1);
+        assertThat(outContent.toString().trim()).isEqualTo("1");
+        assertThat(errContent.toString()).contains("recorded for other source");
+        assertThat(Files.readString(profile)).doesNotStartWith("lox-profile 1 0000");
+    }
+
+    @Test
+    void itShouldPrintTheSameFromACompiledJarAsFromRun(@TempDir Path dir) throws Exception {
+        String source = """
+            class Shape {
+              init(name) { this.name = name; }
+              describe() { return this.name + " of area"; }
+            }
+            class Square < Shape {
+              init(side) { super.init("square"); this.side = side; }
+              area() { return this.side * this.side; }
+              describe() { return "a " + super.describe(); }
+            }
+            fun counter() {
+              var count = 0;
+              fun next() { count = count + 1; return count; }
+              return next;
+            }
+            var next = counter();
+            next();
+            print next();
+            print Square(3).describe();
+            print Square(3).area();
+            print Square;
+            print Square(1);
+            print counter;
+            print nil or "default";
+            print 10 / 4;
+            {
+              var shadowed = "outer";
+              { var shadowed = "inner"; print shadowed; }
+              print shadowed;
+            }
+            """;
+
+        Main.run(source);
+        String interpreted = outContent.toString();
+        outContent.reset();
+
+        assertThat(runJar(source, dir)).isEqualTo(0);
+        assertThat(outContent.toString()).isEqualTo(interpreted);
+        assertThat(errContent.toString()).isEmpty();
+    }
+
+    @Test
+    void itShouldFailFromACompiledJarLikeRunDoes(@TempDir Path dir) throws Exception {
+        int status = runJar(
+            """
+            fun describe(thing) { return "it is " + thing; }
+            print describe("here");
+            print describe(42);
+            print "never printed";
+            """,
+            dir
+        );
+        assertThat(status).isEqualTo(70);
+        assertThat(outContent.toString().trim()).isEqualTo("it is here");
+        assertThat(errContent.toString()).isEqualTo(
+            "Operands must be two numbers or two strings.\n[line 1]\n");
+    }
+
+    @Test
+    void itShouldRunClosuresAndClassesOnTheHandleEngine() {
+        String source = """
+            class Animal {
+              init(name) { this.name = name; }
+              speak() { return this.name + " makes a sound"; }
+            }
+            class Dog < Animal {
+              speak() { return super.speak() + ", woof"; }
+            }
+            fun adder(n) {
+              fun add(x) { return x + n; }
+              return add;
+            }
+            var addTwo = adder(2);
+            var total = 0;
+            for (var i = 0; i < 10; i = i + 1) {
+              if (i == 3 or i == 5) total = total + addTwo(i);
+              else if (!(i > 7)) total = total - 1;
+            }
+            print total;
+            print Dog("Rex").speak();
+            print Dog("Rex").init("Max").name;
+            print nil and 1;
+            print addTwo;
+            """;
+
+        Main.run(source);
+        String interpreted = outContent.toString();
+        outContent.reset();
+
+        runHandles(source);
+        assertThat(outContent.toString()).isEqualTo(interpreted);
+        assertThat(errContent.toString()).isEmpty();
+    }
+
+    @Test
+    void itShouldReportRuntimeErrorsFromTheHandleEngine() {
+        runHandles(
+            """
+            class Box {}
+            var box = Box();
+            box.size = 3;
+            print box.size;
+            print box.missing;
+            """
+        );
+        assertThat(outContent.toString().trim()).isEqualTo("3");
+        assertThat(errContent.toString()).isEqualTo("Undefined property 'missing'.\n[line 5]\n");
+    }
+
+    @Test
+    void itShouldCompileArithmeticOnLocalsToOneRegisterInstruction() {
+        RegisterCompiler.Program program = compileRegisters(
+            """
+            {
+              var a;
+              var b = 1;
+              var c = 2;
+              a = b + c;
+              print a;
+            }
+            """
+        );
+
+        // Three declarations, the addition, the print and the return.
+        assertThat(program.script.instructionCount()).isEqualTo(6);
+        assertThat(program.script.disassemble()).contains("ADD 0 1 2 5\n");
+        program.run();
+        assertThat(outContent.toString().trim()).isEqualTo("3");
+    }
+
+    @Test
+    void itShouldRunClosuresAndClassesOnTheRegisterEngine() {
+        String source = """
+            class Counter {
+              init(start) { this.count = start; }
+              next() {
+                fun step() { this.count = this.count + 1; return this.count; }
+                return step;
+              }
+            }
+            class Twice < Counter {
+              next() { var step = super.next(); step(); return step; }
+            }
+            var steps = nil;
+            for (var i = 0; i < 3; i = i + 1) {
+              var j = i;
+              fun get() { return j; }
+              if (i == 1) steps = get;
+            }
+            var a = 1;
+            var b = 2;
+            {
+              var x = 1;
+              x = b and x;
+              var y = x + (x = 10);
+              print y;
+            }
+            print steps();
+            print Twice(5).next()();
+            print Twice(0).init(7).count;
+            print nil.count;
+            """;
+
+        Main.run(source);
+        String interpreted = outContent.toString();
+        String interpretedErrors = errContent.toString();
+        outContent.reset();
+        errContent.reset();
+
+        try {
+            compileRegisters(source).run();
+        } catch (RuntimeError error) {
+            System.err.println(error.getMessage());
+            System.err.println("[line " + error.token.line + "]");
+        }
+        assertThat(outContent.toString()).isEqualTo(interpreted);
+        assertThat(errContent.toString()).isEqualTo(interpretedErrors)
+            .isEqualTo("Only instances have properties.\n[line 28]\n");
+    }
+
+    @Test
+    void itShouldSelectSuperinstructionsForTheCurrentInstructionSet() {
+        // Fails once OpCode changes; rerun SuperinstructionProfiler.
+        assertThat(Superinstructions.INSTRUCTION_SET).isEqualTo(OpCode.fingerprint());
+        assertThat(Superinstructions.ENABLED).isNotEmpty();
+    }
+
+    @Test
+    void itShouldFuseInstructionsWithoutChangingResults() {
+        String source = """
+            fun sum(n) {
+              var total = 0;
+              for (var i = 0; i < n; i = i + 1) {
+                var square = i * i;
+                total = total + square - 1;
+              }
+              return total;
+            }
+            print sum(10);
+            """;
+        Chunk fused = compileFirstFunction(source, true);
+        Chunk plain = compileFirstFunction(source, false);
+        assertThat(fused.instructionCount()).isLessThan(plain.instructionCount());
+
+        runCompiled(source, false);
+        assertThat(outContent.toString().trim()).isEqualTo("275");
+    }
+
+    @Test
+    void itShouldKeepLocalsThatOnlyHeldNumbersInNumberSlots() {
+        String source = """
+            fun sum(n) {
+              var total = 0;
+              for (var i = 0; i < n; i = i + 1) {
+                var label = "item";
+                total = total + i * 2;
+              }
+              return total;
+            }
+            print sum(10);
+            """;
+        Chunk typed = compileAfterRunning(source, true);
+        assertThat(typed.hasNumberSlots).isTrue();
+        assertThat(contains(typed, OpCode.NUMBER_ADD)).isTrue();
+        assertThat(contains(typed, OpCode.NUMBER_LESS)).isTrue();
+
+        Chunk boxed = compileAfterRunning(source, false);
+        assertThat(boxed.hasNumberSlots).isFalse();
+        assertThat(contains(boxed, OpCode.NUMBER_ADD)).isFalse();
+        assertThat(outContent.toString()).isEqualTo("90\n90\n");
+    }
+
+    @Test
+    void itShouldMoveANumberSlotToTheBoxedSideWhenItGetsAnotherValue() {
+        String source = """
+            fun step(n) {
+              var x = n * 2;
+              var y = x - 1;
+              if (n > 30) {
+                x = "big";
+                y = nil;
+              }
+              print x;
+              print y;
+              var z = -(x + 1);
+              return z;
+            }
+            for (var i = 0; i < 32; i = i + 1) {
+              print step(i);
+            }
+            """;
+        runTiered(source, new Tiering(true, 20, 20, false, false));
+        String tiered = outContent.toString();
+        String tieredErrors = errContent.toString();
+        outContent.reset();
+        errContent.reset();
+        Main.run(source);
+
+        assertThat(tiered).isEqualTo(outContent.toString());
+        assertThat(tiered).contains("\n60\n59\n-61\nbig\nnil\n");
+        assertThat(tieredErrors).isEqualTo("Operands must be two numbers or two strings.\n[line 10]\n");
+    }
+
+    @Test
+    void itShouldRecognizeCountedForLoops() {
+        String counted = """
+            for (var i = 10; i >= 0; i = i - 2.5) {
+              var i = "shadowed";
+            }
+            """;
+        String assigned = """
+            for (var i = 0; i < 10; i = i + 1) {
+              fun skip() { i = i + 1; }
+              skip();
+            }
+            """;
+        String bounded = "for (var i = 0; i < limit(); i = i + 1) {}";
+        assertThat(countedLoop(counted)).isNotNull();
+        assertThat(countedLoop(counted).step).isEqualTo(-2.5);
+        assertThat(countedLoop(assigned)).isNull();
+        assertThat(countedLoop(bounded)).isNull();
+    }
+
+    private CountedLoop countedLoop(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+        Stmt.Block block = (Stmt.Block) statements.get(0);
+        return CountedLoop.recognize((Stmt.While) block.statements.get(1), interpreter);
+    }
+
+    @Test
+    void itShouldRunCountedLoopsLikeTheLoopsTheyDesugarTo() {
+        String source = """
+            var last;
+            for (var i = 0; i <= 4; i = i + 1) {
+              print i;
+              fun show() { print i; }
+              last = show;
+            }
+            last();
+            var n = 10;
+            for (var j = 0; j < n; j = j + 1) {
+              n = n - 2;
+            }
+            print n;
+            for (var k = 0; k < n; k = k + 1) {
+              if (k == 1) n = "stop";
+            }
+            """;
+        runTiered(source, Tiering.DISABLED);
+        assertThat(outContent.toString()).isEqualTo("0\n1\n2\n3\n4\n5\n2\n");
+        assertThat(errContent.toString()).isEqualTo("Operands must be numbers.\n[line 13]\n");
+    }
+
+    @Test
+    void itShouldProveOperandsNumbersOnlyWhereNothingElseCanReachThem() {
+        String source = """
+            fun f(n) {
+              var a = 1;
+              var b = a * 2;
+              var c = n * 2;
+              var d = n + a;
+              fun g() { b = "s"; }
+              return b - 1;
+            }
+            print f(3);
+            """;
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+        TypeInference.Coverage coverage = TypeInference.infer(statements, interpreter);
+
+        List<Stmt> body = ((Stmt.Function) statements.get(0)).body;
+        assertThat(((Expr.Binary) ((Stmt.Var) body.get(1)).initializer).provenNumeric).isTrue();
+        assertThat(((Expr.Binary) ((Stmt.Var) body.get(2)).initializer).provenNumeric).isFalse();
+        assertThat(((Expr.Binary) ((Stmt.Var) body.get(3)).initializer).provenNumeric).isTrue();
+        assertThat(((Expr.Binary) ((Stmt.Return) body.get(5)).value).provenNumeric).isFalse();
+        assertThat(coverage.report()).contains("2 of 4 number operations");
+
+        interpreter.interpret(statements);
+        assertThat(outContent.toString()).isEqualTo("1\n");
+    }
+
+    @Test
+    void itShouldKeepOperandChecksWhereAClosureFromAnEarlierIterationAssigns() {
+        String source = """
+            var set;
+            fun f() {
+              var x = 1;
+              for (var i = 0; i < 2; i = i + 1) {
+                if (set != nil) set();
+                print x - 1;
+                fun assign() { x = "s"; }
+                set = assign;
+              }
+            }
+            f();
+            """;
+        Main.run(source);
+        assertThat(outContent.toString()).isEqualTo("0\n");
+        assertThat(errContent.toString()).isEqualTo("Operands must be numbers.\n[line 6]\n");
+    }
+
+    @Test
+    void itShouldKeepOperandChecksWhereBranchesDisagree() {
+        String source = """
+            fun h() {
+              var x = 0;
+              for (var i = 0; i < 3; i = i + 1) {
+                if (i == 1) x = "one"; else x = x - 1;
+                print x;
+              }
+            }
+            h();
+            """;
+        Main.run(source);
+        assertThat(outContent.toString()).isEqualTo("-1\none\n");
+        assertThat(errContent.toString()).isEqualTo("Operands must be numbers.\n[line 4]\n");
+    }
+
+    @Test
+    void itShouldInlineOnlySmallNonRecursiveGlobalFunctions() {
+        String source = """
+            fun sq(x) { return x * x; }
+            fun fact(n) { return n < 2 and 1 or n * fact(n - 1); }
+            fun twice(x) { return x * 2; }
+            fun twice(x) { return x + x; }
+            print sq(3);
+            print fact(4);
+            print twice(5);
+            print sq(1, 2);
+            """;
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+
+        assertThat(Inliner.inline(statements, interpreter)).isEqualTo(1);
+        assertThat(((Expr.Call) ((Stmt.Print) statements.get(4)).expression).inlined)
+            .isSameAs(statements.get(0));
+        try {
+            interpreter.interpret(statements);
+        } catch (RuntimeError error) {
+            System.err.println(error.getMessage());
+        }
+        assertThat(outContent.toString()).isEqualTo("9\n24\n10\n");
+        assertThat(errContent.toString()).isEqualTo("Expected 1 arguments but got 2.\n");
+    }
+
+    @Test
+    void itShouldCallTheNewFunctionOnceAnInlinedOneIsReassigned() {
+        String source = """
+            var scale = 2;
+            fun scaled(x) { return x * scale; }
+            fun cube(x) { return x * x * x; }
+            fun use(v) { return scaled(v); }
+            print use(3);
+            scale = 10;
+            print use(3);
+            scaled = cube;
+            print use(3);
+            """;
+        Main.run(source);
+        assertThat(outContent.toString()).isEqualTo("6\n30\n27\n");
+    }
+
+    @Test
+    void itShouldEvaluateRepeatedPropertyReadsOnce() {
+        String source = """
+            class P { init(x, y) { this.x = x; this.y = y; } m() {} }
+            var a = P(3, 4);
+            print a.x * a.x + a.y * a.y;
+            print a.m == a.m;
+            """;
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+
+        assertThat(CommonSubexpressions.eliminate(statements, interpreter)).isEqualTo(2);
+        Expr.Binary sum = (Expr.Binary) ((Stmt.Print) statements.get(2)).expression;
+        Expr.Binary squareX = (Expr.Binary) sum.left;
+        assertThat(((Expr.Get) squareX.left).temporary).isPositive();
+        assertThat(((Expr.Get) squareX.right).temporary)
+            .isEqualTo(-((Expr.Get) squareX.left).temporary);
+        Expr.Binary methods = (Expr.Binary) ((Stmt.Print) statements.get(3)).expression;
+        assertThat(((Expr.Get) methods.left).temporary).isZero();
+
+        interpreter.interpret(statements);
+        assertThat(outContent.toString()).isEqualTo("25\nfalse\n");
+    }
+
+    @Test
+    void itShouldNotReuseValuesAcrossWritesCallsOrSkippedOperands() {
+        String source = """
+            class P { init(x) { this.x = x; } }
+            var a = P(2);
+            fun bump() { a.x = a.x + 1; return 0; }
+            print a.x * a.x + bump() + a.x * a.x;
+            print a.x * a.x + (a.x = 1) + a.x * a.x;
+            var b = P(5);
+            print (false and b.x * 2 > 0) or b.x * 2;
+            print b.x + b.x + (b.x = 1) + b.x;
+            """;
+        Main.run(source);
+        assertThat(outContent.toString()).isEqualTo("13\n11\n10\n12\n");
+    }
+
+    @Test
+    void itShouldNotMistakeAPropertyReadForALiteralThatSpellsIt() {
+        Main.run("""
+            print ("a" + "s.y") == ("a" + "s".y);
+            """);
+        assertThat(outContent.toString()).isEmpty();
+        assertThat(errContent.toString()).isEqualTo("Only instances have properties.\n[line 1]\n");
+        assertThat(Main.hadRuntimeError).isTrue();
+    }
+
+    @Test
+    void itShouldHoistLoopInvariantExpressionsIntoTheirInnermostLoop() {
+        String source = """
+            var limit = 4;
+            class P { init(x) { this.x = x; } }
+            var p = P(3);
+            var total = 0;
+            var i = 0;
+            while (i < limit * 2) {
+              var j = 0;
+              while (j < p.x + limit) {
+                total = total + p.x * limit;
+                j = j + 1;
+              }
+              i = i + 1;
+            }
+            print total;
+            """;
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+
+        assertThat(LoopInvariants.hoist(statements)).isEqualTo(3);
+        Stmt.While outer = (Stmt.While) statements.get(5);
+        Expr.Binary condition = (Expr.Binary) outer.condition;
+        assertThat(condition.invariant).isZero();
+        assertThat(((Expr.Binary) condition.right).invariant).isEqualTo(1);
+        assertThat(outer.invariants).isEqualTo(1);
+        Stmt.While inner = (Stmt.While) ((Stmt.Block) outer.body).statements.get(1);
+        assertThat(inner.invariants).isEqualTo(2);
+
+        interpreter.interpret(statements);
+        assertThat(outContent.toString()).isEqualTo("672\n");
+    }
+
+    @Test
+    void itShouldNotHoistPastWritesOrEvaluateInvariantsTheLoopNeverReaches() {
+        Main.run("""
+            class P { init(x) { this.x = x; } }
+            var q = P(1);
+            var m = 0;
+            while (m < 3) { print q.x + 1; q.x = q.x + 1; m = m + 1; }
+            fun f(n) {
+              var s = 0;
+              var k = 0;
+              while (k < n * 2) {
+                if (n > 1) s = s + f(n - 1);
+                s = s + n * 10;
+                k = k + 1;
+              }
+              return s;
+            }
+            print f(2);
+            var z;
+            var c = 0;
+            while (c < 0) print z * 2;
+            while (c < 2) {
+              if (c == 1) print z * 2;
+              c = c + 1;
+            }
+            """);
+        assertThat(outContent.toString()).isEqualTo("2\n3\n4\n160\n");
+        assertThat(errContent.toString()).contains("Operands must be numbers.");
+        assertThat(errContent.toString()).contains("[line 20]");
+    }
+
+    @Test
+    void itShouldOnlyFindFunctionsThatDependOnNothingButTheirArguments() {
+        String source = """
+            fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }
+            fun isEven(n) { if (n == 0) return true; return isOdd(n - 1); }
+            fun isOdd(n) { if (n == 0) return false; return isEven(n - 1); }
+            fun sum(n) { var total = 0; while (n > 0) { total = total + n; n = n - 1; } return total; }
+            var offset = 1;
+            fun shifted(n) { return n + offset; }
+            fun timed(n) { return clock() + n; }
+            fun loud(n) { print n; return n; }
+            fun callsLoud(n) { return loud(n) + 1; }
+            fun field(p) { return p.x; }
+            fun reassigned(n) { return n; }
+            reassigned = fib;
+            fun twice(n) { return n; }
+            fun twice(n) { return n * 2; }
+            """;
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+
+        assertThat(Purity.pureFunctions(statements, interpreter))
+            .extracting(function -> function.name.lexeme)
+            .containsExactly("fib", "isEven", "isOdd", "sum");
+    }
+
+    @Test
+    void itShouldReuseTheResultsOfMemoizedCallsWithinItsBound() {
+        String source = """
+            fun paths(r, c) {
+              if (r == 0 or c == 0) return 1;
+              return paths(r - 1, c) + paths(r, c - 1);
+            }
+            fun sign(n) { return 1 / n; }
+            print paths(10, 10);
+            print sign(0) == sign(-0);
+            print paths(10, 10);
+            """;
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(Tiering.DISABLED);
+        new Resolver(interpreter).resolve(statements);
+        for (Stmt.Function function : Purity.pureFunctions(statements, interpreter)) {
+            interpreter.memos.put(function, new Memo(function.name.lexeme, 16));
+        }
+
+        interpreter.interpret(statements);
+        assertThat(outContent.toString()).isEqualTo("184756\nfalse\n184756\n");
+        Memo paths = interpreter.memos.get((Stmt.Function) statements.get(0));
+        assertThat(paths.hits).isPositive();
+        assertThat(paths.evictions).isPositive();
+        assertThat(paths.report()).startsWith("memo paths: " + paths.hits + " of ");
+    }
+
+    @Test
+    void itShouldParseOperatorsByPrecedenceFromTheTable() {
+        String source = """
+            print a or b and c == d < e + f * -g.h(1)(2);
+            print 1 - 2 - 3 / 4 / 5;
+            x = y.z = !!w or v;
+            """;
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        AstPrinter printer = new AstPrinter();
+
+        assertThat(statements).extracting(printer::print).containsExactly(
+            "(print (or a (and b (== c (< d (+ e (* f (- (call (call (get h g) 1.0) 2.0)))))))))",
+            "(print (- (- 1.0 2.0) (/ (/ 3.0 4.0) 5.0)))",
+            "(expression (assign x (set z y (or (! (! w)) v))))");
+    }
+
+    @Test
+    void itShouldReportMalformedExpressionsWhereTheRecursiveDescentParserDid() {
+        Main.run("""
+            a + b = c * d;
+            print 1 +;
+            x.1 = 2;
+            f(1, 2;
+            """);
+        assertThat(errContent.toString()).isEqualTo("""
+            [line 1] Error:  at '=': Invalid assignment target.
+            [line 2] Error:  at ';': Expect expression.
+            [line 3] Error:  at '1': Expect property name after '.'.
+            [line 4] Error:  at ';': Expect ')' after arguments.
+            """);
+        assertThat(Main.hadError).isTrue();
+    }
+
+    @Test
+    void itShouldSkipTheWholeProgramPassesUnderLoxLazy() {
+        String source = """
+            fun sq(x) { return x * x; }
+            class Base { name() { return "base"; } }
+            class Derived < Base {
+              init(suffix) { this.suffix = suffix; }
+              name() { return super.name() + this.suffix; }
+            }
+            fun counter() {
+              var count = 0;
+              fun next() { count = count + 1; return count; }
+              return next;
+            }
+            var next = counter();
+            next();
+            print next() + sq(3);
+            print Derived("!").name();
+            """;
+        System.setProperty("lox.types.stats", "true");
+        try {
+            Main.run(source);
+            String eager = outContent.toString();
+            assertThat(errContent.toString()).startsWith("types: ");
+
+            outContent.reset();
+            errContent.reset();
+            System.setProperty("lox.lazy", "true");
+            Main.run(source);
+            assertThat(outContent.toString()).isEqualTo(eager).isEqualTo("11\nbase!\n");
+            assertThat(errContent.toString()).isEmpty();
+        } finally {
+            System.clearProperty("lox.types.stats");
+            System.clearProperty("lox.lazy");
+        }
+    }
+
+    @Test
+    void itShouldReportStaticErrorsUnderLoxLazyBeforeRunning() {
+        String broken = """
+            print "before";
+            fun never() { print 1 +; }
+            """;
+        String unresolved = """
+            print "before";
+            class A { init() { return 1; } }
+            fun shadowed() { var a = 1; { var a = a; } }
+            """;
+        System.setProperty("lox.lazy", "true");
+        try {
+            Main.run(broken);
+            assertThat(errContent.toString()).isEqualTo("[line 2] Error:  at ';': Expect expression.\n");
+            assertThat(Main.hadError).isTrue();
+
+            Main.hadError = false;
+            errContent.reset();
+            Main.run(unresolved);
+            assertThat(errContent.toString()).isEqualTo("""
+                [line 2] Error: Can't return a value from an initializer.
+                [line 3] Error: Can't read local variable in its own initializer.
+                """);
+            assertThat(Main.hadError).isTrue();
+            assertThat(outContent.toString()).isEmpty();
+        } finally {
+            System.clearProperty("lox.lazy");
+        }
+    }
+
+    @Test
+    void itShouldKeepTokensAsOffsetsIntoTheSource() {
+        String source = """
+            var text = "two
+            lines"; // comment
+            print 12.50 >= text;
+            """;
+        TokenBuffer tokens = new Scanner(source).scanTokens();
+
+        assertThat(tokens).hasSize(11);
+        assertThat(tokens.type(3)).isEqualTo(TokenType.STRING);
+        assertThat(tokens.line(3)).isEqualTo(2);
+        assertThat(tokens.literal(3)).isEqualTo("two\nlines");
+        assertThat(tokens.lexeme(6)).isEqualTo("12.50");
+        assertThat(tokens.literal(6)).isEqualTo(12.5);
+        assertThat(tokens.literal(1)).isNull();
+        assertThat(tokens).extracting(Token::toString).containsExactly(
+            "VAR var null", "IDENTIFIER text null", "EQUAL = null",
+            "STRING \"two\nlines\" two\nlines", "SEMICOLON ; null", "PRINT print null",
+            "NUMBER 12.50 12.5", "GREATER_EQUAL >= null", "IDENTIFIER text null",
+            "SEMICOLON ; null", "EOF  null");
+        assertThat(tokens.get(10).line).isEqualTo(4);
+    }
+
+    @Test
+    void itShouldParseTokenListsTheScannerDidNotMake() {
+        String source = """
+            fun add(a, b) { return a + b * 2; }
+            print add("x", 1) or nil;
+            print 1 +
+            """;
+        List<Token> copied = new ArrayList<>(new Scanner(source).scanTokens());
+        assertThat(TokenBuffer.of(copied)).extracting(Token::toString)
+            .isEqualTo(copied.stream().map(Token::toString).toList());
+
+        List<Stmt> statements = new Parser(copied).parse();
+        AstPrinter printer = new AstPrinter();
+        assertThat(statements.subList(0, 2)).extracting(printer::print).containsExactly(
+            "(fun add(a b) (return (+ a (* b 2.0))))",
+            "(print (or (call add x 1.0) nil))");
+        assertThat(errContent.toString()).isEqualTo("[line 4] Error:  at end: Expect expression.\n");
+    }
+
+    @Test
+    void itShouldScanAMappedFileAsItScansTheDecodedText(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("unicode.lox");
+        Files.writeString(file, """
+            var café = "naïve ☃";
+            print café + " 😀";
+            var x€ = 1;
+            var a😀b = "multi
+            line";
+            print λ;
+            """);
+        MappedSource mapped = MappedSource.map(file);
+        assertThat(mapped.length()).isEqualTo(Files.size(file));
+
+        List<String> decoded = new Scanner(Files.readString(file)).scanTokens().stream()
+            .map(Token::toString).toList();
+        String decodedErrors = errContent.toString();
+        errContent.reset();
+
+        assertThat(new Scanner(mapped).scanTokens()).extracting(Token::toString)
+            .isEqualTo(decoded)
+            .contains("IDENTIFIER café null", "STRING \"multi\nline\" multi\nline");
+        // One for each of € and λ, and one for each half of 😀.
+        assertThat(errContent.toString()).isEqualTo(decodedErrors);
+        assertThat(decodedErrors.lines()).hasSize(4);
+    }
+
+    @Test
+    void itShouldRunAMappedFileAndRefuseMalformedOnesLikeReadStringDoes(@TempDir Path dir)
+            throws Exception {
+        Path file = dir.resolve("program.lox");
+        Files.writeString(file, """
+            fun greet(name) { return "héllo, " + name; }
+            print greet("wörld");
+            """);
+        Main.run(MappedSource.map(file));
+        assertThat(outContent.toString()).isEqualTo("héllo, wörld\n");
+
+        for (byte[] malformed : new byte[][] {
+            {'"', (byte) 0xE2, (byte) 0x98}, {(byte) 0xC0, (byte) 0xAF}, {(byte) 0xED, (byte) 0xA0, (byte) 0x80}}) {
+            Files.write(file, malformed);
+            Throwable expected = catchThrowable(() -> Files.readString(file));
+            assertThatThrownBy(() -> MappedSource.map(file))
+                .isInstanceOf(expected.getClass()).hasMessage(expected.getMessage());
+        }
+    }
+
+    @Test
+    void itShouldScanTokensSpanningChunksAsItScansTheWholeSource() {
+        String source = """
+            var long_identifier = 12.75 != 3; // a comment longer than a chunk
+            print "a string
+            over lines" >= nothing;
+            @ "unterminated
+            """;
+        TokenBuffer whole = new Scanner(source).scanTokens();
+        String wholeErrors = errContent.toString();
+
+        for (int chunk : new int[] {1, 2, 3, 7}) {
+            errContent.reset();
+            List<Token> streamed = new ArrayList<>();
+            new Scanner(new StringReader(source), chunk).tokens().forEachRemaining(streamed::add);
+
+            assertThat(streamed).extracting(Token::toString)
+                .isEqualTo(whole.stream().map(Token::toString).toList());
+            assertThat(streamed).extracting(token -> token.line)
+                .isEqualTo(whole.stream().map(token -> token.line).toList());
+            assertThat(errContent.toString()).isEqualTo(wholeErrors);
+        }
+        assertThat(wholeErrors).isEqualTo("""
+            [line 4] Error: Unexpected character: @
+            [line 5] Error: Unterminated string.
+            """);
+    }
+
+    @Test
+    void itShouldParseTokensAsTheyAreScanned() {
+        String source = "1 + 2;\nfun f(a) { return a * 2; }\nprint f(3);\n";
+        List<Token> read = new ArrayList<>();
+        Iterator<Token> scanned = new Scanner(new StringReader(source), 4).tokens();
+        Iterator<Token> counted = new Iterator<>() {
+            public boolean hasNext() {
+                return scanned.hasNext();
+            }
+
+            public Token next() {
+                Token token = scanned.next();
+                read.add(token);
+                return token;
+            }
+        };
+
+        Stmt first = new Parser(counted).parseExpressionStatement();
+        assertThat(new AstPrinter().print(first)).isEqualTo("(expression (+ 1.0 2.0))");
+        // Only the token after the statement has been read.
+        assertThat(read).extracting(token -> token.lexeme).containsExactly("1", "+", "2", ";", "fun");
+
+        List<Stmt> streamed = new Parser(new Scanner(new StringReader(source), 4).tokens()).parse();
+        List<Stmt> whole = new Parser(new Scanner(source).scanTokens()).parse();
+        AstPrinter printer = new AstPrinter();
+        assertThat(streamed).extracting(printer::print)
+            .isEqualTo(whole.stream().map(printer::print).toList());
+
+        Main.parse(new Scanner(new StringReader("(1 + 2) * 3 @ 4")).tokens());
+        assertThat(outContent.toString()).isEmpty();
+        assertThat(errContent.toString()).isEqualTo("[line 1] Error: Unexpected character: @\n");
+    }
+
+    @Test
+    void itShouldKeepNumbersApartFromOtherValuesWhenNanBoxed() {
+        double[] numbers = {0.0, -0.0, 1.5, Double.NaN, -Double.NaN, 0.0 / 0.0,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE};
+        for (double number : numbers) {
+            long encoded = NanBoxVM.encode(number);
+            assertThat(NanBoxVM.isNumber(encoded)).isTrue();
+            assertThat(NanBoxVM.decode(encoded, null)).isEqualTo(number);
+        }
+        assertThat(NanBoxVM.encode(null)).isEqualTo(NanBoxVM.NIL);
+        assertThat(NanBoxVM.decode(NanBoxVM.encode(true), null)).isEqualTo(true);
+        assertThat(NanBoxVM.decode(NanBoxVM.encode(false), null)).isEqualTo(false);
+        assertThat(NanBoxVM.encode("text")).isEqualTo(NanBoxVM.OBJECT);
+        assertThat(NanBoxVM.decode(NanBoxVM.OBJECT, "text")).isEqualTo("text");
+        for (long tag : new long[] {NanBoxVM.NIL, NanBoxVM.TRUE, NanBoxVM.FALSE, NanBoxVM.OBJECT}) {
+            assertThat(NanBoxVM.isNumber(tag)).isFalse();
+        }
+    }
+
+    @Test
+    void itShouldRunProgramsOnTheNanBoxEngine() {
+        String source = """
+            var nan = 0 / 0;
+            fun same(a, b) { return a == b; }
+            print nan;
+            print same(nan, nan);
+            print same(0, -0);
+            print -0;
+            print nil == false;
+            print 1 == true;
+            print "a" + "b" == "ab";
+            print !nil and !0;
+            class Box {
+              init(value) { this.value = value; }
+              get() { return this.value; }
+            }
+            fun counter() {
+              var count = 0;
+              fun next() { count = count + 0.5; return count; }
+              return next;
+            }
+            var next = counter();
+            next();
+            print next();
+            print Box(nan).get() == nan;
+            print Box(true).get();
+            fun sum(n) {
+              var total = 0;
+              for (var i = 0; i < n; i = i + 1) total = total + i / 2;
+              return total;
+            }
+            print sum(10);
+            print 1 < "a";
+            """;
+
+        Main.run(source);
+        String interpreted = outContent.toString();
+        String interpretedErrors = errContent.toString();
+        outContent.reset();
+        errContent.reset();
+
+        try {
+            NanBoxVM.run(compileRegisters(source));
+        } catch (RuntimeError error) {
+            System.err.println(error.getMessage());
+            System.err.println("[line " + error.token.line + "]");
+        }
+        assertThat(outContent.toString()).isEqualTo(interpreted);
+        assertThat(errContent.toString()).isEqualTo(interpretedErrors)
+            .isEqualTo("Operands must be numbers.\n[line 31]\n");
+    }
 }
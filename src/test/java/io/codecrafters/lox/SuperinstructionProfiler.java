@@ -0,0 +1,111 @@
+package io.codecrafters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Runs the benchmark corpus with every function and loop compiled to
+ * bytecode, counts the opcode pairs and triples the VM executes, and
+ * regenerates {@link Superinstructions} from the superinstructions in
+ * {@link OpCode} that would save the most dispatches. Prints the counts,
+ * including sequences that have no superinstruction yet, as candidates.
+ *
+ * <p>Rerun it whenever the instruction set changes, or the corpus does;
+ * a test fails while the checked-in set was made for another instruction
+ * set. Not a unit test; run it by hand from the project root after
+ * {@code mvn test-compile}:
+ * <pre>
+ * java -cp target/classes:target/test-classes io.codecrafters.lox.SuperinstructionProfiler
+ * </pre>
+ */
+class SuperinstructionProfiler {
+
+    private static final Path CORPUS = Path.of("src/test/resources/benchmarks");
+    private static final Path OUTPUT = Path.of("src/main/java/io/codecrafters/lox/Superinstructions.java");
+
+    // A superinstruction is kept if it saves at least this share of dispatches.
+    private static final double MIN_SAVED = 0.005;
+    private static final int SHOWN = 30;
+
+    public static void main(String[] args) throws IOException {
+        OpcodeProfile profile = new OpcodeProfile();
+        List<Path> programs;
+        try (Stream<Path> files = Files.list(CORPUS)) {
+            programs = files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+        }
+
+        PrintStream out = System.out;
+        for (Path program : programs) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                run(Files.readString(program), profile);
+            } finally {
+                System.setOut(out);
+            }
+        }
+
+        long total = profile.total();
+        System.out.printf("%d instructions executed over %d programs%n%n", total, programs.size());
+        System.out.printf("%-50s %12s %8s  %s%n", "sequence", "count", "saved", "superinstruction");
+        List<OpcodeProfile.Sequence> sequences = profile.sequences();
+        List<OpcodeProfile.Sequence> selected = new ArrayList<>();
+        for (int i = 0; i < sequences.size(); i++) {
+            OpcodeProfile.Sequence sequence = sequences.get(i);
+            int fused = OpCode.fused(sequence.ops());
+            double saved = (double) sequence.saved() / total;
+            if (fused >= 0 && saved >= MIN_SAVED) {
+                selected.add(sequence);
+            }
+            if (i < SHOWN) {
+                System.out.printf("%-50s %12d %7.2f%%  %s%n", sequence.name(), sequence.count(),
+                    saved * 100, fused < 0 ? "-" : OpCode.NAMES[fused]);
+            }
+        }
+
+        Files.writeString(OUTPUT, generate(selected, total));
+        System.out.printf("%nWrote %d superinstructions to %s%n", selected.size(), OUTPUT);
+    }
+
+    private static void run(String source, OpcodeProfile profile) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        Interpreter interpreter = new Interpreter(new Tiering(true, 1, 1, false, false, false,
+            Tiering.DEFAULT_TRACE_THRESHOLD, false));
+        interpreter.opcodeProfile = profile;
+        new Resolver(interpreter).resolve(statements);
+        interpreter.interpret(statements);
+    }
+
+    private static String generate(List<OpcodeProfile.Sequence> selected, long total) {
+        StringBuilder enabled = new StringBuilder();
+        for (OpcodeProfile.Sequence sequence : selected) {
+            enabled.append(String.format("    OpCode.%s,  // %.2f%% of dispatches saved%n",
+                OpCode.NAMES[OpCode.fused(sequence.ops())],
+                100.0 * sequence.saved() / total));
+        }
+        return """
+            package io.codecrafters.lox;
+
+            /**
+             * The superinstructions the BytecodeCompiler fuses, chosen by
+             * {@code SuperinstructionProfiler} from the opcode sequences run most
+             * often over the benchmark corpus. Generated; rerun the profiler
+             * instead of editing it, and whenever {@link OpCode} changes.
+             */
+            final class Superinstructions {
+              // Identifies the instruction set the selection was made for.
+              static final String INSTRUCTION_SET = "%s";
+
+              static final int[] ENABLED = {
+            %s  };
+
+              private Superinstructions() {}
+            }
+            """.formatted(OpCode.fingerprint(), enabled);
+    }
+}